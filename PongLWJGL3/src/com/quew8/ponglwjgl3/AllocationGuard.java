@@ -0,0 +1,122 @@
+package com.quew8.ponglwjgl3;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the bytes the game thread allocates in each frame. Once the game
+ * has warmed up every frame should allocate nothing, so in strict mode frames
+ * which allocate more than the budget fail the run. A few such frames are 
+ * tolerated as when C2 deoptimizes a method it reallocates the objects it had
+ * scalar replaced on the game thread, which no change to the game can avoid.
+ *
+ * @author Quew8
+ */
+public class AllocationGuard {
+    private final com.sun.management.ThreadMXBean threadBean;
+    /**
+     * The thread being measured.
+     */
+    private final long threadId;
+    /**
+     * The bytes the measurement itself allocates, subtracted from each frame.
+     */
+    private final long overhead;
+    /**
+     * The most a steady state frame may allocate.
+     */
+    private final long budget;
+    /**
+     * The number of frames after which the game is taken to be steady.
+     */
+    private final long warmupFrames;
+    /**
+     * The number of frames which may exceed the budget before it is an error.
+     */
+    private final long tolerance;
+    /**
+     * Should exceeding the budget more than tolerated throw.
+     */
+    private final boolean strict;
+    /**
+     * The allocated bytes at the start of the current frame.
+     */
+    private long frameStartBytes;
+    private long frames = 0;
+    /**
+     * Counters for allocation in steady state frames.
+     */
+    private final Metrics.Counter totalBytes, maxBytes, framesOver, steadyFrames;
+
+    /**
+     * Creates a guard for the calling thread.
+     *
+     * @param budget The most a steady state frame may allocate in bytes.
+     * @param warmupFrames The number of frames to ignore first.
+     * @param tolerance The number of frames which may exceed the budget.
+     * @param strict Should exceeding the budget more than tolerated throw.
+     * @param metrics The metrics to report in.
+     */
+    public AllocationGuard(long budget, long warmupFrames, long tolerance, boolean strict, Metrics metrics) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(!(bean instanceof com.sun.management.ThreadMXBean)) {
+            throw new RuntimeException("Thread allocation measurement is not supported by this JVM");
+        }
+        this.threadBean = (com.sun.management.ThreadMXBean) bean;
+        if(!threadBean.isThreadAllocatedMemorySupported()) {
+            throw new RuntimeException("Thread allocation measurement is not supported by this JVM");
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        this.threadId = Thread.currentThread().getId();
+        this.budget = budget;
+        this.warmupFrames = warmupFrames;
+        this.tolerance = tolerance;
+        this.strict = strict;
+        this.totalBytes = metrics.counter("alloc.bytes.total");
+        this.maxBytes = metrics.counter("alloc.bytes.max");
+        this.framesOver = metrics.counter("alloc.frames.over");
+        this.steadyFrames = metrics.counter("alloc.frames.steady");
+        //Find what a begin/end pair costs with nothing between.
+        long min = Long.MAX_VALUE;
+        for(int i = 0; i < 16; i++) {
+            long a = threadBean.getThreadAllocatedBytes(threadId);
+            long b = threadBean.getThreadAllocatedBytes(threadId);
+            min = Math.min(min, b - a);
+        }
+        this.overhead = min;
+    }
+
+    /**
+     * To be called at the top of every frame.
+     */
+    public void beginFrame() {
+        frameStartBytes = threadBean.getThreadAllocatedBytes(threadId);
+    }
+
+    /**
+     * To be called at the end of every frame.
+     *
+     * @return The bytes the frame allocated.
+     */
+    public long endFrame() {
+        long bytes = threadBean.getThreadAllocatedBytes(threadId) - frameStartBytes - overhead;
+        frames++;
+        if(frames <= warmupFrames) {
+            return bytes;
+        }
+        steadyFrames.increment();
+        totalBytes.add(bytes);
+        if(bytes > maxBytes.get()) {
+            maxBytes.set(bytes);
+        }
+        if(bytes > budget) {
+            framesOver.increment();
+            if(strict && framesOver.get() > tolerance) {
+                throw new RuntimeException(
+                    "Frame " + frames + " allocated " + bytes + " bytes, budget is " + budget 
+                    + " and " + framesOver.get() + " frames have exceeded it"
+                );
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,211 @@
+package com.quew8.ponglwjgl3;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * The OpenGL and window system calls the game makes. The GL methods are named
+ * and behave as their LWJGL counterparts. LWJGLBackend passes them straight
+ * through to the driver and HeadlessBackend records them without a context so
+ * that the game can be run and measured without a display.
+ *
+ * @author Quew8
+ */
+public interface Backend {
+
+    /**
+     * Sets the window the window system calls apply to. Ignored by backends
+     * without a window.
+     *
+     * @param window The GLFW window handle.
+     */
+    public void setWindow(long window);
+
+    /**
+     * Sets the handler input events are delivered to. Backends whose events
+     * are delivered through GLFW callbacks ignore this.
+     *
+     * @param handler The handler.
+     */
+    public void setInputHandler(InputHandler handler);
+
+    /**
+     * @return The current time in milliseconds.
+     */
+    public double getTimeMillis();
+
+    /**
+     * Processes pending events without waiting.
+     */
+    public void pollEvents();
+
+    /**
+     * Waits until an event is pending or the timeout elapses, then processes
+     * pending events.
+     *
+     * @param timeout The maximum time to wait in seconds.
+     */
+    public void waitEventsTimeout(double timeout);
+
+    /**
+     * Presents the rendered frame.
+     */
+    public void swapBuffers();
+
+    /**
+     * @return true if the window has been asked to close.
+     */
+    public boolean shouldClose();
+
+    /**
+     * @param key The GLFW key code.
+     * @return true if the key is currently down.
+     */
+    public boolean isKeyDown(int key);
+
+    /**
+     * @return true if the LWJGL natives are loaded so that native memory can
+     * be allocated with MemoryUtil, false if buffers must come from the heap.
+     */
+    public boolean hasNatives();
+
+    /**
+     * Enables GL_DEBUG_OUTPUT, synchronously so that each message is delivered
+     * during the call which caused it, and routes the messages to the handler.
+     * 
+     * @param handler The handler.
+     * @return false if neither OpenGL 4.3 nor KHR_debug is available.
+     */
+    public boolean setDebugMessageHandler(DebugMessageHandler handler);
+
+    public int glCreateProgram();
+
+    public int glCreateShader(int type);
+
+    public void glShaderSource(int shader, CharSequence source);
+
+    public void glCompileShader(int shader);
+
+    public int glGetShaderi(int shader, int pname);
+
+    public String glGetShaderInfoLog(int shader, int maxLength);
+
+    public void glAttachShader(int program, int shader);
+
+    public void glLinkProgram(int program);
+
+    public int glGetProgrami(int program, int pname);
+
+    public String glGetProgramInfoLog(int program, int maxLength);
+
+    public int glGetUniformLocation(int program, CharSequence name);
+
+    public int glGenBuffers();
+
+    public void glBindBuffer(int target, int buffer);
+
+    public void glBufferData(int target, FloatBuffer data, int usage);
+
+    public void glBufferData(int target, ByteBuffer data, int usage);
+
+    public void glBufferSubData(int target, long offset, FloatBuffer data);
+
+    public void glBufferSubData(int target, long offset, ByteBuffer data);
+
+    public int glGenVertexArrays();
+
+    public void glBindVertexArray(int array);
+
+    public void glEnableVertexAttribArray(int index);
+
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long pointer);
+
+    public void glLineWidth(float width);
+
+    public void glClearColor(float red, float green, float blue, float alpha);
+
+    public void glClear(int mask);
+
+    public void glViewport(int x, int y, int width, int height);
+
+    public void glUseProgram(int program);
+
+    public void glUniformMatrix4fv(int location, boolean transpose, FloatBuffer value);
+
+    public void glDrawArrays(int mode, int first, int count);
+
+    public int glGetError();
+
+    public void glDeleteVertexArrays(int array);
+
+    public void glDeleteBuffers(int buffer);
+
+    public void glDeleteProgram(int program);
+
+    public String glGetString(int name);
+
+    public void glFinish();
+
+    public int glGenFramebuffers();
+
+    public void glBindFramebuffer(int target, int framebuffer);
+
+    public int glGenRenderbuffers();
+
+    public void glBindRenderbuffer(int target, int renderbuffer);
+
+    public void glRenderbufferStorage(int target, int internalformat, int width, int height);
+
+    public void glFramebufferRenderbuffer(int target, int attachment, int renderbuffertarget, int renderbuffer);
+
+    public int glCheckFramebufferStatus(int target);
+
+    public void glDeleteFramebuffers(int framebuffer);
+
+    public void glDeleteRenderbuffers(int renderbuffer);
+
+    /**
+     * Receives the input events of the window.
+     */
+    public static interface InputHandler {
+
+        /**
+         * @param key The GLFW key code.
+         * @param action GLFW_PRESS, GLFW_RELEASE or GLFW_REPEAT.
+         */
+        public void onKey(int key, int action);
+
+        /**
+         * @param x The x coord of the cursor in window coords.
+         * @param y The y coord of the cursor in window coords, from the top.
+         */
+        public void onCursorPos(double x, double y);
+
+        /**
+         * @param button The mouse button.
+         * @param action GLFW_PRESS or GLFW_RELEASE.
+         */
+        public void onMouseButton(int button, int action);
+
+        /**
+         * @param framebufferWidth The width of the new framebuffer.
+         * @param framebufferHeight The height of the new framebuffer.
+         */
+        public void onResize(int framebufferWidth, int framebufferHeight);
+    }
+
+    /**
+     * Receives the driver's debug messages.
+     */
+    public static interface DebugMessageHandler {
+
+        /**
+         * @param source The GL_DEBUG_SOURCE_ of the message.
+         * @param type The GL_DEBUG_TYPE_ of the message.
+         * @param id The driver's id for the message.
+         * @param severity The GL_DEBUG_SEVERITY_ of the message.
+         * @param message The message.
+         */
+        public void onDebugMessage(int source, int type, int id, int severity, String message);
+    }
+}
@@ -0,0 +1,314 @@
+package com.quew8.ponglwjgl3;
+
+import com.quew8.ponglwjgl3.Pong.Ball;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import static com.quew8.ponglwjgl3.Pong.*;
+
+/**
+ * Resolves contacts between balls, which all share BALL_RADIUS and the same
+ * mass, with elastic impulses.
+ *
+ * Touching pairs are found with a uniform grid of cells one ball across and
+ * grouped into islands, the sets of balls connected by contacts. Islands
+ * share no balls so they are solved independently, in parallel if there are
+ * enough of them. Within an island the pairs are solved in a fixed order for
+ * the configured number of iterations, so that chains of contacts settle, and
+ * then pushed apart. The pairs, islands and the order within each island only
+ * depend on the balls, never on the threads, so the results are the same
+ * however many threads solve them.
+ *
+ * Every array is reused between calls, so solving serially allocates nothing
+ * once they have grown to fit.
+ *
+ * @author Quew8
+ */
+public class BallContactSolver {
+    /**
+     * The default number of passes over each island's pairs.
+     */
+    public static final int DEFAULT_ITERATIONS = 4;
+    /**
+     * The coefficient of restitution between balls. Balls bounce off walls
+     * and paddles without losing speed, so off each other too.
+     */
+    private static final float RESTITUTION = 1;
+    /**
+     * The size of a grid cell, a ball's diameter, so touching balls are in the
+     * same or neighbouring cells.
+     */
+    private static final float CELL_SIZE = 2 * BALL_RADIUS;
+    private static final int GRID_WIDTH = (int) Math.ceil(SCREEN_WIDTH / CELL_SIZE),
+            GRID_HEIGHT = (int) Math.ceil(SCREEN_HEIGHT / CELL_SIZE);
+    private final int iterations;
+    private final int parallelThreshold;
+    /**
+     * The balls being solved, only set during solve().
+     */
+    private List<Ball> balls;
+    /**
+     * Each ball's cell and the balls sorted by cell, cellStart[c] being the
+     * index in cellBalls of the first ball in cell c. cellFill is scratch for
+     * the sort.
+     */
+    private int[] ballCell = new int[0], cellBalls = new int[0];
+    private final int[] cellStart = new int[(GRID_WIDTH * GRID_HEIGHT) + 1],
+            cellFill = new int[GRID_WIDTH * GRID_HEIGHT];
+    /**
+     * The touching pairs, pairA[i] < pairB[i].
+     */
+    private int[] pairA = new int[0], pairB = new int[0];
+    private int nPairs = 0;
+    /**
+     * The union find forest over the balls and the island of each root.
+     */
+    private int[] parent = new int[0], ballIsland = new int[0];
+    /**
+     * The pairs sorted by island, islandStart[k] being the index in
+     * islandPairs of the first pair of island k.
+     */
+    private int[] islandPairs = new int[0], islandStart = new int[1], islandFill = new int[1];
+    private int nIslands = 0;
+
+    /**
+     * @param iterations The number of passes over each island's pairs.
+     * @param parallelThreshold The number of islands from which they are
+     * solved in parallel.
+     */
+    public BallContactSolver(int iterations, int parallelThreshold) {
+        if(iterations < 1) {
+            throw new IllegalArgumentException("iterations must be at least 1: " + iterations);
+        }
+        this.iterations = iterations;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Resolves the contacts between the specified balls, changing their
+     * positions and velocities. Islands are solved in parallel on the pool
+     * running the caller, the common pool unless called from within another.
+     *
+     * @param balls The balls.
+     * @return The number of touching pairs.
+     */
+    public int solve(List<Ball> balls) {
+        this.balls = balls;
+        try {
+            findPairs();
+            findIslands();
+            if(nIslands >= parallelThreshold) {
+                IntStream.range(0, nIslands).parallel().forEach(this::solveIsland);
+            } else {
+                for(int k = 0; k < nIslands; k++) {
+                    solveIsland(k);
+                }
+            }
+            return nPairs;
+        } finally {
+            this.balls = null;
+        }
+    }
+
+    /**
+     * @return The number of islands found by the last solve().
+     */
+    public int getIslandCount() {
+        return nIslands;
+    }
+
+    /**
+     * Sorts the balls into cells and collects every touching pair, in order of
+     * their first ball.
+     */
+    private void findPairs() {
+        int nBalls = balls.size();
+        if(ballCell.length < nBalls) {
+            int capacity = Math.max(nBalls, ballCell.length * 2);
+            ballCell = new int[capacity];
+            cellBalls = new int[capacity];
+            parent = new int[capacity];
+            ballIsland = new int[capacity];
+        }
+        Arrays.fill(cellStart, 0);
+        for(int i = 0; i < nBalls; i++) {
+            Ball b = balls.get(i);
+            int c = getCell(b.x, b.y);
+            ballCell[i] = c;
+            cellStart[c + 1]++;
+        }
+        for(int c = 0; c < GRID_WIDTH * GRID_HEIGHT; c++) {
+            cellStart[c + 1] += cellStart[c];
+            cellFill[c] = cellStart[c];
+        }
+        for(int i = 0; i < nBalls; i++) {
+            cellBalls[cellFill[ballCell[i]]++] = i;
+        }
+
+        nPairs = 0;
+        float reach = 4 * BALL_RADIUS * BALL_RADIUS;
+        for(int i = 0; i < nBalls; i++) {
+            Ball a = balls.get(i);
+            int cx = ballCell[i] % GRID_WIDTH, cy = ballCell[i] / GRID_WIDTH;
+            for(int ny = Math.max(0, cy - 1); ny <= Math.min(GRID_HEIGHT - 1, cy + 1); ny++) {
+                for(int nx = Math.max(0, cx - 1); nx <= Math.min(GRID_WIDTH - 1, cx + 1); nx++) {
+                    int c = nx + (ny * GRID_WIDTH);
+                    for(int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+                        int j = cellBalls[k];
+                        if(j <= i) {
+                            continue;
+                        }
+                        Ball b = balls.get(j);
+                        float dx = b.x - a.x, dy = b.y - a.y;
+                        if((dx * dx) + (dy * dy) < reach) {
+                            addPair(i, j);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void addPair(int a, int b) {
+        if(nPairs == pairA.length) {
+            int capacity = Math.max(16, nPairs * 2);
+            pairA = Arrays.copyOf(pairA, capacity);
+            pairB = Arrays.copyOf(pairB, capacity);
+        }
+        pairA[nPairs] = a;
+        pairB[nPairs] = b;
+        nPairs++;
+    }
+
+    /**
+     * Joins the touching balls into islands, numbered in order of their first
+     * pair, and sorts the pairs by island keeping their order within each.
+     */
+    private void findIslands() {
+        for(int p = 0; p < nPairs; p++) {
+            parent[pairA[p]] = pairA[p];
+            parent[pairB[p]] = pairB[p];
+        }
+        for(int p = 0; p < nPairs; p++) {
+            int ra = findRoot(pairA[p]), rb = findRoot(pairB[p]);
+            if(ra != rb) {
+                parent[Math.max(ra, rb)] = Math.min(ra, rb);
+            }
+        }
+        for(int p = 0; p < nPairs; p++) {
+            ballIsland[pairA[p]] = -1;
+            ballIsland[pairB[p]] = -1;
+        }
+        nIslands = 0;
+        for(int p = 0; p < nPairs; p++) {
+            int root = findRoot(pairA[p]);
+            if(ballIsland[root] == -1) {
+                ballIsland[root] = nIslands++;
+            }
+        }
+        if(islandStart.length < nIslands + 1) {
+            islandStart = new int[Math.max(nIslands + 1, islandStart.length * 2)];
+            islandFill = new int[islandStart.length];
+        }
+        if(islandPairs.length < nPairs) {
+            islandPairs = new int[pairA.length];
+        }
+        Arrays.fill(islandStart, 0, nIslands + 1, 0);
+        for(int p = 0; p < nPairs; p++) {
+            islandStart[ballIsland[findRoot(pairA[p])] + 1]++;
+        }
+        for(int k = 0; k < nIslands; k++) {
+            islandStart[k + 1] += islandStart[k];
+            islandFill[k] = islandStart[k];
+        }
+        for(int p = 0; p < nPairs; p++) {
+            islandPairs[islandFill[ballIsland[findRoot(pairA[p])]]++] = p;
+        }
+    }
+
+    private int findRoot(int i) {
+        while(parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Solves the pairs of the specified island. Touches only that island's
+     * balls so distinct islands may be solved concurrently.
+     *
+     * @param k The island.
+     */
+    private void solveIsland(int k) {
+        int from = islandStart[k], to = islandStart[k + 1];
+        for(int it = 0; it < iterations; it++) {
+            for(int p = from; p < to; p++) {
+                applyImpulse(balls.get(pairA[islandPairs[p]]), balls.get(pairB[islandPairs[p]]));
+            }
+        }
+        for(int p = from; p < to; p++) {
+            separate(balls.get(pairA[islandPairs[p]]), balls.get(pairB[islandPairs[p]]));
+        }
+    }
+
+    /**
+     * Exchanges the specified balls' velocities along the line between their
+     * centres if they are approaching along it.
+     */
+    private static void applyImpulse(Ball a, Ball b) {
+        float nx = b.x - a.x, ny = b.y - a.y;
+        float d = (float) Math.sqrt((nx * nx) + (ny * ny));
+        if(d == 0) {
+            return;
+        }
+        nx /= d;
+        ny /= d;
+        float vn = ((b.vx - a.vx) * nx) + ((b.vy - a.vy) * ny);
+        if(vn >= 0) {
+            return;
+        }
+        //Equal masses, so the impulse is split evenly.
+        float j = -(1 + RESTITUTION) * vn / 2;
+        a.vx -= j * nx;
+        a.vy -= j * ny;
+        b.vx += j * nx;
+        b.vy += j * ny;
+        a.xEventMillis = a.yEventMillis = Double.NaN;
+        b.xEventMillis = b.yEventMillis = Double.NaN;
+    }
+
+    /**
+     * Moves the specified balls apart along the line between their centres
+     * until they no longer overlap.
+     */
+    private static void separate(Ball a, Ball b) {
+        float nx = b.x - a.x, ny = b.y - a.y;
+        float d = (float) Math.sqrt((nx * nx) + (ny * ny));
+        float overlap = (2 * BALL_RADIUS) - d;
+        if(d == 0 || overlap <= 0) {
+            return;
+        }
+        float push = overlap / (2 * d);
+        a.x -= nx * push;
+        a.y -= ny * push;
+        b.x += nx * push;
+        b.y += ny * push;
+        //Moved so the next wall or paddle may come sooner than predicted and
+        //the paddle intercepts, cached by velocity alone, no longer hold.
+        a.xEventMillis = a.yEventMillis = Double.NaN;
+        b.xEventMillis = b.yEventMillis = Double.NaN;
+        a.interceptVx = a.interceptVy = Float.NaN;
+        b.interceptVx = b.interceptVy = Float.NaN;
+    }
+
+    /**
+     * @return The index of the cell containing the specified point, clamped
+     * to the grid for balls leaving the court.
+     */
+    private static int getCell(float x, float y) {
+        int cx = Math.max(0, Math.min(GRID_WIDTH - 1, (int) Math.floor(x / CELL_SIZE)));
+        int cy = Math.max(0, Math.min(GRID_HEIGHT - 1, (int) Math.floor(y / CELL_SIZE)));
+        return cx + (cy * GRID_WIDTH);
+    }
+}
@@ -0,0 +1,134 @@
+package com.quew8.ponglwjgl3;
+
+import com.quew8.ponglwjgl3.Pong.Ball;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A preallocated pool of balls. Spawning takes a ball off the free list and
+ * despawning puts it back, so neither allocates nor leaves garbage once the
+ * pool is large enough. If it isn't the pool grows rather than fails, and
+ * counts that it had to.
+ *
+ * @author Quew8
+ */
+public class BallPool {
+    /**
+     * The default number of preallocated balls.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+    /**
+     * The free balls. The first freeCount are valid.
+     */
+    private Ball[] free;
+    private int freeCount;
+    /**
+     * The number of balls in and out of the pool.
+     */
+    private int capacity;
+    /**
+     * Counters for the pool's occupancy.
+     */
+    private final Metrics.Counter capacityCounter, inUse, highWater, grown;
+
+    /**
+     * @param capacity The number of balls to preallocate.
+     * @param metrics The metrics to report occupancy in.
+     */
+    public BallPool(int capacity, Metrics metrics) {
+        this.free = new Ball[Math.max(1, capacity)];
+        for(int i = 0; i < capacity; i++) {
+            Ball b = new Ball(0, 0, 0, 0);
+            b.pooled = true;
+            free[i] = b;
+        }
+        this.freeCount = capacity;
+        this.capacity = capacity;
+        this.capacityCounter = metrics.counter("balls.pool.capacity");
+        this.inUse = metrics.counter("balls.pool.inuse");
+        this.highWater = metrics.counter("balls.pool.highwater");
+        this.grown = metrics.counter("balls.pool.grown");
+        capacityCounter.set(capacity);
+    }
+
+    /**
+     * Takes a ball from the pool.
+     *
+     * @param x The x coord.
+     * @param y The y coord.
+     * @param vx The x velocity.
+     * @param vy The y velocity.
+     * @return The ball.
+     */
+    public Ball obtain(float x, float y, float vx, float vy) {
+        Ball b;
+        if(freeCount > 0) {
+            b = free[--freeCount];
+            free[freeCount] = null;
+            b.pooled = false;
+            b.x = x;
+            b.y = y;
+            b.vx = vx;
+            b.vy = vy;
+            b.interceptVx = Float.NaN;
+            b.interceptVy = Float.NaN;
+            b.leftInterceptY = Float.NaN;
+            b.rightInterceptY = Float.NaN;
+            b.xEventMillis = Double.NaN;
+            b.yEventMillis = Double.NaN;
+        } else {
+            b = new Ball(x, y, vx, vy);
+            capacity++;
+            grown.increment();
+            capacityCounter.set(capacity);
+        }
+        inUse.increment();
+        if(inUse.get() > highWater.get()) {
+            highWater.set(inUse.get());
+        }
+        return b;
+    }
+
+    /**
+     * Returns a ball to the pool. It mustn't be used afterwards.
+     *
+     * @param b The ball.
+     */
+    public void free(Ball b) {
+        if(b.pooled) {
+            throw new IllegalStateException("Ball freed twice");
+        }
+        if(freeCount == free.length) {
+            free = Arrays.copyOf(free, capacity);
+        }
+        b.pooled = true;
+        free[freeCount++] = b;
+        inUse.add(-1);
+    }
+
+    /**
+     * Returns every ball in the list to the pool and empties it.
+     *
+     * @param balls The balls.
+     */
+    public void freeAll(List<Ball> balls) {
+        for(int i = 0; i < balls.size(); i++) {
+            free(balls.get(i));
+        }
+        balls.clear();
+    }
+
+    /**
+     * @return The number of balls currently taken from the pool.
+     */
+    public int getInUse() {
+        return (int) inUse.get();
+    }
+
+    /**
+     * @return The most balls taken from the pool at once.
+     */
+    public int getHighWater() {
+        return (int) highWater.get();
+    }
+}
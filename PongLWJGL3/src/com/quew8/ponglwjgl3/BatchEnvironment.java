@@ -0,0 +1,327 @@
+package com.quew8.ponglwjgl3;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.stream.IntStream;
+import static com.quew8.ponglwjgl3.Pong.*;
+
+/**
+ * A batch of independent single ball matches which are stepped together in
+ * lockstep, for training paddle policies through self-play. Follows the same
+ * rules as Pong.updatePaddle and Pong.updateBall but all state lives in
+ * primitive arrays indexed by match so that stepping is a tight loop over
+ * memory.
+ *
+ * Actions are read from and observations, rewards and done flags are written
+ * to direct buffers in place so that they can be shared with a native
+ * training process without copying. A match which finishes is automatically
+ * reset, its done flag and rewards describing the outcome for that step only.
+ *
+ * @author Quew8
+ */
+public class BatchEnvironment {
+    /**
+     * Number of floats per match in the action buffer. Left then right paddle
+     * movement, each clamped to [-1, 1] where 1 is full speed up.
+     */
+    public static final int ACTION_STRIDE = 2;
+    /**
+     * Number of floats per match in the observation buffer. Ball x, y, vx, vy
+     * then left and right paddle y.
+     */
+    public static final int OBSERVATION_STRIDE = 6;
+    /**
+     * Number of floats per match in the reward buffer. Left then right paddle.
+     */
+    public static final int REWARD_STRIDE = 2;
+    /**
+     * The number of matches handled per task when stepping in parallel.
+     */
+    private static final int PARALLEL_CHUNK_SIZE = 4096;
+    /**
+     * How the velocities of reset balls are chosen.
+     */
+    public static enum VelocityDistribution {
+        /**
+         * The same as Pong's initial ball.
+         */
+        UNIFORM,
+        /**
+         * The middle of Pong's range, only the directions vary.
+         */
+        CONSTANT,
+        /**
+         * Pong's distribution four times faster, so matches end and are 
+         * reset often.
+         */
+        FAST;
+    }
+    /**
+     * The distribution of reset ball velocities.
+     */
+    private final VelocityDistribution velocityDistribution;
+    /**
+     * The number of matches in this batch.
+     */
+    private final int nMatches;
+    /**
+     * The state of every match. Indexed by match.
+     */
+    private final float[] ballX, ballY, ballVX, ballVY, paddle1Y, paddle2Y;
+    /**
+     * The random state of every match so that resets are independent of the
+     * order in which matches are stepped.
+     */
+    private final long[] random;
+    /**
+     * The shared buffers.
+     */
+    private final FloatBuffer actions, observations, rewards;
+    private final ByteBuffer dones;
+
+    /**
+     * Creates a new batch of matches, each of which is reset.
+     *
+     * @param nMatches The number of matches to step together.
+     * @param seed The seed from which every match's randomness is derived.
+     */
+    public BatchEnvironment(int nMatches, long seed) {
+        this(nMatches, seed, VelocityDistribution.UNIFORM);
+    }
+
+    /**
+     * Creates a new batch of matches, each of which is reset.
+     *
+     * @param nMatches The number of matches to step together.
+     * @param seed The seed from which every match's randomness is derived.
+     * @param velocityDistribution How reset balls' velocities are chosen.
+     */
+    public BatchEnvironment(int nMatches, long seed, VelocityDistribution velocityDistribution) {
+        if(nMatches <= 0) {
+            throw new IllegalArgumentException("nMatches must be positive");
+        }
+        this.nMatches = nMatches;
+        this.velocityDistribution = velocityDistribution;
+        this.ballX = new float[nMatches];
+        this.ballY = new float[nMatches];
+        this.ballVX = new float[nMatches];
+        this.ballVY = new float[nMatches];
+        this.paddle1Y = new float[nMatches];
+        this.paddle2Y = new float[nMatches];
+        this.random = new long[nMatches];
+        this.actions = createDirectFloatBuffer(nMatches * ACTION_STRIDE);
+        this.observations = createDirectFloatBuffer(nMatches * OBSERVATION_STRIDE);
+        this.rewards = createDirectFloatBuffer(nMatches * REWARD_STRIDE);
+        this.dones = ByteBuffer.allocateDirect(nMatches).order(ByteOrder.nativeOrder());
+        for(int i = 0; i < nMatches; i++) {
+            //Scramble so neighbouring matches don't start correlated. (Must be non zero)
+            random[i] = mix(seed + i) | 1;
+            reset(i);
+            writeObservation(i);
+        }
+    }
+
+    /**
+     * Steps every match by the specified delta on the calling thread.
+     *
+     * @param delta The delta time in milliseconds.
+     */
+    public void step(double delta) {
+        step(delta, 0, nMatches);
+    }
+
+    /**
+     * Steps every match by the specified delta, splitting the batch across
+     * the common fork join pool. The result is identical to step(delta).
+     *
+     * @param delta The delta time in milliseconds.
+     */
+    public void stepParallel(double delta) {
+        int nChunks = (nMatches + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+        IntStream.range(0, nChunks).parallel().forEach((c) -> {
+            int from = c * PARALLEL_CHUNK_SIZE;
+            step(delta, from, Math.min(nMatches, from + PARALLEL_CHUNK_SIZE));
+        });
+    }
+
+    /**
+     * Steps the matches in the range [from, to). Distinct ranges may be
+     * stepped concurrently.
+     *
+     * @param delta The delta time in milliseconds.
+     * @param from The index of the first match to step.
+     * @param to The index after the last match to step.
+     */
+    public void step(double delta, int from, int to) {
+        float paddleStep = (float) (delta * PADDLE_SPEED);
+        float maxPaddleY = SCREEN_HEIGHT - PADDLE_HEIGHT;
+        for(int i = from; i < to; i++) {
+            //Update paddles. Same as updatePaddle but with analogue control.
+            float a1 = Math.max(-1, Math.min(1, actions.get(i * ACTION_STRIDE)));
+            float a2 = Math.max(-1, Math.min(1, actions.get(i * ACTION_STRIDE + 1)));
+            paddle1Y[i] = Math.max(0, Math.min(maxPaddleY, paddle1Y[i] + a1 * paddleStep));
+            paddle2Y[i] = Math.max(0, Math.min(maxPaddleY, paddle2Y[i] + a2 * paddleStep));
+
+            //Update ball. Same as updateBall.
+            float x = ballX[i] += ballVX[i] * delta;
+            float y = ballY[i] += ballVY[i] * delta;
+            float reward1 = 0, reward2 = 0;
+            if(x + BALL_RADIUS < 0) {
+                reward1 = -1;
+                reward2 = 1;
+            } else if(x - BALL_RADIUS > SCREEN_WIDTH) {
+                reward1 = 1;
+                reward2 = -1;
+            } else {
+                float vy = ballVY[i];
+                if(vy > 0 && y + BALL_RADIUS > SCREEN_HEIGHT) {
+                    ballVY[i] = -vy;
+                } else if(vy < 0 && y - BALL_RADIUS < 0) {
+                    ballVY[i] = -vy;
+                }
+                float vx = ballVX[i];
+                if(paddleIntersectingBall(Side.LEFT, paddle1Y[i], x, y, vx)) {
+                    ballVX[i] = -vx;
+                } else if(paddleIntersectingBall(Side.RIGHT, paddle2Y[i], x, y, vx)) {
+                    ballVX[i] = -vx;
+                }
+            }
+
+            rewards.put(i * REWARD_STRIDE, reward1);
+            rewards.put(i * REWARD_STRIDE + 1, reward2);
+            if(reward1 != 0) {
+                dones.put(i, (byte) 1);
+                reset(i);
+            } else {
+                dones.put(i, (byte) 0);
+            }
+            writeObservation(i);
+        }
+    }
+
+    /**
+     * Resets the specified match to its initial state. Ball is placed in the
+     * centre with a random velocity from the batch's distribution, by default
+     * the same as Pong's initial ball.
+     *
+     * @param i The index of the match.
+     */
+    public void reset(int i) {
+        float vx, vy;
+        switch(velocityDistribution) {
+            case CONSTANT: {
+                vx = nextFloat(i) >= 0.5f ? -0.003f : 0.003f;
+                vy = nextFloat(i) >= 0.5f ? -0.0005f : 0.0005f;
+                break;
+            }
+            default: {
+                vx = (nextFloat(i) * 0.002f) + 0.002f;
+                if(nextFloat(i) >= 0.5f) {
+                    vx = -vx;
+                }
+                vy = (nextFloat(i) * 0.002f) - 0.001f;
+                if(velocityDistribution == VelocityDistribution.FAST) {
+                    vx *= 4;
+                    vy *= 4;
+                }
+                break;
+            }
+        }
+        ballX[i] = SCREEN_WIDTH / 2;
+        ballY[i] = SCREEN_HEIGHT / 2;
+        ballVX[i] = vx;
+        ballVY[i] = vy;
+        paddle1Y[i] = 0;
+        paddle2Y[i] = 0;
+    }
+
+    /**
+     * Writes the current state of the specified match into the observation
+     * buffer.
+     *
+     * @param i The index of the match.
+     */
+    private void writeObservation(int i) {
+        int o = i * OBSERVATION_STRIDE;
+        observations.put(o, ballX[i]);
+        observations.put(o + 1, ballY[i]);
+        observations.put(o + 2, ballVX[i]);
+        observations.put(o + 3, ballVY[i]);
+        observations.put(o + 4, paddle1Y[i]);
+        observations.put(o + 5, paddle2Y[i]);
+    }
+
+    /**
+     * Returns a uniformly distributed float in [0, 1) from the specified
+     * match's random state. (xorshift64*)
+     *
+     * @param i The index of the match.
+     * @return a uniformly distributed float in [0, 1).
+     */
+    private float nextFloat(int i) {
+        long r = random[i];
+        r ^= r >>> 12;
+        r ^= r << 25;
+        r ^= r >>> 27;
+        random[i] = r;
+        return ((r * 0x2545F4914F6CDD1DL) >>> 40) * 0x1.0p-24f;
+    }
+
+    /**
+     * @return The number of matches in this batch.
+     */
+    public int getMatchCount() {
+        return nMatches;
+    }
+
+    /**
+     * @return The direct buffer actions are read from. ACTION_STRIDE floats per match.
+     */
+    public FloatBuffer getActions() {
+        return actions;
+    }
+
+    /**
+     * @return The direct buffer observations are written to. OBSERVATION_STRIDE floats per match.
+     */
+    public FloatBuffer getObservations() {
+        return observations;
+    }
+
+    /**
+     * @return The direct buffer rewards are written to. REWARD_STRIDE floats per match.
+     */
+    public FloatBuffer getRewards() {
+        return rewards;
+    }
+
+    /**
+     * @return The direct buffer done flags are written to. One byte per match.
+     */
+    public ByteBuffer getDones() {
+        return dones;
+    }
+
+    /**
+     * Creates a direct float buffer in native byte order.
+     *
+     * @param nFloats The capacity in floats.
+     * @return The new buffer.
+     */
+    private static FloatBuffer createDirectFloatBuffer(int nFloats) {
+        return ByteBuffer.allocateDirect(nFloats * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /**
+     * SplitMix64 finalizer, for deriving independent seeds.
+     *
+     * @param z The value to mix.
+     * @return The mixed value.
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
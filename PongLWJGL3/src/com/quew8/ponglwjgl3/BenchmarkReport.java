@@ -0,0 +1,97 @@
+package com.quew8.ponglwjgl3;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * A benchmark's results printed as a single line of JSON, so that runs and
+ * JVM flags can be compared by scripts, along with the collector totals the
+ * benchmarks report. Numbers are formatted in the root locale whatever the
+ * machine's.
+ *
+ * @author Quew8
+ */
+public class BenchmarkReport {
+    private final StringBuilder json = new StringBuilder("{");
+
+    /**
+     * @param name The field's name.
+     * @param value The value.
+     * @return This report.
+     */
+    public BenchmarkReport add(String name, long value) {
+        addName(name).append(value);
+        return this;
+    }
+
+    /**
+     * @param name The field's name.
+     * @param value The value.
+     * @param decimals The number of decimal places to print.
+     * @return This report.
+     */
+    public BenchmarkReport add(String name, double value, int decimals) {
+        addName(name).append(String.format(Locale.ROOT, "%." + decimals + "f", value));
+        return this;
+    }
+
+    /**
+     * @param name The field's name.
+     * @param value The value.
+     * @return This report.
+     */
+    public BenchmarkReport add(String name, boolean value) {
+        addName(name).append(value);
+        return this;
+    }
+
+    /**
+     * @param name The field's name.
+     * @param value The value, which is not escaped.
+     * @return This report.
+     */
+    public BenchmarkReport add(String name, String value) {
+        addName(name).append('"').append(value).append('"');
+        return this;
+    }
+
+    private StringBuilder addName(String name) {
+        if(json.length() > 1) {
+            json.append(',');
+        }
+        return json.append('"').append(name).append("\":");
+    }
+
+    /**
+     * Prints the fields added so far as a line of JSON.
+     *
+     * @param out Where to print them.
+     */
+    public void print(PrintStream out) {
+        out.println(json + "}");
+    }
+
+    /**
+     * @return The number of collections so far, over every collector.
+     */
+    public static long getGcCount() {
+        long total = 0;
+        for(GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    /**
+     * @return The milliseconds spent collecting so far, over every collector.
+     */
+    public static long getGcMillis() {
+        long total = 0;
+        for(GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+}
@@ -0,0 +1,85 @@
+package com.quew8.ponglwjgl3;
+
+import java.io.PrintStream;
+
+/**
+ * Counts the calls made on a backend by type. HeadlessBackend and
+ * CountingBackend both count with one so that the calls the game makes
+ * headless can be compared directly with those it makes on a real renderer.
+ *
+ * @author Quew8
+ */
+public class CallCounter {
+    /**
+     * The calls which are counted.
+     */
+    public static enum Call {
+        CLEAR(true), CLEAR_COLOR(true), USE_PROGRAM(true), BIND_VERTEX_ARRAY(true),
+        BIND_BUFFER(true), UNIFORM_MATRIX(true), DRAW_ARRAYS(true), BUFFER_DATA(true),
+        BUFFER_SUB_DATA(true), VIEWPORT(true), GET_ERROR(true), OTHER(true),
+        POLL_EVENTS(false), WAIT_EVENTS(false), SWAP_BUFFERS(false);
+        
+        /**
+         * Is it a GL call rather than a window system call.
+         */
+        public final boolean gl;
+
+        private Call(boolean gl) {
+            this.gl = gl;
+        }
+    }
+    /**
+     * The number of calls of each type.
+     */
+    private final long[] counts = new long[Call.values().length];
+
+    /**
+     * Counts a call.
+     *
+     * @param call The type of call.
+     */
+    public void count(Call call) {
+        counts[call.ordinal()]++;
+    }
+
+    /**
+     * @param call The type of call.
+     * @return The number of calls of that type so far.
+     */
+    public long get(Call call) {
+        return counts[call.ordinal()];
+    }
+
+    /**
+     * @return The number of GL calls so far, excluding the window system calls.
+     */
+    public long getGL() {
+        long total = 0;
+        for(Call c: Call.values()) {
+            if(c.gl) {
+                total += counts[c.ordinal()];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Resets every count to 0.
+     */
+    public void reset() {
+        for(int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+        }
+    }
+
+    /**
+     * Prints the count of each type of call.
+     *
+     * @param out Where to print them.
+     */
+    public void print(PrintStream out) {
+        for(Call c: Call.values()) {
+            out.println("calls." + c.name().toLowerCase() + ": " + counts[c.ordinal()]);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.quew8.ponglwjgl3;
+
+import com.quew8.ponglwjgl3.CallCounter.Call;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * A backend which passes every call through to another and counts them, with
+ * a CallCounter as HeadlessBackend does, so that the calls a real renderer
+ * makes can be compared with the headless ones.
+ *
+ * @author Quew8
+ */
+public class CountingBackend implements Backend {
+    /**
+     * The backend the calls are made on.
+     */
+    private final Backend backend;
+    /**
+     * The calls made so far.
+     */
+    private final CallCounter calls = new CallCounter();
+
+    /**
+     * @param backend The backend to pass calls through to.
+     */
+    public CountingBackend(Backend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * @return The calls made so far.
+     */
+    public CallCounter getCalls() {
+        return calls;
+    }
+
+    @Override
+    public void setWindow(long window) {
+        backend.setWindow(window);
+    }
+
+    @Override
+    public void setInputHandler(InputHandler handler) {
+        backend.setInputHandler(handler);
+    }
+
+    @Override
+    public double getTimeMillis() {
+        return backend.getTimeMillis();
+    }
+
+    @Override
+    public void pollEvents() {
+        calls.count(Call.POLL_EVENTS);
+        backend.pollEvents();
+    }
+
+    @Override
+    public void waitEventsTimeout(double timeout) {
+        calls.count(Call.WAIT_EVENTS);
+        backend.waitEventsTimeout(timeout);
+    }
+
+    @Override
+    public void swapBuffers() {
+        calls.count(Call.SWAP_BUFFERS);
+        backend.swapBuffers();
+    }
+
+    @Override
+    public boolean shouldClose() {
+        return backend.shouldClose();
+    }
+
+    @Override
+    public boolean isKeyDown(int key) {
+        return backend.isKeyDown(key);
+    }
+
+    @Override
+    public boolean hasNatives() {
+        return backend.hasNatives();
+    }
+
+    @Override
+    public boolean setDebugMessageHandler(DebugMessageHandler handler) {
+        calls.count(Call.OTHER);
+        return backend.setDebugMessageHandler(handler);
+    }
+
+    @Override
+    public int glCreateProgram() {
+        calls.count(Call.OTHER);
+        return backend.glCreateProgram();
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        calls.count(Call.OTHER);
+        return backend.glCreateShader(type);
+    }
+
+    @Override
+    public void glShaderSource(int shader, CharSequence source) {
+        calls.count(Call.OTHER);
+        backend.glShaderSource(shader, source);
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        calls.count(Call.OTHER);
+        backend.glCompileShader(shader);
+    }
+
+    @Override
+    public int glGetShaderi(int shader, int pname) {
+        calls.count(Call.OTHER);
+        return backend.glGetShaderi(shader, pname);
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader, int maxLength) {
+        calls.count(Call.OTHER);
+        return backend.glGetShaderInfoLog(shader, maxLength);
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        calls.count(Call.OTHER);
+        backend.glAttachShader(program, shader);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        calls.count(Call.OTHER);
+        backend.glLinkProgram(program);
+    }
+
+    @Override
+    public int glGetProgrami(int program, int pname) {
+        calls.count(Call.OTHER);
+        return backend.glGetProgrami(program, pname);
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program, int maxLength) {
+        calls.count(Call.OTHER);
+        return backend.glGetProgramInfoLog(program, maxLength);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, CharSequence name) {
+        calls.count(Call.OTHER);
+        return backend.glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public int glGenBuffers() {
+        calls.count(Call.OTHER);
+        return backend.glGenBuffers();
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        calls.count(Call.BIND_BUFFER);
+        backend.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void glBufferData(int target, FloatBuffer data, int usage) {
+        calls.count(Call.BUFFER_DATA);
+        backend.glBufferData(target, data, usage);
+    }
+
+    @Override
+    public void glBufferData(int target, ByteBuffer data, int usage) {
+        calls.count(Call.BUFFER_DATA);
+        backend.glBufferData(target, data, usage);
+    }
+
+    @Override
+    public void glBufferSubData(int target, long offset, FloatBuffer data) {
+        calls.count(Call.BUFFER_SUB_DATA);
+        backend.glBufferSubData(target, offset, data);
+    }
+
+    @Override
+    public void glBufferSubData(int target, long offset, ByteBuffer data) {
+        calls.count(Call.BUFFER_SUB_DATA);
+        backend.glBufferSubData(target, offset, data);
+    }
+
+    @Override
+    public int glGenVertexArrays() {
+        calls.count(Call.OTHER);
+        return backend.glGenVertexArrays();
+    }
+
+    @Override
+    public void glBindVertexArray(int array) {
+        calls.count(Call.BIND_VERTEX_ARRAY);
+        backend.glBindVertexArray(array);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        calls.count(Call.OTHER);
+        backend.glEnableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long pointer) {
+        calls.count(Call.OTHER);
+        backend.glVertexAttribPointer(index, size, type, normalized, stride, pointer);
+    }
+
+    @Override
+    public void glLineWidth(float width) {
+        calls.count(Call.OTHER);
+        backend.glLineWidth(width);
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        calls.count(Call.CLEAR_COLOR);
+        backend.glClearColor(red, green, blue, alpha);
+    }
+
+    @Override
+    public void glClear(int mask) {
+        calls.count(Call.CLEAR);
+        backend.glClear(mask);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        calls.count(Call.VIEWPORT);
+        backend.glViewport(x, y, width, height);
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        calls.count(Call.USE_PROGRAM);
+        backend.glUseProgram(program);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, boolean transpose, FloatBuffer value) {
+        calls.count(Call.UNIFORM_MATRIX);
+        backend.glUniformMatrix4fv(location, transpose, value);
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        calls.count(Call.DRAW_ARRAYS);
+        backend.glDrawArrays(mode, first, count);
+    }
+
+    @Override
+    public int glGetError() {
+        calls.count(Call.GET_ERROR);
+        return backend.glGetError();
+    }
+
+    @Override
+    public void glDeleteVertexArrays(int array) {
+        calls.count(Call.OTHER);
+        backend.glDeleteVertexArrays(array);
+    }
+
+    @Override
+    public void glDeleteBuffers(int buffer) {
+        calls.count(Call.OTHER);
+        backend.glDeleteBuffers(buffer);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        calls.count(Call.OTHER);
+        backend.glDeleteProgram(program);
+    }
+
+    @Override
+    public String glGetString(int name) {
+        calls.count(Call.OTHER);
+        return backend.glGetString(name);
+    }
+
+    @Override
+    public void glFinish() {
+        calls.count(Call.OTHER);
+        backend.glFinish();
+    }
+
+    @Override
+    public int glGenFramebuffers() {
+        calls.count(Call.OTHER);
+        return backend.glGenFramebuffers();
+    }
+
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer) {
+        calls.count(Call.OTHER);
+        backend.glBindFramebuffer(target, framebuffer);
+    }
+
+    @Override
+    public int glGenRenderbuffers() {
+        calls.count(Call.OTHER);
+        return backend.glGenRenderbuffers();
+    }
+
+    @Override
+    public void glBindRenderbuffer(int target, int renderbuffer) {
+        calls.count(Call.OTHER);
+        backend.glBindRenderbuffer(target, renderbuffer);
+    }
+
+    @Override
+    public void glRenderbufferStorage(int target, int internalformat, int width, int height) {
+        calls.count(Call.OTHER);
+        backend.glRenderbufferStorage(target, internalformat, width, height);
+    }
+
+    @Override
+    public void glFramebufferRenderbuffer(int target, int attachment, int renderbuffertarget, int renderbuffer) {
+        calls.count(Call.OTHER);
+        backend.glFramebufferRenderbuffer(target, attachment, renderbuffertarget, renderbuffer);
+    }
+
+    @Override
+    public int glCheckFramebufferStatus(int target) {
+        calls.count(Call.OTHER);
+        return backend.glCheckFramebufferStatus(target);
+    }
+
+    @Override
+    public void glDeleteFramebuffers(int framebuffer) {
+        calls.count(Call.OTHER);
+        backend.glDeleteFramebuffers(framebuffer);
+    }
+
+    @Override
+    public void glDeleteRenderbuffers(int renderbuffer) {
+        calls.count(Call.OTHER);
+        backend.glDeleteRenderbuffers(renderbuffer);
+    }
+}
@@ -0,0 +1,462 @@
+package com.quew8.ponglwjgl3;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+import static com.quew8.ponglwjgl3.Pong.*;
+
+/**
+ * A discrete event version of a match for running headless far faster than
+ * real time. Between bounces a ball moves in a straight line and a paddle at
+ * a constant speed, so rather than stepping every ball every frame each ball's
+ * next wall, paddle or out of bounds event is predicted and time jumps
+ * straight from one event to the next.
+ *
+ * Follows Pong's rules in continuous time: a ball bounces off a paddle the
+ * moment its centre is within BALL_RADIUS of the leading edge alongside the
+ * paddle or of either corner, and the match is lost as soon as a ball is
+ * wholly outside the court. Results therefore differ from Pong's per frame
+ * stepping by up to a frame's movement at each event.
+ *
+ * Paddles optionally track the ball which will reach them soonest, like
+ * PaddleAI, moving at PADDLE_SPEED until level with its intercept. A paddle's
+ * motion only changes at events, when only the balls heading towards it have
+ * their predictions recomputed. All state lives in primitive arrays indexed
+ * by ball, as in BatchEnvironment.
+ *
+ * @author Quew8
+ */
+public class EventSimulation {
+    /**
+     * The lowest and highest y coord of a ball's centre.
+     */
+    private static final double MIN_BALL_Y = BALL_RADIUS, MAX_BALL_Y = SCREEN_HEIGHT - BALL_RADIUS;
+    /**
+     * The highest y coord of a paddle.
+     */
+    private static final double MAX_PADDLE_Y = SCREEN_HEIGHT - PADDLE_HEIGHT;
+    /**
+     * The x coords of the paddles' leading edges.
+     */
+    private static final double LEFT_EDGE_X = PADDLE_WIDTH, RIGHT_EDGE_X = SCREEN_WIDTH - PADDLE_WIDTH;
+    /**
+     * The balls' positions at time t0 and their velocities. Indexed by ball.
+     */
+    private double[] x0, y0, vx, vy, t0;
+    /**
+     * Incremented whenever a ball's prediction is replaced, so that the stale
+     * event left in the queue is ignored.
+     */
+    private int[] version;
+    private int nBalls = 0;
+    /**
+     * The paddles' y coords at time paddleT0, their velocities and targets.
+     * Indexed by side ordinal.
+     */
+    private final double[] paddleY0 = new double[2], paddleV = new double[2], paddleT0 = new double[2],
+            paddleTarget = new double[2];
+    private final int[] paddleVersion = new int[2];
+    /**
+     * Should the paddles track the balls, else they stay put.
+     */
+    private final boolean tracking;
+    /**
+     * The pending events, soonest first.
+     */
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    /**
+     * The current simulated time in milliseconds.
+     */
+    private double now = 0;
+    /**
+     * The side which lost, null if still playing.
+     */
+    private Side lost = null;
+    private long eventsProcessed = 0;
+
+    /**
+     * @param capacity The number of balls to make room for.
+     * @param tracking Should the paddles track the balls.
+     */
+    public EventSimulation(int capacity, boolean tracking) {
+        capacity = Math.max(1, capacity);
+        this.x0 = new double[capacity];
+        this.y0 = new double[capacity];
+        this.vx = new double[capacity];
+        this.vy = new double[capacity];
+        this.t0 = new double[capacity];
+        this.version = new int[capacity];
+        this.tracking = tracking;
+    }
+
+    /**
+     * Adds a ball at the current time.
+     *
+     * @param x The x coord.
+     * @param y The y coord.
+     * @param bvx The x velocity in units per millisecond. Must be non zero.
+     * @param bvy The y velocity in units per millisecond.
+     */
+    public void spawnBall(double x, double y, double bvx, double bvy) {
+        if(bvx == 0) {
+            throw new IllegalArgumentException("A ball must move horizontally");
+        }
+        if(nBalls == x0.length) {
+            int capacity = nBalls * 2;
+            x0 = Arrays.copyOf(x0, capacity);
+            y0 = Arrays.copyOf(y0, capacity);
+            vx = Arrays.copyOf(vx, capacity);
+            vy = Arrays.copyOf(vy, capacity);
+            t0 = Arrays.copyOf(t0, capacity);
+            version = Arrays.copyOf(version, capacity);
+        }
+        int i = nBalls++;
+        x0[i] = x;
+        y0[i] = y;
+        vx[i] = bvx;
+        vy[i] = bvy;
+        t0[i] = now;
+        predict(i);
+        retarget(bvx < 0 ? Side.LEFT : Side.RIGHT);
+    }
+
+    /**
+     * Processes events in order until the specified time or until the match
+     * is lost.
+     *
+     * @param endMillis The simulated time to stop at.
+     * @return false if the match was lost.
+     */
+    public boolean runUntil(double endMillis) {
+        while(lost == null && !events.isEmpty() && events.peek().time <= endMillis) {
+            Event e = events.poll();
+            if(e.isBall() ? e.version != version[e.index] : e.version != paddleVersion[e.index]) {
+                continue;
+            }
+            now = e.time;
+            eventsProcessed++;
+            switch(e.type) {
+                case Event.WALL: onWall(e.index); break;
+                case Event.PADDLE: onPaddle(e.index); break;
+                case Event.OUT: lost = getBallX(e.index) < 0 ? Side.LEFT : Side.RIGHT; break;
+                case Event.PADDLE_STOP: onPaddleStop(Side.values()[e.index]); break;
+            }
+        }
+        if(lost == null) {
+            now = Math.max(now, endMillis);
+        }
+        return lost == null;
+    }
+
+    private void onWall(int i) {
+        advance(i);
+        vy[i] = -vy[i];
+        predict(i);
+    }
+
+    private void onPaddle(int i) {
+        advance(i);
+        Side from = vx[i] < 0 ? Side.LEFT : Side.RIGHT;
+        vx[i] = -vx[i];
+        predict(i);
+        retarget(from);
+        retarget(from == Side.LEFT ? Side.RIGHT : Side.LEFT);
+    }
+
+    private void onPaddleStop(Side side) {
+        int s = side.ordinal();
+        paddleY0[s] = getPaddleY(side);
+        paddleT0[s] = now;
+        paddleV[s] = 0;
+        paddleVersion[s]++;
+        repredictTowards(side);
+    }
+
+    /**
+     * Moves a ball's reference point to the current time.
+     *
+     * @param i The ball.
+     */
+    private void advance(int i) {
+        double dt = now - t0[i];
+        x0[i] += vx[i] * dt;
+        y0[i] = Math.max(MIN_BALL_Y, Math.min(MAX_BALL_Y, y0[i] + vy[i] * dt));
+        t0[i] = now;
+    }
+
+    /**
+     * Points the specified paddle at the intercept of the ball which will
+     * reach it soonest and, if its motion changes, recomputes the predictions
+     * of the balls heading towards it.
+     *
+     * @param side The paddle's side.
+     */
+    private void retarget(Side side) {
+        if(!tracking) {
+            return;
+        }
+        int s = side.ordinal();
+        double planeX = PaddleAI.getPlaneX(side);
+        double soonest = Double.POSITIVE_INFINITY;
+        double targetY = SCREEN_HEIGHT / 2;
+        for(int i = 0; i < nBalls; i++) {
+            if((side == Side.LEFT) != (vx[i] < 0)) {
+                continue;
+            }
+            double x = getBallX(i);
+            double eta = (planeX - x) / vx[i];
+            if(eta >= 0 && eta < soonest) {
+                soonest = eta;
+                targetY = PaddleAI.solveInterceptY((float) x, (float) getBallY(i), (float) vx[i], (float) vy[i], (float) planeX);
+            }
+        }
+        double target = Math.max(0, Math.min(MAX_PADDLE_Y, targetY - (PADDLE_HEIGHT / 2)));
+        double y = getPaddleY(side);
+        double v = target > y ? PADDLE_SPEED : target < y ? -PADDLE_SPEED : 0;
+        if(v == paddleV[s] && target == paddleTarget[s]) {
+            return;
+        }
+        paddleY0[s] = y;
+        paddleT0[s] = now;
+        paddleV[s] = v;
+        paddleTarget[s] = target;
+        paddleVersion[s]++;
+        if(v != 0) {
+            events.add(new Event(now + ((target - y) / v), Event.PADDLE_STOP, s, paddleVersion[s]));
+        }
+        repredictTowards(side);
+    }
+
+    private void repredictTowards(Side side) {
+        for(int i = 0; i < nBalls; i++) {
+            if((side == Side.LEFT) == (vx[i] < 0)) {
+                advance(i);
+                predict(i);
+            }
+        }
+    }
+
+    /**
+     * Replaces the specified ball's predicted event with the soonest of it
+     * reaching a wall, the paddle it is heading for or the edge of the court.
+     *
+     * @param i The ball.
+     */
+    private void predict(int i) {
+        version[i]++;
+        double x = x0[i], y = y0[i], bvx = vx[i], bvy = vy[i];
+        double wall = Double.POSITIVE_INFINITY;
+        if(bvy > 0) {
+            wall = (MAX_BALL_Y - y) / bvy;
+        } else if(bvy < 0) {
+            wall = (MIN_BALL_Y - y) / bvy;
+        }
+        Side side = bvx < 0 ? Side.LEFT : Side.RIGHT;
+        double edgeX = side == Side.LEFT ? LEFT_EDGE_X : RIGHT_EDGE_X;
+        double out = ((side == Side.LEFT ? -BALL_RADIUS : SCREEN_WIDTH + BALL_RADIUS) - x) / bvx;
+        double paddle = solvePaddleContact(x, y, bvx, bvy, edgeX, side);
+        double dt = Math.max(0, Math.min(wall, Math.min(out, paddle)));
+        int type = dt == paddle ? Event.PADDLE : dt == wall ? Event.WALL : Event.OUT;
+        events.add(new Event(now + dt, type, i, version[i]));
+    }
+
+    /**
+     * Solves the soonest time from now at which a ball touches the paddle on
+     * the specified side, taking the paddle's current motion to continue.
+     *
+     * @param x The ball's x coord now.
+     * @param y The ball's y coord now.
+     * @param bvx The ball's x velocity.
+     * @param bvy The ball's y velocity.
+     * @param edgeX The x coord of the paddle's leading edge.
+     * @param side The side of the paddle.
+     * @return The time until contact, infinite if none.
+     */
+    private double solvePaddleContact(double x, double y, double bvx, double bvy, double edgeX, Side side) {
+        int s = side.ordinal();
+        double py = getPaddleY(side), pv = paddleV[s];
+        //Alongside the leading edge: |x - edgeX| <= R and py <= y <= py + H,
+        //each a linear constraint on t.
+        double[] interval = {0, Double.POSITIVE_INFINITY};
+        constrain(interval, bvx, x - edgeX + BALL_RADIUS);
+        constrain(interval, -bvx, edgeX + BALL_RADIUS - x);
+        constrain(interval, bvy - pv, y - py);
+        constrain(interval, pv - bvy, py + PADDLE_HEIGHT - y);
+        double contact = interval[0] <= interval[1] ? interval[0] : Double.POSITIVE_INFINITY;
+        //Within reach of either corner.
+        contact = Math.min(contact, solveCircleContact(x - edgeX, y - py, bvx, bvy - pv));
+        contact = Math.min(contact, solveCircleContact(x - edgeX, y - py - PADDLE_HEIGHT, bvx, bvy - pv));
+        return contact;
+    }
+
+    /**
+     * Narrows [interval[0], interval[1]] to the times t at which
+     * a * t + b >= 0.
+     */
+    private static void constrain(double[] interval, double a, double b) {
+        if(a == 0) {
+            if(b < 0) {
+                interval[0] = Double.POSITIVE_INFINITY;
+            }
+        } else if(a > 0) {
+            interval[0] = Math.max(interval[0], -b / a);
+        } else {
+            interval[1] = Math.min(interval[1], -b / a);
+        }
+    }
+
+    /**
+     * Solves the soonest time from now at which a point at (dx, dy) moving at
+     * (dvx, dvy) comes within BALL_RADIUS of the origin.
+     *
+     * @return The time, 0 if already within it or infinite if never.
+     */
+    private static double solveCircleContact(double dx, double dy, double dvx, double dvy) {
+        double c = (dx * dx) + (dy * dy) - (BALL_RADIUS * BALL_RADIUS);
+        if(c <= 0) {
+            return 0;
+        }
+        double a = (dvx * dvx) + (dvy * dvy);
+        double b = 2 * ((dx * dvx) + (dy * dvy));
+        double discriminant = (b * b) - (4 * a * c);
+        if(a == 0 || b >= 0 || discriminant < 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return (-b - Math.sqrt(discriminant)) / (2 * a);
+    }
+
+    /**
+     * @param i The ball.
+     * @return Its x coord now.
+     */
+    public double getBallX(int i) {
+        return x0[i] + (vx[i] * (now - t0[i]));
+    }
+
+    /**
+     * @param i The ball.
+     * @return Its y coord now.
+     */
+    public double getBallY(int i) {
+        return y0[i] + (vy[i] * (now - t0[i]));
+    }
+
+    /**
+     * @param side The paddle's side.
+     * @return Its y coord now.
+     */
+    public double getPaddleY(Side side) {
+        int s = side.ordinal();
+        return paddleY0[s] + (paddleV[s] * (now - paddleT0[s]));
+    }
+
+    /**
+     * @return The number of balls in play.
+     */
+    public int getBallCount() {
+        return nBalls;
+    }
+
+    /**
+     * @return The current simulated time in milliseconds.
+     */
+    public double getTimeMillis() {
+        return now;
+    }
+
+    /**
+     * @return The side which lost, null if still playing.
+     */
+    public Side getLost() {
+        return lost;
+    }
+
+    /**
+     * @return The number of events processed, not counting stale ones.
+     */
+    public long getEventsProcessed() {
+        return eventsProcessed;
+    }
+
+    /**
+     * A struct representing a predicted event.
+     */
+    private static class Event implements Comparable<Event> {
+        static final int WALL = 0, PADDLE = 1, OUT = 2, PADDLE_STOP = 3;
+        final double time;
+        final int type;
+        /**
+         * The ball, or for PADDLE_STOP the side ordinal.
+         */
+        final int index;
+        /**
+         * The version of the ball or paddle this was predicted from.
+         */
+        final int version;
+
+        Event(double time, int type, int index, int version) {
+            this.time = time;
+            this.type = type;
+            this.index = index;
+            this.version = version;
+        }
+
+        boolean isBall() {
+            return type != PADDLE_STOP;
+        }
+
+        @Override
+        public int compareTo(Event o) {
+            return Double.compare(time, o.time);
+        }
+    }
+
+    /**
+     * Runs matches of randomly served balls back to back and prints the
+     * throughput as a line of JSON, like StressTest.
+     *
+     * @param args The number of balls per match, the number of matches, the
+     * longest simulated time per match in seconds, "tracking" or "fixed"
+     * paddles and the seed, all optional.
+     */
+    public static void main(String[] args) {
+        int nBalls = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int nMatches = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        double maxSeconds = args.length > 2 ? Double.parseDouble(args[2]) : 600;
+        boolean tracking = args.length > 3 ? "tracking".equals(args[3]) : true;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 0;
+
+        Random random = new Random(seed);
+        double simulatedMillis = 0;
+        long events = 0, leftLosses = 0, rightLosses = 0;
+        long start = System.nanoTime();
+        for(int m = 0; m < nMatches; m++) {
+            EventSimulation sim = new EventSimulation(nBalls, tracking);
+            for(int i = 0; i < nBalls; i++) {
+                //Pong's initial ball distribution.
+                double bvx = (random.nextDouble() * 0.002) + 0.002;
+                if(random.nextBoolean()) {
+                    bvx = -bvx;
+                }
+                double bvy = (random.nextDouble() * 0.002) - 0.001;
+                sim.spawnBall(SCREEN_WIDTH / 2, SCREEN_HEIGHT / 2, bvx, bvy);
+            }
+            sim.runUntil(maxSeconds * 1000);
+            simulatedMillis += sim.getTimeMillis();
+            events += sim.getEventsProcessed();
+            if(sim.getLost() == Side.LEFT) {
+                leftLosses++;
+            } else if(sim.getLost() == Side.RIGHT) {
+                rightLosses++;
+            }
+        }
+        double wallSeconds = (System.nanoTime() - start) / 1e9;
+        new BenchmarkReport()
+                .add("balls", nBalls).add("matches", nMatches).add("tracking", tracking).add("seed", seed)
+                .add("wallSeconds", wallSeconds, 3).add("simulatedSeconds", simulatedMillis / 1000, 1)
+                .add("speedup", (simulatedMillis / 1000) / wallSeconds, 1)
+                .add("events", events).add("eventsPerSecond", events / wallSeconds, 1)
+                .add("leftLosses", leftLosses).add("rightLosses", rightLosses)
+                .print(System.out);
+    }
+}
@@ -0,0 +1,70 @@
+package com.quew8.ponglwjgl3;
+
+/**
+ * Utility methods for signed Q11.20 fixed point numbers held in ints. Integer
+ * arithmetic is exactly specified by the JLS so simulations using these give
+ * bit identical results on every machine.
+ *
+ * The range of about +-2048 is ample for the court and the 20 fractional bits
+ * give a resolution of about 1e-6 screen units which is fine enough for
+ * per-tick velocities.
+ *
+ * @author Quew8
+ */
+public class FixedPoint {
+    /**
+     * Number of fractional bits.
+     */
+    public static final int FRACTION_BITS = 20;
+    /**
+     * The fixed point representation of 1.
+     */
+    public static final int ONE = 1 << FRACTION_BITS;
+
+    private FixedPoint() {}
+
+    /**
+     * Converts a float to the nearest fixed point value. Only for use on
+     * values all peers agree on, such as constants or values which were
+     * themselves exchanged.
+     *
+     * @param f The float.
+     * @return The fixed point value.
+     */
+    public static int toFixed(float f) {
+        return (int) Math.round((double) f * ONE);
+    }
+
+    /**
+     * Converts a fixed point value to a float. For rendering only, results
+     * must never be fed back into a deterministic simulation.
+     *
+     * @param fixed The fixed point value.
+     * @return The float.
+     */
+    public static float toFloat(int fixed) {
+        return (float) fixed / ONE;
+    }
+
+    /**
+     * Multiplies two fixed point values, truncating towards negative infinity.
+     *
+     * @param a The first value.
+     * @param b The second value.
+     * @return a * b.
+     */
+    public static int mul(int a, int b) {
+        return (int) (((long) a * b) >> FRACTION_BITS);
+    }
+
+    /**
+     * Returns the square of a fixed point value with 2 * FRACTION_BITS
+     * fractional bits so that comparisons of squared distances are exact.
+     *
+     * @param a The value.
+     * @return a * a, unshifted.
+     */
+    public static long squareWide(int a) {
+        return (long) a * a;
+    }
+}
@@ -0,0 +1,142 @@
+package com.quew8.ponglwjgl3;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The Java Flight Recorder events the game emits. They cost next to nothing
+ * unless a recording has enabled them, either through HitchDetector or from
+ * outside with -XX:StartFlightRecording or jcmd.
+ *
+ * @author Quew8
+ */
+public class FlightEvents {
+    /**
+     * The types of the events emitted from the loop. Checked before creating 
+     * one so that the loop doesn't allocate when no recording wants them.
+     */
+    public static final EventType FRAME_TYPE = EventType.getEventType(Frame.class),
+            TICK_TYPE = EventType.getEventType(Tick.class),
+            STATE_CHANGE_TYPE = EventType.getEventType(StateChange.class),
+            BALL_SPAWN_TYPE = EventType.getEventType(BallSpawn.class),
+            RESIZE_TYPE = EventType.getEventType(Resize.class);
+
+    private FlightEvents() {
+    }
+
+    /**
+     * A rendered frame, from the top of the loop to the end of the swap.
+     */
+    @Name("com.quew8.pong.Frame")
+    @Label("Frame")
+    @Category("Pong")
+    public static class Frame extends Event {
+        @Label("Frame Number")
+        long frame;
+        @Label("Ball Count")
+        int ballCount;
+        @Label("Update Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long updateNanos;
+        @Label("Render Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long renderNanos;
+        @Label("Swap Duration")
+        @Description("Includes waiting for vsync.")
+        @Timespan(Timespan.NANOSECONDS)
+        long swapNanos;
+        @Label("Hitch")
+        @Description("The frame exceeded the hitch budget.")
+        boolean hitch;
+    }
+
+    /**
+     * A simulation step. Once per frame in the variable step game and once per
+     * fixed tick in lockstep mode.
+     */
+    @Name("com.quew8.pong.Tick")
+    @Label("Tick")
+    @Category("Pong")
+    public static class Tick extends Event {
+        @Label("Tick Number")
+        long tick;
+        @Label("Simulated Time")
+        @Timespan(Timespan.MILLISECONDS)
+        long simulatedMillis;
+        @Label("Ball Count")
+        int ballCount;
+        @Label("Lockstep")
+        boolean lockstep;
+    }
+
+    /**
+     * A framebuffer resize.
+     */
+    @Name("com.quew8.pong.Resize")
+    @Label("Resize")
+    @Category("Pong")
+    public static class Resize extends Event {
+        @Label("Framebuffer Width")
+        int width;
+        @Label("Framebuffer Height")
+        int height;
+    }
+
+    /**
+     * A game state transition.
+     */
+    @Name("com.quew8.pong.StateChange")
+    @Label("State Change")
+    @Category("Pong")
+    public static class StateChange extends Event {
+        @Label("From")
+        String from;
+        @Label("To")
+        String to;
+        @Label("Ball Count")
+        int ballCount;
+    }
+
+    /**
+     * A ball released by the player.
+     */
+    @Name("com.quew8.pong.BallSpawn")
+    @Label("Ball Spawn")
+    @Category("Pong")
+    public static class BallSpawn extends Event {
+        @Label("X")
+        float x;
+        @Label("Y")
+        float y;
+        @Label("X Velocity")
+        float vx;
+        @Label("Y Velocity")
+        float vy;
+        @Label("Ball Count")
+        @Description("The number of balls after the spawn.")
+        int ballCount;
+    }
+
+    /**
+     * A recording dumped by the hitch detector.
+     */
+    @Name("com.quew8.pong.HitchDump")
+    @Label("Hitch Dump")
+    @Category("Pong")
+    public static class HitchDump extends Event {
+        @Label("Path")
+        String path;
+        @Label("Hitch Frame Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long frameNanos;
+        @Label("Recording Size")
+        @DataAmount
+        long bytes;
+    }
+}
@@ -0,0 +1,161 @@
+package com.quew8.ponglwjgl3;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * A frame scoped arena of native memory. Allocation bumps a pointer through
+ * one block and everything is released at once by reset() at the end of the
+ * frame. Buffers mustn't be kept past that.
+ *
+ * The buffer objects handed out are cached by their position in the frame's
+ * sequence of allocations, so a frame which allocates the same as the last
+ * creates no garbage.
+ *
+ * @author Quew8
+ */
+public class FrameArena implements AutoCloseable {
+    /**
+     * The alignment of every allocation.
+     */
+    private static final int ALIGNMENT = 8;
+    /**
+     * The memory allocations are made from.
+     */
+    private final ByteBuffer block;
+    /**
+     * Did the block come from the heap.
+     */
+    private final boolean heap;
+    /**
+     * The offset of the next allocation and the number made this frame.
+     */
+    private int pointer = 0, count = 0;
+    /**
+     * The buffers handed out by the previous frames, their offsets and sizes.
+     */
+    private Buffer[] cached = new Buffer[8];
+    private int[] cachedOffsets = new int[8], cachedBytes = new int[8];
+    /**
+     * Counters for the bytes used in the last frame and in the busiest frame.
+     */
+    private final Metrics.Counter used, peak;
+
+    /**
+     * @param capacity The size of the block in bytes.
+     * @param metrics The metrics to report in.
+     * @param heap Should the block come from the heap rather than MemoryUtil.
+     */
+    public FrameArena(int capacity, Metrics metrics, boolean heap) {
+        this.heap = heap;
+        this.block = NativeArena.allocate(capacity, heap);
+        this.used = metrics.counter("native.frame.bytes");
+        this.peak = metrics.counter("native.frame.peak");
+    }
+
+    /**
+     * Allocates uninitialized memory until the end of the frame.
+     *
+     * @param bytes The size in bytes.
+     * @return A buffer in native byte order covering the memory.
+     */
+    public ByteBuffer malloc(int bytes) {
+        int offset = bump(bytes);
+        Buffer b = getCached(offset, bytes, ByteBuffer.class);
+        if(b == null) {
+            b = slice(offset, bytes);
+            setCached(offset, bytes, b);
+        }
+        b.clear();
+        return (ByteBuffer) b;
+    }
+
+    /**
+     * Allocates uninitialized memory for floats until the end of the frame.
+     *
+     * @param count The number of floats.
+     * @return The buffer.
+     */
+    public FloatBuffer mallocFloat(int count) {
+        int offset = bump(count * 4);
+        Buffer b = getCached(offset, count * 4, FloatBuffer.class);
+        if(b == null) {
+            b = slice(offset, count * 4).asFloatBuffer();
+            setCached(offset, count * 4, b);
+        }
+        b.clear();
+        return (FloatBuffer) b;
+    }
+
+    /**
+     * Reserves memory in the block.
+     *
+     * @param bytes The size in bytes.
+     * @return The offset of the memory.
+     */
+    private int bump(int bytes) {
+        int offset = pointer;
+        int end = offset + ((bytes + ALIGNMENT - 1) & -ALIGNMENT);
+        if(end > block.capacity()) {
+            throw new RuntimeException("Frame arena exhausted, " + block.capacity() + " bytes");
+        }
+        pointer = end;
+        return offset;
+    }
+
+    /**
+     * @param offset The offset of this allocation.
+     * @param bytes The size of this allocation.
+     * @param type The type of buffer wanted.
+     * @return The buffer cached for this allocation if it matches, else null.
+     */
+    private Buffer getCached(int offset, int bytes, Class<? extends Buffer> type) {
+        if(count < cached.length && cached[count] != null && cachedOffsets[count] == offset
+                && cachedBytes[count] == bytes && type.isInstance(cached[count])) {
+            return cached[count++];
+        }
+        return null;
+    }
+
+    private void setCached(int offset, int bytes, Buffer b) {
+        if(count == cached.length) {
+            cached = Arrays.copyOf(cached, count * 2);
+            cachedOffsets = Arrays.copyOf(cachedOffsets, count * 2);
+            cachedBytes = Arrays.copyOf(cachedBytes, count * 2);
+        }
+        cached[count] = b;
+        cachedOffsets[count] = offset;
+        cachedBytes[count] = bytes;
+        count++;
+    }
+
+    private ByteBuffer slice(int offset, int bytes) {
+        ByteBuffer dup = block.duplicate();
+        dup.position(offset);
+        dup.limit(offset + bytes);
+        return dup.slice().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Releases everything allocated this frame.
+     */
+    public void reset() {
+        used.set(pointer);
+        if(pointer > peak.get()) {
+            peak.set(pointer);
+        }
+        pointer = 0;
+        count = 0;
+    }
+
+    /**
+     * Frees the block.
+     */
+    @Override
+    public void close() {
+        NativeArena.release(block, heap);
+    }
+}
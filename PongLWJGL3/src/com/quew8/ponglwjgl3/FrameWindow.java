@@ -0,0 +1,64 @@
+package com.quew8.ponglwjgl3;
+
+import java.util.Arrays;
+
+/**
+ * Frame times collected over consecutive windows of a fixed number of frames.
+ * Once a window fills its percentiles can be read, until the next frame
+ * starts the following window. Sorting reuses one array so this allocates
+ * nothing after construction.
+ *
+ * @author Quew8
+ */
+public class FrameWindow {
+    /**
+     * The current window's frame times and the last full window's, sorted.
+     */
+    private final long[] times, sorted;
+    private int nSamples = 0;
+
+    /**
+     * @param frames The number of frames per window.
+     */
+    public FrameWindow(int frames) {
+        if(frames < 1) {
+            throw new IllegalArgumentException("frames must be at least 1: " + frames);
+        }
+        this.times = new long[frames];
+        this.sorted = new long[frames];
+    }
+
+    /**
+     * Adds a frame's time to the current window.
+     *
+     * @param frameNanos The frame's time in nanoseconds.
+     * @return true if this frame filled the window.
+     */
+    public boolean add(long frameNanos) {
+        times[nSamples++] = frameNanos;
+        if(nSamples < times.length) {
+            return false;
+        }
+        nSamples = 0;
+        System.arraycopy(times, 0, sorted, 0, times.length);
+        Arrays.sort(sorted);
+        return true;
+    }
+
+    /**
+     * @return true if the next frame added starts a new window.
+     */
+    public boolean isEmpty() {
+        return nSamples == 0;
+    }
+
+    /**
+     * @param fraction The percentile as a fraction in (0, 1].
+     * @return The frame time at that percentile of the last full window, 
+     * nearest rank.
+     */
+    public long getPercentile(double fraction) {
+        int rank = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank))];
+    }
+}
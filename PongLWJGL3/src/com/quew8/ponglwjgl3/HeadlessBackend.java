@@ -0,0 +1,522 @@
+package com.quew8.ponglwjgl3;
+
+import com.quew8.ponglwjgl3.CallCounter.Call;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.PriorityQueue;
+import static org.lwjgl.glfw.GLFW.*;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+
+/**
+ * A backend without a window or GL context which records the calls made to it.
+ * Time is virtual: it advances by a frame period on every swap and by the
+ * time waited in waitEventsTimeout, so runs are repeatable and as fast as the
+ * CPU allows. Input is a script of events scheduled at virtual times.
+ *
+ * @author Quew8
+ */
+public class HeadlessBackend implements Backend {
+    /**
+     * The calls made so far.
+     */
+    private final CallCounter calls = new CallCounter();
+    /**
+     * The number of bytes passed to glBufferData and glBufferSubData.
+     */
+    private long uploadedBytes = 0;
+    /**
+     * The number of vertices passed to glDrawArrays.
+     */
+    private long drawnVertices = 0;
+    /**
+     * The current virtual time and the time at which the window "closes".
+     */
+    private double time = 0, endTime = Double.POSITIVE_INFINITY;
+    /**
+     * The virtual time a swap takes, i.e. the refresh period.
+     */
+    private final double frameMillis;
+    /**
+     * The scheduled input events, soonest first.
+     */
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    /**
+     * The keys currently down.
+     */
+    private final boolean[] keysDown = new boolean[GLFW_KEY_LAST + 1];
+    private InputHandler handler;
+    /**
+     * The handler debug messages are delivered to, null if not enabled.
+     */
+    private DebugMessageHandler debugHandler;
+    /**
+     * For handing out object names.
+     */
+    private int nextName = 1;
+
+    /**
+     * @param frameMillis The virtual time each swap takes.
+     */
+    public HeadlessBackend(double frameMillis) {
+        this.frameMillis = frameMillis;
+    }
+
+    public HeadlessBackend() {
+        this(1000d / 60);
+    }
+
+    /**
+     * Sets the virtual time after which shouldClose() returns true.
+     *
+     * @param endTime The virtual time in milliseconds.
+     */
+    public void setEndTime(double endTime) {
+        this.endTime = endTime;
+    }
+
+    /**
+     * Schedules a key event.
+     *
+     * @param time The virtual time in milliseconds.
+     * @param key The GLFW key code.
+     * @param action GLFW_PRESS or GLFW_RELEASE.
+     */
+    public void scheduleKey(double time, int key, int action) {
+        events.add(new Event(time, Event.KEY, key, action, 0, 0));
+    }
+
+    /**
+     * Schedules a cursor movement.
+     *
+     * @param time The virtual time in milliseconds.
+     * @param x The window x coord.
+     * @param y The window y coord, from the top.
+     */
+    public void scheduleCursorPos(double time, double x, double y) {
+        events.add(new Event(time, Event.CURSOR_POS, 0, 0, x, y));
+    }
+
+    /**
+     * Schedules a mouse button event.
+     *
+     * @param time The virtual time in milliseconds.
+     * @param button The mouse button.
+     * @param action GLFW_PRESS or GLFW_RELEASE.
+     */
+    public void scheduleMouseButton(double time, int button, int action) {
+        events.add(new Event(time, Event.MOUSE_BUTTON, button, action, 0, 0));
+    }
+
+    /**
+     * Schedules a framebuffer resize.
+     *
+     * @param time The virtual time in milliseconds.
+     * @param width The new framebuffer width.
+     * @param height The new framebuffer height.
+     */
+    public void scheduleResize(double time, int width, int height) {
+        events.add(new Event(time, Event.RESIZE, width, height, 0, 0));
+    }
+
+    /**
+     * Delivers every event scheduled at or before the current time.
+     */
+    private void dispatchEvents() {
+        while(!events.isEmpty() && events.peek().time <= time) {
+            Event e = events.poll();
+            switch(e.type) {
+                case Event.KEY: {
+                    if(e.a == GLFW_PRESS) {
+                        keysDown[e.i] = true;
+                    } else if(e.a == GLFW_RELEASE) {
+                        keysDown[e.i] = false;
+                    }
+                    handler.onKey(e.i, e.a);
+                    break;
+                }
+                case Event.CURSOR_POS: handler.onCursorPos(e.x, e.y); break;
+                case Event.MOUSE_BUTTON: handler.onMouseButton(e.i, e.a); break;
+                case Event.RESIZE: handler.onResize(e.i, e.a); break;
+            }
+        }
+    }
+
+    /**
+     * @return The calls made so far.
+     */
+    public CallCounter getCalls() {
+        return calls;
+    }
+
+    /**
+     * @return The number of bytes uploaded to buffers so far.
+     */
+    public long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    /**
+     * @return The number of vertices drawn so far.
+     */
+    public long getDrawnVertices() {
+        return drawnVertices;
+    }
+
+    /**
+     * Resets every call count, the uploaded bytes and the drawn vertices to 0.
+     */
+    public void resetCounts() {
+        calls.reset();
+        uploadedBytes = 0;
+        drawnVertices = 0;
+    }
+
+    @Override
+    public void setWindow(long window) {
+    }
+
+    @Override
+    public void setInputHandler(InputHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public double getTimeMillis() {
+        return time;
+    }
+
+    @Override
+    public void pollEvents() {
+        calls.count(Call.POLL_EVENTS);
+        dispatchEvents();
+    }
+
+    @Override
+    public void waitEventsTimeout(double timeout) {
+        calls.count(Call.WAIT_EVENTS);
+        double wakeTime = time + (timeout * 1000);
+        if(!events.isEmpty()) {
+            wakeTime = Math.min(wakeTime, Math.max(time, events.peek().time));
+        }
+        time = wakeTime;
+        dispatchEvents();
+    }
+
+    @Override
+    public void swapBuffers() {
+        calls.count(Call.SWAP_BUFFERS);
+        time += frameMillis;
+    }
+
+    @Override
+    public boolean shouldClose() {
+        return time >= endTime;
+    }
+
+    @Override
+    public boolean isKeyDown(int key) {
+        return keysDown[key];
+    }
+
+    @Override
+    public boolean hasNatives() {
+        return false;
+    }
+
+    /**
+     * Delivers a debug message as a driver would, if debug output is enabled.
+     * 
+     * @param source The GL_DEBUG_SOURCE_ of the message.
+     * @param type The GL_DEBUG_TYPE_ of the message.
+     * @param id The id of the message.
+     * @param severity The GL_DEBUG_SEVERITY_ of the message.
+     * @param message The message.
+     */
+    public void emitDebugMessage(int source, int type, int id, int severity, String message) {
+        if(debugHandler != null) {
+            debugHandler.onDebugMessage(source, type, id, severity, message);
+        }
+    }
+
+    @Override
+    public boolean setDebugMessageHandler(DebugMessageHandler handler) {
+        calls.count(Call.OTHER);
+        this.debugHandler = handler;
+        return true;
+    }
+
+    @Override
+    public int glCreateProgram() {
+        calls.count(Call.OTHER);
+        return nextName++;
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        calls.count(Call.OTHER);
+        return nextName++;
+    }
+
+    @Override
+    public void glShaderSource(int shader, CharSequence source) {
+        calls.count(Call.OTHER);
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        calls.count(Call.OTHER);
+    }
+
+    @Override
+    public int glGetShaderi(int shader, int pname) {
+        calls.count(Call.OTHER);
+        return pname == GL_COMPILE_STATUS ? GL_TRUE : 0;
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader, int maxLength) {
+        calls.count(Call.OTHER);
+        return "";
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        calls.count(Call.OTHER);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        calls.count(Call.OTHER);
+    }
+
+    @Override
+    public int glGetProgrami(int program, int pname) {
+        calls.count(Call.OTHER);
+        return pname == GL_LINK_STATUS ? GL_TRUE : 0;
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program, int maxLength) {
+        calls.count(Call.OTHER);
+        return "";
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, CharSequence name) {
+        calls.count(Call.OTHER);
+        return nextName++;
+    }
+
+    @Override
+    public int glGenBuffers() {
+        calls.count(Call.OTHER);
+        return nextName++;
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        calls.count(Call.BIND_BUFFER);
+    }
+
+    @Override
+    public void glBufferData(int target, FloatBuffer data, int usage) {
+        calls.count(Call.BUFFER_DATA);
+        uploadedBytes += data.remaining() * 4;
+    }
+
+    @Override
+    public void glBufferData(int target, ByteBuffer data, int usage) {
+        calls.count(Call.BUFFER_DATA);
+        uploadedBytes += data.remaining();
+    }
+
+    @Override
+    public void glBufferSubData(int target, long offset, FloatBuffer data) {
+        calls.count(Call.BUFFER_SUB_DATA);
+        uploadedBytes += data.remaining() * 4;
+    }
+
+    @Override
+    public void glBufferSubData(int target, long offset, ByteBuffer data) {
+        calls.count(Call.BUFFER_SUB_DATA);
+        uploadedBytes += data.remaining();
+    }
+
+    @Override
+    public int glGenVertexArrays() {
+        calls.count(Call.OTHER);
+        return nextName++;
+    }
+
+    @Override
+    public void glBindVertexArray(int array) {
+        calls.count(Call.BIND_VERTEX_ARRAY);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        calls.count(Call.OTHER);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long pointer) {
+        calls.count(Call.OTHER);
+    }
+
+    @Override
+    public void glLineWidth(float width) {
+        calls.count(Call.OTHER);
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        calls.count(Call.CLEAR_COLOR);
+    }
+
+    @Override
+    public void glClear(int mask) {
+        calls.count(Call.CLEAR);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        calls.count(Call.VIEWPORT);
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        calls.count(Call.USE_PROGRAM);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, boolean transpose, FloatBuffer value) {
+        calls.count(Call.UNIFORM_MATRIX);
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        calls.count(Call.DRAW_ARRAYS);
+        drawnVertices += count;
+    }
+
+    @Override
+    public int glGetError() {
+        calls.count(Call.GET_ERROR);
+        return GL_NO_ERROR;
+    }
+
+    @Override
+    public void glDeleteVertexArrays(int array) {
+        calls.count(Call.OTHER);
+    }
+
+    @Override
+    public void glDeleteBuffers(int buffer) {
+        calls.count(Call.OTHER);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        calls.count(Call.OTHER);
+    }
+
+    @Override
+    public String glGetString(int name) {
+        calls.count(Call.OTHER);
+        return "Headless";
+    }
+
+    @Override
+    public void glFinish() {
+        calls.count(Call.OTHER);
+    }
+
+    @Override
+    public int glGenFramebuffers() {
+        calls.count(Call.OTHER);
+        return nextName++;
+    }
+
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer) {
+        calls.count(Call.OTHER);
+    }
+
+    @Override
+    public int glGenRenderbuffers() {
+        calls.count(Call.OTHER);
+        return nextName++;
+    }
+
+    @Override
+    public void glBindRenderbuffer(int target, int renderbuffer) {
+        calls.count(Call.OTHER);
+    }
+
+    @Override
+    public void glRenderbufferStorage(int target, int internalformat, int width, int height) {
+        calls.count(Call.OTHER);
+    }
+
+    @Override
+    public void glFramebufferRenderbuffer(int target, int attachment, int renderbuffertarget, int renderbuffer) {
+        calls.count(Call.OTHER);
+    }
+
+    @Override
+    public int glCheckFramebufferStatus(int target) {
+        calls.count(Call.OTHER);
+        return GL_FRAMEBUFFER_COMPLETE;
+    }
+
+    @Override
+    public void glDeleteFramebuffers(int framebuffer) {
+        calls.count(Call.OTHER);
+    }
+
+    @Override
+    public void glDeleteRenderbuffers(int renderbuffer) {
+        calls.count(Call.OTHER);
+    }
+
+    /**
+     * A struct representing a scheduled input event.
+     */
+    private static class Event implements Comparable<Event> {
+        static final int KEY = 0, CURSOR_POS = 1, MOUSE_BUTTON = 2, RESIZE = 3;
+        final double time;
+        final int type;
+        /**
+         * Key/button/width and action/height.
+         */
+        final int i, a;
+        /**
+         * Cursor coords.
+         */
+        final double x, y;
+        /**
+         * Breaks ties so that events at the same time are delivered in the
+         * order they were scheduled.
+         */
+        final long order;
+        private static long nextOrder = 0;
+
+        Event(double time, int type, int i, int a, double x, double y) {
+            this.time = time;
+            this.type = type;
+            this.i = i;
+            this.a = a;
+            this.x = x;
+            this.y = y;
+            this.order = nextOrder++;
+        }
+
+        @Override
+        public int compareTo(Event o) {
+            int c = Double.compare(time, o.time);
+            return c != 0 ? c : Long.compare(order, o.order);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.quew8.ponglwjgl3;
+
+import com.quew8.ponglwjgl3.CallCounter.Call;
+import static org.lwjgl.glfw.GLFW.*;
+
+/**
+ * Runs the full game loop on a HeadlessBackend in virtual time and reports
+ * what it did. No window, GL context or natives are needed.
+ *
+ * @author Quew8
+ */
+public class HeadlessRunner {
+
+    /**
+     * @param args The scenario, one of "playing", "paused", "lost", "input" or
+     * "party", the virtual duration in seconds and the framebuffer size as 
+     * WIDTHxHEIGHT, all optional.
+     */
+    public static void main(String[] args) {
+        String scenario = args.length > 0 ? args[0] : "paused";
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 60;
+        int width = Pong.WINDOW_WIDTH, height = Pong.WINDOW_HEIGHT;
+        if(args.length > 2) {
+            String[] size = args[2].split("x");
+            width = Integer.parseInt(size[0]);
+            height = Integer.parseInt(size[1]);
+        }
+
+        HeadlessBackend backend = new HeadlessBackend();
+        Pong pong = new Pong(backend);
+        pong.initHeadless(width, height);
+        //Only count the loop's calls.
+        backend.resetCounts();
+        schedule(pong, backend, scenario, seconds, width, height);
+        backend.setEndTime(seconds * 1000);
+        pong.loop();
+        pong.deinit();
+
+        long rendered = pong.getMetrics().counter("frames.rendered").get();
+        double minutes = seconds / 60;
+        System.out.println("scenario: " + scenario);
+        System.out.println("virtual seconds: " + seconds);
+        pong.getMetrics().print(System.out);
+        System.out.printf("frames rendered per minute: %.1f%n", rendered / minutes);
+        System.out.printf("GL calls per rendered frame: %.1f%n", (double) backend.getCalls().getGL() / Math.max(1, rendered));
+        System.out.printf("GL error queries per rendered frame: %.2f%n", (double) backend.getCalls().get(Call.GET_ERROR) / Math.max(1, rendered));
+        System.out.printf("bytes uploaded per rendered frame: %.2f%n", (double) backend.getUploadedBytes() / Math.max(1, rendered));
+        System.out.printf("vertices drawn per rendered frame: %.1f%n", (double) backend.getDrawnVertices() / Math.max(1, rendered));
+        backend.getCalls().print(System.out);
+    }
+
+    /**
+     * Sets the specified game up to play the specified scenario, scheduling 
+     * its input on the backend.
+     * 
+     * @param pong The game, already initialized.
+     * @param backend The game's backend.
+     * @param scenario The scenario, one of "playing", "paused", "lost", 
+     * "input" or "party".
+     * @param seconds The virtual duration in seconds.
+     * @param width The framebuffer width.
+     * @param height The framebuffer height.
+     */
+    static void schedule(Pong pong, HeadlessBackend backend, String scenario, double seconds, 
+            int width, int height) {
+        switch(scenario) {
+            case "playing": break;
+            case "paused": {
+                backend.scheduleKey(0, GLFW_KEY_SPACE, GLFW_PRESS);
+                backend.scheduleKey(0, GLFW_KEY_SPACE, GLFW_RELEASE);
+                break;
+            }
+            case "lost": {
+                //Lose straight away rather than waiting for the ball to leave.
+                pong.onLost(Pong.Side.RIGHT);
+                break;
+            }
+            case "input": {
+                //Tap a paddle key five times a second, off the frame boundaries.
+                pong.onLost(Pong.Side.RIGHT);
+                for(double t = 7; t < seconds * 1000; t += 200) {
+                    backend.scheduleKey(t, GLFW_KEY_W, GLFW_PRESS);
+                    backend.scheduleKey(t + 100, GLFW_KEY_W, GLFW_RELEASE);
+                }
+                break;
+            }
+            case "party": {
+                //Drag out a new ball every 50ms, each release restarts the game.
+                //The drag is only seen by an update so release a frame later.
+                for(double t = 1; t < seconds * 1000; t += 50) {
+                    double x = width / 2, y = height / 2;
+                    double dx = ((t * 7) % 200) - 100, dy = ((t * 13) % 100) - 50;
+                    backend.scheduleCursorPos(t, x, y);
+                    backend.scheduleMouseButton(t, 0, GLFW_PRESS);
+                    backend.scheduleCursorPos(t + 20, x + dx, y + dy);
+                    backend.scheduleMouseButton(t + 40, 0, GLFW_RELEASE);
+                }
+                break;
+            }
+            default: throw new IllegalArgumentException("Unknown scenario: " + scenario);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.quew8.ponglwjgl3;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/**
+ * Keeps a rolling flight recording and dumps it to disk when a frame takes
+ * longer than a budget, so GC pauses and JIT stalls can be diagnosed after
+ * the fact. The dump is delayed by a short while after the hitch so that it
+ * covers what followed as well as what led up to it.
+ *
+ * @author Quew8
+ */
+public class HitchDetector implements AutoCloseable {
+    /**
+     * The longest a frame may take, in nanoseconds.
+     */
+    private final long budgetNanos;
+    /**
+     * How long to keep recording after a hitch before dumping, in nanoseconds.
+     */
+    private final long afterNanos;
+    /**
+     * Where recordings are dumped to.
+     */
+    private final Path directory;
+    private final Recording recording;
+    /**
+     * The time at which to dump for the pending hitch, or -1 if there isn't
+     * one, and the duration of that hitch.
+     */
+    private long dumpAtNanos = -1, hitchNanos;
+    /**
+     * Is the pending dump already counted as deferred.
+     */
+    private boolean deferred = false;
+    /**
+     * The thread writing the last dump, null if there hasn't been one. A 
+     * dump which falls due whilst it is still writing waits for it to finish
+     * rather than being dropped.
+     */
+    private Thread dumpThread = null;
+    /**
+     * The number of dumps written, by the dump thread. Copied into the dumps
+     * counter on the game thread since counters aren't thread safe.
+     */
+    private final AtomicLong dumpsWritten = new AtomicLong();
+    /**
+     * Counters for detected hitches, written dumps and dumps which had to 
+     * wait for the previous one to be written.
+     */
+    private final Metrics.Counter hitches, dumps, dumpsDeferred;
+
+    /**
+     * Starts the rolling recording.
+     *
+     * @param directory The directory to dump recordings to.
+     * @param budgetMillis The longest a frame may take.
+     * @param beforeSeconds How much history each dump should contain.
+     * @param afterSeconds How long to keep recording after a hitch.
+     * @param metrics The metrics to count hitches and dumps in.
+     */
+    public HitchDetector(Path directory, double budgetMillis, double beforeSeconds,
+            double afterSeconds, Metrics metrics) {
+
+        this.directory = directory;
+        this.budgetNanos = (long) (budgetMillis * 1000000);
+        this.afterNanos = (long) (afterSeconds * 1000000000);
+        this.hitches = metrics.counter("hitch.frames");
+        this.dumps = metrics.counter("hitch.dumps");
+        this.dumpsDeferred = metrics.counter("hitch.dumps.deferred");
+        try {
+            Files.createDirectories(directory);
+            //The profile settings include allocation, GC and compilation detail.
+            recording = new Recording(Configuration.getConfiguration("profile"));
+        } catch(IOException | ParseException ex) {
+            throw new RuntimeException("Failed to set up hitch recording", ex);
+        }
+        recording.setName("pong-hitch");
+        recording.setToDisk(true);
+        recording.setMaxAge(Duration.ofMillis((long) ((beforeSeconds + afterSeconds) * 1000)));
+        recording.enable(FlightEvents.Frame.class);
+        recording.enable(FlightEvents.Tick.class);
+        recording.enable(FlightEvents.Resize.class);
+        recording.enable(FlightEvents.StateChange.class);
+        recording.enable(FlightEvents.BallSpawn.class);
+        recording.enable(FlightEvents.HitchDump.class);
+        recording.start();
+    }
+
+    /**
+     * To be called at the end of each rendered frame.
+     *
+     * @param now The current System.nanoTime().
+     * @param frameNanos The duration of the frame.
+     * @return true if the frame was a hitch.
+     */
+    public boolean onFrame(long now, long frameNanos) {
+        boolean hitch = frameNanos > budgetNanos;
+        if(hitch) {
+            hitches.increment();
+            if(dumpAtNanos == -1) {
+                dumpAtNanos = now + afterNanos;
+                hitchNanos = frameNanos;
+            }
+        }
+        if(dumpAtNanos != -1 && now - dumpAtNanos >= 0) {
+            if(dumpThread != null && dumpThread.isAlive()) {
+                if(!deferred) {
+                    deferred = true;
+                    dumpsDeferred.increment();
+                }
+            } else {
+                dumpAtNanos = -1;
+                deferred = false;
+                dump(hitchNanos);
+            }
+        }
+        dumps.set(dumpsWritten.get());
+        return hitch;
+    }
+
+    /**
+     * Dumps the recording on another thread so that writing it doesn't itself
+     * cause a hitch.
+     *
+     * @param frameNanos The duration of the hitch, for the dump event.
+     */
+    private void dump(long frameNanos) {
+        dumpThread = new Thread(() -> writeDump(frameNanos), "pong-hitch-dump");
+        dumpThread.setDaemon(true);
+        dumpThread.start();
+    }
+
+    /**
+     * Writes the recording so far to a new file in the dump directory.
+     *
+     * @param frameNanos The duration of the hitch, for the dump event.
+     */
+    private void writeDump(long frameNanos) {
+        Path path = directory.resolve("hitch-" + System.currentTimeMillis() + ".jfr");
+        try {
+            recording.dump(path);
+            dumpsWritten.incrementAndGet();
+            FlightEvents.HitchDump e = new FlightEvents.HitchDump();
+            e.path = path.toString();
+            e.frameNanos = frameNanos;
+            e.bytes = Files.size(path);
+            e.commit();
+            System.err.println("Frame took " + (frameNanos / 1000000d) + "ms, recording dumped to " + path);
+        } catch(IOException ex) {
+            System.err.println("Failed to dump hitch recording: " + ex);
+        }
+    }
+
+    /**
+     * Waits for a dump being written, dumps any pending hitch straight away, 
+     * as the game is ending, then stops and discards the recording.
+     */
+    @Override
+    public void close() {
+        boolean interrupted = false;
+        while(dumpThread != null && dumpThread.isAlive()) {
+            try {
+                dumpThread.join();
+            } catch(InterruptedException ex) {
+                //Finish closing first, closing mid dump would corrupt it.
+                interrupted = true;
+            }
+        }
+        if(dumpAtNanos != -1) {
+            dumpAtNanos = -1;
+            writeDump(hitchNanos);
+        }
+        dumps.set(dumpsWritten.get());
+        recording.close();
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
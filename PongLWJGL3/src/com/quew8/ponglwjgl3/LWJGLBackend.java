@@ -0,0 +1,365 @@
+package com.quew8.ponglwjgl3;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import static org.lwjgl.glfw.GLFW.*;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL43;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.opengl.GLDebugMessageCallback;
+import org.lwjgl.opengl.KHRDebug;
+
+/**
+ * The backend which passes every call straight through to LWJGL. Input events
+ * arrive through the GLFW callbacks Pong sets up itself.
+ *
+ * @author Quew8
+ */
+public class LWJGLBackend implements Backend {
+    /**
+     * The handle of the window.
+     */
+    private long window;
+    /**
+     * A reference to the debug message callback so it doesn't get GCd.
+     */
+    private GLDebugMessageCallback debugMessageCallback;
+    /**
+     * Wakes waitEventsTimeout, see there. wakeNanos is the System.nanoTime()
+     * at which to, or -1 whilst not waiting.
+     */
+    private final Object wakeLock = new Object();
+    private long wakeNanos = -1;
+    private Thread waker;
+
+    @Override
+    public void setWindow(long window) {
+        this.window = window;
+    }
+
+    @Override
+    public void setInputHandler(InputHandler handler) {
+    }
+
+    @Override
+    public double getTimeMillis() {
+        return glfwGetTime() * 1000;
+    }
+
+    @Override
+    public void pollEvents() {
+        glfwPollEvents();
+    }
+
+    /**
+     * The bundled natives predate glfwWaitEventsTimeout so this waits in
+     * glfwWaitEvents and a daemon thread posts an empty event to end the wait
+     * once the timeout has passed. It only posts whilst the wait has not yet
+     * returned, so never after the window is gone or GLFW terminated.
+     */
+    @Override
+    public void waitEventsTimeout(double timeout) {
+        if(waker == null) {
+            waker = new Thread(this::wake, "GLFW Waker");
+            waker.setDaemon(true);
+            waker.start();
+        }
+        synchronized(wakeLock) {
+            wakeNanos = System.nanoTime() + (long) (timeout * 1e9);
+            wakeLock.notifyAll();
+        }
+        try {
+            glfwWaitEvents();
+        } finally {
+            synchronized(wakeLock) {
+                wakeNanos = -1;
+            }
+        }
+    }
+
+    private void wake() {
+        synchronized(wakeLock) {
+            while(true) {
+                try {
+                    if(wakeNanos == -1) {
+                        wakeLock.wait();
+                    } else {
+                        long remaining = wakeNanos - System.nanoTime();
+                        if(remaining > 0) {
+                            wakeLock.wait(remaining / 1000000, (int) (remaining % 1000000));
+                        } else {
+                            wakeNanos = -1;
+                            glfwPostEmptyEvent();
+                        }
+                    }
+                } catch(InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void swapBuffers() {
+        glfwSwapBuffers(window);
+    }
+
+    @Override
+    public boolean shouldClose() {
+        return glfwWindowShouldClose(window);
+    }
+
+    @Override
+    public boolean isKeyDown(int key) {
+        return glfwGetKey(window, key) == GLFW_PRESS;
+    }
+
+    @Override
+    public boolean hasNatives() {
+        return true;
+    }
+
+    @Override
+    public boolean setDebugMessageHandler(final DebugMessageHandler handler) {
+        GLCapabilities caps = GL.getCapabilities();
+        if(!caps.OpenGL43 && !caps.GL_KHR_debug) {
+            return false;
+        }
+        debugMessageCallback = new GLDebugMessageCallback() {
+
+            @Override
+            public void invoke(int source, int type, int id, int severity, int length, long message, long userParam) {
+                handler.onDebugMessage(source, type, id, severity, getMessage(length, message));
+            }
+
+        };
+        //The KHR_debug enums have the same values as the core ones.
+        if(caps.OpenGL43) {
+            GL43.glDebugMessageCallback(debugMessageCallback, 0);
+        } else {
+            KHRDebug.glDebugMessageCallback(debugMessageCallback, 0);
+        }
+        GL11.glEnable(GL43.GL_DEBUG_OUTPUT);
+        GL11.glEnable(GL43.GL_DEBUG_OUTPUT_SYNCHRONOUS);
+        return true;
+    }
+
+    @Override
+    public int glCreateProgram() {
+        return GL20.glCreateProgram();
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        return GL20.glCreateShader(type);
+    }
+
+    @Override
+    public void glShaderSource(int shader, CharSequence source) {
+        GL20.glShaderSource(shader, source);
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        GL20.glCompileShader(shader);
+    }
+
+    @Override
+    public int glGetShaderi(int shader, int pname) {
+        return GL20.glGetShaderi(shader, pname);
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader, int maxLength) {
+        return GL20.glGetShaderInfoLog(shader, maxLength);
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        GL20.glAttachShader(program, shader);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        GL20.glLinkProgram(program);
+    }
+
+    @Override
+    public int glGetProgrami(int program, int pname) {
+        return GL20.glGetProgrami(program, pname);
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program, int maxLength) {
+        return GL20.glGetProgramInfoLog(program, maxLength);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, CharSequence name) {
+        return GL20.glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public int glGenBuffers() {
+        return GL15.glGenBuffers();
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        GL15.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void glBufferData(int target, FloatBuffer data, int usage) {
+        GL15.glBufferData(target, data, usage);
+    }
+
+    @Override
+    public void glBufferData(int target, ByteBuffer data, int usage) {
+        GL15.glBufferData(target, data, usage);
+    }
+
+    @Override
+    public void glBufferSubData(int target, long offset, FloatBuffer data) {
+        GL15.glBufferSubData(target, offset, data);
+    }
+
+    @Override
+    public void glBufferSubData(int target, long offset, ByteBuffer data) {
+        GL15.glBufferSubData(target, offset, data);
+    }
+
+    @Override
+    public int glGenVertexArrays() {
+        return GL30.glGenVertexArrays();
+    }
+
+    @Override
+    public void glBindVertexArray(int array) {
+        GL30.glBindVertexArray(array);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        GL20.glEnableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long pointer) {
+        GL20.glVertexAttribPointer(index, size, type, normalized, stride, pointer);
+    }
+
+    @Override
+    public void glLineWidth(float width) {
+        GL11.glLineWidth(width);
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        GL11.glClearColor(red, green, blue, alpha);
+    }
+
+    @Override
+    public void glClear(int mask) {
+        GL11.glClear(mask);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        GL11.glViewport(x, y, width, height);
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        GL20.glUseProgram(program);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, boolean transpose, FloatBuffer value) {
+        GL20.glUniformMatrix4fv(location, transpose, value);
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        GL11.glDrawArrays(mode, first, count);
+    }
+
+    @Override
+    public int glGetError() {
+        return GL11.glGetError();
+    }
+
+    @Override
+    public void glDeleteVertexArrays(int array) {
+        GL30.glDeleteVertexArrays(array);
+    }
+
+    @Override
+    public void glDeleteBuffers(int buffer) {
+        GL15.glDeleteBuffers(buffer);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        GL20.glDeleteProgram(program);
+    }
+
+    @Override
+    public String glGetString(int name) {
+        return GL11.glGetString(name);
+    }
+
+    @Override
+    public void glFinish() {
+        GL11.glFinish();
+    }
+
+    @Override
+    public int glGenFramebuffers() {
+        return GL30.glGenFramebuffers();
+    }
+
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer) {
+        GL30.glBindFramebuffer(target, framebuffer);
+    }
+
+    @Override
+    public int glGenRenderbuffers() {
+        return GL30.glGenRenderbuffers();
+    }
+
+    @Override
+    public void glBindRenderbuffer(int target, int renderbuffer) {
+        GL30.glBindRenderbuffer(target, renderbuffer);
+    }
+
+    @Override
+    public void glRenderbufferStorage(int target, int internalformat, int width, int height) {
+        GL30.glRenderbufferStorage(target, internalformat, width, height);
+    }
+
+    @Override
+    public void glFramebufferRenderbuffer(int target, int attachment, int renderbuffertarget, int renderbuffer) {
+        GL30.glFramebufferRenderbuffer(target, attachment, renderbuffertarget, renderbuffer);
+    }
+
+    @Override
+    public int glCheckFramebufferStatus(int target) {
+        return GL30.glCheckFramebufferStatus(target);
+    }
+
+    @Override
+    public void glDeleteFramebuffers(int framebuffer) {
+        GL30.glDeleteFramebuffers(framebuffer);
+    }
+
+    @Override
+    public void glDeleteRenderbuffers(int renderbuffer) {
+        GL30.glDeleteRenderbuffers(renderbuffer);
+    }
+}
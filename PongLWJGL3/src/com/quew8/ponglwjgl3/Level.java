@@ -0,0 +1,504 @@
+package com.quew8.ponglwjgl3;
+
+import com.quew8.ponglwjgl3.Pong.Ball;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import static com.quew8.ponglwjgl3.Pong.*;
+
+/**
+ * Static obstacles which balls bounce off: line segments, axis aligned boxes
+ * and circles. Obstacles are held in primitive arrays in the order of the
+ * leaves of a bounding volume hierarchy so that a ball is only tested against
+ * the few obstacles whose bounds overlap its own, however many there are.
+ *
+ * The hierarchy is built top down by splitting each node's obstacles at the
+ * median of their centres along the longer axis of the node, until a node
+ * holds at most LEAF_SIZE. Children are stored next to each other so a node
+ * only needs to know where its first child is.
+ *
+ * File layout, little endian: a 16 byte header of magic, version and obstacle
+ * count as ints, then a 20 byte record per obstacle of its type as an int and
+ * four floats. Segments are x1, y1, x2, y2, boxes are min x, min y, max x,
+ * max y and circles are centre x, centre y, radius and unused.
+ *
+ * Queries reuse a traversal stack held by the level so a level must only be
+ * queried from one thread at a time.
+ *
+ * @author Quew8
+ */
+public class Level {
+    /**
+     * Identifies a level file.
+     */
+    private static final int MAGIC = 0x504C564C;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16, MAGIC_OFFSET = 0, VERSION_OFFSET = 4, COUNT_OFFSET = 8;
+    private static final int RECORD_SIZE = 20;
+    /**
+     * Obstacle types.
+     */
+    public static final int TYPE_SEGMENT = 0, TYPE_BOX = 1, TYPE_CIRCLE = 2;
+    /**
+     * The most obstacles held by a leaf of the hierarchy.
+     */
+    private static final int LEAF_SIZE = 4;
+    /**
+     * The obstacles, in leaf order.
+     */
+    private final int[] types;
+    private final float[] as, bs, cs, ds;
+    /**
+     * The nodes' bounds. Node 0 is the root.
+     */
+    private final float[] nodeMinX, nodeMinY, nodeMaxX, nodeMaxY;
+    /**
+     * For a leaf the index of its first obstacle, else of its first child.
+     */
+    private final int[] nodeFirst;
+    /**
+     * For a leaf the number of obstacles, else 0.
+     */
+    private final int[] nodeCount;
+    private int nNodes = 0;
+    /**
+     * The traversal stack, deep enough for any hierarchy of this size.
+     */
+    private final int[] stack;
+    /**
+     * The normal and depth of the last contact found by getContact().
+     */
+    private float contactNx, contactNy, contactDepth;
+
+    /**
+     * @param types The obstacles' types, TYPE_ constants.
+     * @param as The obstacles' first values.
+     * @param bs The obstacles' second values.
+     * @param cs The obstacles' third values.
+     * @param ds The obstacles' fourth values.
+     */
+    public Level(int[] types, float[] as, float[] bs, float[] cs, float[] ds) {
+        int n = types.length;
+        if(as.length != n || bs.length != n || cs.length != n || ds.length != n) {
+            throw new IllegalArgumentException("Obstacle arrays differ in length");
+        }
+        for(int i = 0; i < n; i++) {
+            if(types[i] < TYPE_SEGMENT || types[i] > TYPE_CIRCLE) {
+                throw new IllegalArgumentException("Unknown obstacle type " + types[i] + " at " + i);
+            }
+            //A circle's fourth value is unused so may be anything.
+            if(!Float.isFinite(as[i]) || !Float.isFinite(bs[i]) || !Float.isFinite(cs[i])
+                    || (types[i] != TYPE_CIRCLE && !Float.isFinite(ds[i]))) {
+                throw new IllegalArgumentException("Non finite obstacle value at " + i);
+            }
+            if(types[i] == TYPE_BOX && (as[i] > cs[i] || bs[i] > ds[i])) {
+                throw new IllegalArgumentException("Box with min greater than max at " + i);
+            }
+            if(types[i] == TYPE_CIRCLE && cs[i] < 0) {
+                throw new IllegalArgumentException("Circle with negative radius at " + i);
+            }
+        }
+        //Median splits can leave leaves part full, but never more nodes than this.
+        int maxNodes = Math.max(1, (2 * n) - 1);
+        this.nodeMinX = new float[maxNodes];
+        this.nodeMinY = new float[maxNodes];
+        this.nodeMaxX = new float[maxNodes];
+        this.nodeMaxY = new float[maxNodes];
+        this.nodeFirst = new int[maxNodes];
+        this.nodeCount = new int[maxNodes];
+        this.stack = new int[64];
+
+        int[] order = new int[n];
+        float[] minX = new float[n], minY = new float[n], maxX = new float[n], maxY = new float[n];
+        for(int i = 0; i < n; i++) {
+            order[i] = i;
+            minX[i] = getMinX(types[i], as[i], cs[i]);
+            minY[i] = getMinY(types[i], bs[i], ds[i], cs[i]);
+            maxX[i] = getMaxX(types[i], as[i], cs[i]);
+            maxY[i] = getMaxY(types[i], bs[i], ds[i], cs[i]);
+        }
+        nNodes = 1;
+        build(0, order, 0, n, minX, minY, maxX, maxY);
+
+        this.types = new int[n];
+        this.as = new float[n];
+        this.bs = new float[n];
+        this.cs = new float[n];
+        this.ds = new float[n];
+        for(int i = 0; i < n; i++) {
+            this.types[i] = types[order[i]];
+            this.as[i] = as[order[i]];
+            this.bs[i] = bs[order[i]];
+            this.cs[i] = cs[order[i]];
+            this.ds[i] = ds[order[i]];
+        }
+    }
+
+    /**
+     * Fills in the specified node for the obstacles order[from, to), splitting
+     * it if there are too many.
+     */
+    private void build(int node, int[] order, int from, int to,
+            float[] minX, float[] minY, float[] maxX, float[] maxY) {
+        float nMinX = Float.POSITIVE_INFINITY, nMinY = Float.POSITIVE_INFINITY,
+                nMaxX = Float.NEGATIVE_INFINITY, nMaxY = Float.NEGATIVE_INFINITY;
+        for(int k = from; k < to; k++) {
+            int i = order[k];
+            nMinX = Math.min(nMinX, minX[i]);
+            nMinY = Math.min(nMinY, minY[i]);
+            nMaxX = Math.max(nMaxX, maxX[i]);
+            nMaxY = Math.max(nMaxY, maxY[i]);
+        }
+        nodeMinX[node] = nMinX;
+        nodeMinY[node] = nMinY;
+        nodeMaxX[node] = nMaxX;
+        nodeMaxY[node] = nMaxY;
+        if(to - from <= LEAF_SIZE) {
+            nodeFirst[node] = from;
+            nodeCount[node] = to - from;
+            return;
+        }
+        boolean splitX = (nMaxX - nMinX) >= (nMaxY - nMinY);
+        int mid = (from + to) >>> 1;
+        selectMedian(order, from, to, mid, splitX ? minX : minY, splitX ? maxX : maxY);
+        int child = nNodes;
+        nNodes += 2;
+        nodeFirst[node] = child;
+        nodeCount[node] = 0;
+        build(child, order, from, mid, minX, minY, maxX, maxY);
+        build(child + 1, order, mid, to, minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Partially sorts order[from, to) by the centre along an axis so that
+     * order[k] is in its sorted place, smaller before and larger after.
+     */
+    private static void selectMedian(int[] order, int from, int to, int k, float[] min, float[] max) {
+        int lo = from, hi = to - 1;
+        while(lo < hi) {
+            float pivot = min[order[(lo + hi) >>> 1]] + max[order[(lo + hi) >>> 1]];
+            int i = lo, j = hi;
+            while(i <= j) {
+                while(min[order[i]] + max[order[i]] < pivot) {
+                    i++;
+                }
+                while(min[order[j]] + max[order[j]] > pivot) {
+                    j--;
+                }
+                if(i <= j) {
+                    int t = order[i];
+                    order[i] = order[j];
+                    order[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if(k <= j) {
+                hi = j;
+            } else if(k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Bounces a ball off every obstacle it overlaps, pushing it out and
+     * reflecting its velocity if it is moving into the obstacle.
+     *
+     * @param b The ball.
+     * @return The number of obstacles it was touching.
+     */
+    public int collide(Ball b) {
+        if(types.length == 0) {
+            return 0;
+        }
+        int contacts = 0;
+        int top = 0;
+        stack[top++] = 0;
+        while(top > 0) {
+            int node = stack[--top];
+            if(b.x + BALL_RADIUS < nodeMinX[node] || b.x - BALL_RADIUS > nodeMaxX[node]
+                    || b.y + BALL_RADIUS < nodeMinY[node] || b.y - BALL_RADIUS > nodeMaxY[node]) {
+                continue;
+            }
+            if(nodeCount[node] == 0) {
+                stack[top++] = nodeFirst[node];
+                stack[top++] = nodeFirst[node] + 1;
+                continue;
+            }
+            for(int i = nodeFirst[node]; i < nodeFirst[node] + nodeCount[node]; i++) {
+                if(getContact(i, b.x, b.y)) {
+                    contacts++;
+                    b.x += contactNx * contactDepth;
+                    b.y += contactNy * contactDepth;
+                    float vn = (b.vx * contactNx) + (b.vy * contactNy);
+                    if(vn < 0) {
+                        b.vx -= 2 * vn * contactNx;
+                        b.vy -= 2 * vn * contactNy;
+                    }
+                    //Moved, so any tiered event times no longer hold, nor the
+                    //paddle intercepts which are cached by velocity alone.
+                    b.xEventMillis = b.yEventMillis = Double.NaN;
+                    b.interceptVx = b.interceptVy = Float.NaN;
+                }
+            }
+        }
+        return contacts;
+    }
+
+    /**
+     * Finds whether a ball at the specified point overlaps an obstacle and if
+     * so sets contactNx, contactNy to the direction to push it out and
+     * contactDepth to how far.
+     *
+     * @param i The obstacle.
+     * @param x The ball's x coord.
+     * @param y The ball's y coord.
+     * @return true if they overlap.
+     */
+    private boolean getContact(int i, float x, float y) {
+        float a = as[i], b = bs[i], c = cs[i], d = ds[i];
+        switch(types[i]) {
+            case TYPE_SEGMENT: {
+                float ex = c - a, ey = d - b;
+                float lengthSquared = (ex * ex) + (ey * ey);
+                float t = lengthSquared == 0 ? 0 : (((x - a) * ex) + ((y - b) * ey)) / lengthSquared;
+                t = Math.max(0, Math.min(1, t));
+                return setContactFrom(x - (a + (t * ex)), y - (b + (t * ey)), BALL_RADIUS, -ey, ex);
+            }
+            case TYPE_BOX: {
+                if(x < a || x > c || y < b || y > d) {
+                    float px = Math.max(a, Math.min(c, x)), py = Math.max(b, Math.min(d, y));
+                    return setContactFrom(x - px, y - py, BALL_RADIUS, 0, 1);
+                }
+                //Centre inside, out through the nearest side.
+                float left = x - a, right = c - x, bottom = y - b, top = d - y;
+                float nearest = Math.min(Math.min(left, right), Math.min(bottom, top));
+                contactNx = nearest == left ? -1 : nearest == right ? 1 : 0;
+                contactNy = contactNx != 0 ? 0 : nearest == bottom ? -1 : 1;
+                contactDepth = nearest + BALL_RADIUS;
+                return true;
+            }
+            default: {
+                return setContactFrom(x - a, y - b, BALL_RADIUS + c, 0, 1);
+            }
+        }
+    }
+
+    /**
+     * Sets the contact for a ball offset by (dx, dy) from the nearest point
+     * of an obstacle.
+     *
+     * @param reach The distance within which they touch.
+     * @param fallbackX The x direction to push if the offset is zero.
+     * @param fallbackY The y direction to push if the offset is zero.
+     * @return true if they touch.
+     */
+    private boolean setContactFrom(float dx, float dy, float reach, float fallbackX, float fallbackY) {
+        float distanceSquared = (dx * dx) + (dy * dy);
+        if(distanceSquared >= reach * reach) {
+            return false;
+        }
+        float distance = (float) Math.sqrt(distanceSquared);
+        if(distance == 0) {
+            float length = (float) Math.sqrt((fallbackX * fallbackX) + (fallbackY * fallbackY));
+            contactNx = length == 0 ? 0 : fallbackX / length;
+            contactNy = length == 0 ? 1 : fallbackY / length;
+        } else {
+            contactNx = dx / distance;
+            contactNy = dy / distance;
+        }
+        contactDepth = reach - distance;
+        return true;
+    }
+
+    private static float getMinX(int type, float a, float c) {
+        return type == TYPE_CIRCLE ? a - c : Math.min(a, c);
+    }
+
+    private static float getMaxX(int type, float a, float c) {
+        return type == TYPE_CIRCLE ? a + c : Math.max(a, c);
+    }
+
+    private static float getMinY(int type, float b, float d, float c) {
+        return type == TYPE_CIRCLE ? b - c : Math.min(b, d);
+    }
+
+    private static float getMaxY(int type, float b, float d, float c) {
+        return type == TYPE_CIRCLE ? b + c : Math.max(b, d);
+    }
+
+    /**
+     * @return The number of obstacles.
+     */
+    public int getObstacleCount() {
+        return types.length;
+    }
+
+    /**
+     * @return The number of nodes in the hierarchy.
+     */
+    public int getNodeCount() {
+        return nNodes;
+    }
+
+    /**
+     * @param i The obstacle, in leaf order.
+     * @return Its type, one of the TYPE_ constants.
+     */
+    public int getType(int i) {
+        return types[i];
+    }
+
+    /**
+     * @param i The obstacle, in leaf order.
+     * @param value Which of its four values, 0 to 3.
+     * @return The value.
+     */
+    public float getValue(int i, int value) {
+        switch(value) {
+            case 0: return as[i];
+            case 1: return bs[i];
+            case 2: return cs[i];
+            case 3: return ds[i];
+            default: throw new IllegalArgumentException("No value " + value);
+        }
+    }
+
+    /**
+     * Maps the specified level file and reads its obstacles.
+     *
+     * @param path The file.
+     * @return The level.
+     * @throws IOException If the file can't be mapped or isn't a level.
+     */
+    public static Level load(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try(FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if(buffer.capacity() < HEADER_SIZE || buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+            throw new IOException("Not a level: " + path);
+        }
+        if(buffer.getInt(VERSION_OFFSET) != VERSION) {
+            throw new IOException("Unsupported level version " + buffer.getInt(VERSION_OFFSET) + ": " + path);
+        }
+        int n = buffer.getInt(COUNT_OFFSET);
+        if(n < 0 || buffer.capacity() < HEADER_SIZE + ((long) n * RECORD_SIZE)) {
+            throw new IOException("Truncated level: " + path);
+        }
+        int[] types = new int[n];
+        float[] as = new float[n], bs = new float[n], cs = new float[n], ds = new float[n];
+        for(int i = 0; i < n; i++) {
+            int offset = HEADER_SIZE + (i * RECORD_SIZE);
+            types[i] = buffer.getInt(offset);
+            as[i] = buffer.getFloat(offset + 4);
+            bs[i] = buffer.getFloat(offset + 8);
+            cs[i] = buffer.getFloat(offset + 12);
+            ds[i] = buffer.getFloat(offset + 16);
+        }
+        try {
+            return new Level(types, as, bs, cs, ds);
+        } catch(IllegalArgumentException ex) {
+            throw new IOException("Invalid level: " + path, ex);
+        }
+    }
+
+    /**
+     * Writes the obstacles to the specified file, replacing it.
+     *
+     * @param path The file.
+     * @throws IOException If the file can't be written.
+     */
+    public void save(Path path) throws IOException {
+        int n = types.length;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + (n * RECORD_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(COUNT_OFFSET, n);
+        for(int i = 0; i < n; i++) {
+            int offset = HEADER_SIZE + (i * RECORD_SIZE);
+            buffer.putInt(offset, types[i]);
+            buffer.putFloat(offset + 4, as[i]);
+            buffer.putFloat(offset + 8, bs[i]);
+            buffer.putFloat(offset + 12, cs[i]);
+            buffer.putFloat(offset + 16, ds[i]);
+        }
+        try(FileChannel fc = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while(buffer.hasRemaining()) {
+                fc.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Creates small obstacles scattered over the middle of the court, clear
+     * of the paddles.
+     *
+     * @param n The number of obstacles.
+     * @param seed The seed.
+     * @return The level.
+     */
+    public static Level random(int n, long seed) {
+        Random random = new Random(seed);
+        int[] types = new int[n];
+        float[] as = new float[n], bs = new float[n], cs = new float[n], ds = new float[n];
+        float minX = SCREEN_WIDTH * 0.2f, rangeX = SCREEN_WIDTH * 0.6f;
+        for(int i = 0; i < n; i++) {
+            types[i] = random.nextInt(3);
+            float x = minX + (random.nextFloat() * rangeX), y = random.nextFloat() * SCREEN_HEIGHT;
+            float size = 0.01f + (random.nextFloat() * 0.04f);
+            switch(types[i]) {
+                case TYPE_SEGMENT:
+                    double theta = random.nextDouble() * Math.PI;
+                    as[i] = x;
+                    bs[i] = y;
+                    cs[i] = x + (float) (size * 2 * Math.cos(theta));
+                    ds[i] = y + (float) (size * 2 * Math.sin(theta));
+                    break;
+                case TYPE_BOX:
+                    as[i] = x;
+                    bs[i] = y;
+                    cs[i] = x + size;
+                    ds[i] = y + size;
+                    break;
+                default:
+                    as[i] = x;
+                    bs[i] = y;
+                    cs[i] = size;
+                    break;
+            }
+        }
+        return new Level(types, as, bs, cs, ds);
+    }
+
+    /**
+     * Writes a random level, for -Dpong.level.
+     *
+     * @param args The file, the number of obstacles and the seed, the last
+     * two optional.
+     * @throws IOException If the file can't be written.
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1) {
+            System.err.println("Usage: Level <file> [obstacles] [seed]");
+            System.exit(1);
+        }
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        Level level = random(n, seed);
+        level.save(Paths.get(args[0]));
+        System.out.println("obstacles: " + level.getObstacleCount());
+        System.out.println("nodes: " + level.getNodeCount());
+    }
+}
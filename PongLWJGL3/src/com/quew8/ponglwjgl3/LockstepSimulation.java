@@ -0,0 +1,309 @@
+package com.quew8.ponglwjgl3;
+
+import java.util.Arrays;
+import java.util.List;
+import static com.quew8.ponglwjgl3.FixedPoint.*;
+import static com.quew8.ponglwjgl3.Pong.*;
+
+/**
+ * A deterministic version of the game's simulation for lockstep play. All
+ * positions and velocities are FixedPoint values and the game only advances
+ * in whole ticks of TICK_MILLIS, so two peers given the same seed and the
+ * same inputs at the same ticks stay bit identical indefinitely. Peers then
+ * only need to exchange their inputs, compare getStateHash() occasionally to
+ * detect a desync.
+ *
+ * Rules are the same as Pong.updatePaddle, Pong.updateBall and
+ * Pong.paddleIntersectingBall.
+ *
+ * @author Quew8
+ */
+public class LockstepSimulation {
+    /**
+     * The length of a tick in milliseconds.
+     */
+    public static final int TICK_MILLIS = 8;
+    /**
+     * Input bits for a tick.
+     */
+    public static final int INPUT_LEFT_UP = 1, INPUT_LEFT_DOWN = 2,
+            INPUT_RIGHT_UP = 4, INPUT_RIGHT_DOWN = 8;
+    /**
+     * Game constants in fixed point. Velocities are per tick.
+     */
+    private static final int
+            FX_SCREEN_WIDTH = toFixed(SCREEN_WIDTH),
+            FX_SCREEN_HEIGHT = toFixed(SCREEN_HEIGHT),
+            FX_PADDLE_WIDTH = toFixed(PADDLE_WIDTH),
+            FX_PADDLE_HEIGHT = toFixed(PADDLE_HEIGHT),
+            FX_BALL_RADIUS = toFixed(BALL_RADIUS),
+            FX_PADDLE_STEP = toFixed(PADDLE_SPEED * TICK_MILLIS);
+    private static final long FX_BALL_RADIUS_SQUARED = squareWide(FX_BALL_RADIUS);
+    /**
+     * The number of ticks simulated.
+     */
+    private long tick = 0;
+    /**
+     * The y coord of the bottom of the left and right paddle.
+     */
+    private int paddle1Y = 0, paddle2Y = 0;
+    /**
+     * The number of balls in play and their state. Only the first nBalls
+     * entries of each array are valid.
+     */
+    private int nBalls = 0;
+    private int[] ballX, ballY, ballVX, ballVY;
+    /**
+     * Has a ball gone out of play since the last spawn.
+     */
+    private boolean lost = false;
+
+    /**
+     * Creates a new simulation with a single initial ball from 
+     * spawnSeededBall(seed).
+     *
+     * @param seed The seed all peers agreed upon.
+     */
+    public LockstepSimulation(long seed) {
+        ballX = new int[8];
+        ballY = new int[8];
+        ballVX = new int[8];
+        ballVY = new int[8];
+        spawnSeededBall(seed);
+    }
+
+    /**
+     * Adds a new ball to play in the centre with a velocity derived from the
+     * seed, in the same distribution as Pong's initial ball. Must be called by
+     * every peer before the same tick with the same seed.
+     *
+     * @param seed The seed all peers agreed upon.
+     */
+    public void spawnSeededBall(long seed) {
+        //Derive the velocity from the seed using integer ops only.
+        long r = BatchEnvironment.mix(seed);
+        int vx = toFixed(0.002f * TICK_MILLIS) + (int) (((r & 0xFFFF) * toFixed(0.002f * TICK_MILLIS)) >> 16);
+        if(((r >>> 16) & 1) != 0) {
+            vx = -vx;
+        }
+        int vy = (int) ((((r >>> 32) & 0xFFFF) * toFixed(0.002f * TICK_MILLIS)) >> 16) - toFixed(0.001f * TICK_MILLIS);
+        spawnBall(FX_SCREEN_WIDTH / 2, FX_SCREEN_HEIGHT / 2, vx, vy);
+    }
+
+    /**
+     * Adds a new ball to play. Must be called by every peer before the same
+     * tick with the same, exchanged, values.
+     *
+     * @param x The fixed point x coord.
+     * @param y The fixed point y coord.
+     * @param vx The fixed point x velocity per tick.
+     * @param vy The fixed point y velocity per tick.
+     */
+    public void spawnBall(int x, int y, int vx, int vy) {
+        if(nBalls == ballX.length) {
+            int newLength = nBalls * 2;
+            ballX = Arrays.copyOf(ballX, newLength);
+            ballY = Arrays.copyOf(ballY, newLength);
+            ballVX = Arrays.copyOf(ballVX, newLength);
+            ballVY = Arrays.copyOf(ballVY, newLength);
+        }
+        ballX[nBalls] = x;
+        ballY[nBalls] = y;
+        ballVX[nBalls] = vx;
+        ballVY[nBalls] = vy;
+        nBalls++;
+        lost = false;
+    }
+
+    /**
+     * Advances the simulation by one tick.
+     *
+     * @param inputs The combined INPUT_ bits of every peer for this tick.
+     */
+    public void step(int inputs) {
+        tick++;
+        paddle1Y = stepPaddle(paddle1Y, (inputs & INPUT_LEFT_UP) != 0, (inputs & INPUT_LEFT_DOWN) != 0);
+        paddle2Y = stepPaddle(paddle2Y, (inputs & INPUT_RIGHT_UP) != 0, (inputs & INPUT_RIGHT_DOWN) != 0);
+        if(lost) {
+            return;
+        }
+        for(int i = 0; i < nBalls; i++) {
+            int x = ballX[i] += ballVX[i];
+            int y = ballY[i] += ballVY[i];
+            if(x + FX_BALL_RADIUS < 0 || x - FX_BALL_RADIUS > FX_SCREEN_WIDTH) {
+                lost = true;
+                nBalls = 0;
+                return;
+            }
+            int vy = ballVY[i];
+            if(vy > 0 && y + FX_BALL_RADIUS > FX_SCREEN_HEIGHT) {
+                ballVY[i] = -vy;
+            } else if(vy < 0 && y - FX_BALL_RADIUS < 0) {
+                ballVY[i] = -vy;
+            }
+            int vx = ballVX[i];
+            if(paddleIntersectingBall(Side.LEFT, paddle1Y, x, y, vx)) {
+                ballVX[i] = -vx;
+            } else if(paddleIntersectingBall(Side.RIGHT, paddle2Y, x, y, vx)) {
+                ballVX[i] = -vx;
+            }
+        }
+    }
+
+    /**
+     * Moves a paddle by one tick's movement.
+     *
+     * @param y The paddle's fixed point y coord.
+     * @param up Is this paddle's "up" control down.
+     * @param down Is this paddle's "down" control down.
+     * @return The new fixed point y coord.
+     */
+    private static int stepPaddle(int y, boolean up, boolean down) {
+        if(up) {
+            y += FX_PADDLE_STEP;
+        }
+        if(down) {
+            y -= FX_PADDLE_STEP;
+        }
+        return Math.max(0, Math.min(FX_SCREEN_HEIGHT - FX_PADDLE_HEIGHT, y));
+    }
+
+    /**
+     * Fixed point version of Pong.paddleIntersectingBall. Squared distances
+     * are compared in longs so the test is exact.
+     *
+     * @param side The side of the paddle.
+     * @param paddleY The fixed point y coord of the bottom of the paddle.
+     * @param x The fixed point x coord of the ball.
+     * @param y The fixed point y coord of the ball.
+     * @param vx The fixed point x velocity of the ball.
+     * @return true if the ball is intersecting the paddle.
+     */
+    public static boolean paddleIntersectingBall(Side side, int paddleY, int x, int y, int vx) {
+        if((side == Side.LEFT && vx > 0) || (side == Side.RIGHT && vx < 0)) {
+            return false;
+        }
+        int edgeX = side == Side.LEFT ? FX_PADDLE_WIDTH : FX_SCREEN_WIDTH - FX_PADDLE_WIDTH;
+        if(y >= paddleY && y <= paddleY + FX_PADDLE_HEIGHT) {
+            return Math.abs(x - edgeX) <= FX_BALL_RADIUS;
+        } else if(squareWide(y - paddleY) + squareWide(x - edgeX) <= FX_BALL_RADIUS_SQUARED) {
+            return true;
+        } else if(squareWide(y - (paddleY + FX_PADDLE_HEIGHT)) + squareWide(x - edgeX) <= FX_BALL_RADIUS_SQUARED) {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns a hash of the entire simulation state. Peers which compare
+     * equal hashes for the same tick have not desynchronised.
+     *
+     * @return The FNV-1a hash of the state.
+     */
+    public long getStateHash() {
+        long h = 0xCBF29CE484222325L;
+        h = hash(h, (int) tick);
+        h = hash(h, (int) (tick >>> 32));
+        h = hash(h, paddle1Y);
+        h = hash(h, paddle2Y);
+        h = hash(h, lost ? 1 : 0);
+        h = hash(h, nBalls);
+        for(int i = 0; i < nBalls; i++) {
+            h = hash(h, ballX[i]);
+            h = hash(h, ballY[i]);
+            h = hash(h, ballVX[i]);
+            h = hash(h, ballVY[i]);
+        }
+        return h;
+    }
+
+    /**
+     * Folds the bytes of an int into an FNV-1a hash.
+     *
+     * @param h The hash so far.
+     * @param v The value to fold in.
+     * @return The new hash.
+     */
+    private static long hash(long h, int v) {
+        for(int i = 0; i < 4; i++) {
+            h ^= (v >>> (i * 8)) & 0xFF;
+            h *= 0x100000001B3L;
+        }
+        return h;
+    }
+
+    /**
+     * Copies the state of this simulation into the specified game objects for
+     * rendering. Ball objects already in the list are reused.
+     *
+     * @param paddle1 The left paddle.
+     * @param paddle2 The right paddle.
+     * @param balls The list to hold the balls in play.
+     * @param pool The pool to take balls from and return them to.
+     */
+    public void copyTo(Paddle paddle1, Paddle paddle2, List<Ball> balls, BallPool pool) {
+        paddle1.y = toFloat(paddle1Y);
+        paddle2.y = toFloat(paddle2Y);
+        while(balls.size() > nBalls) {
+            pool.free(balls.remove(balls.size() - 1));
+        }
+        for(int i = 0; i < nBalls; i++) {
+            float x = toFloat(ballX[i]), y = toFloat(ballY[i]);
+            float vx = toFloat(ballVX[i]) / TICK_MILLIS, vy = toFloat(ballVY[i]) / TICK_MILLIS;
+            if(i < balls.size()) {
+                Ball b = balls.get(i);
+                b.x = x;
+                b.y = y;
+                b.vx = vx;
+                b.vy = vy;
+            } else {
+                balls.add(pool.obtain(x, y, vx, vy));
+            }
+        }
+    }
+
+    /**
+     * @return The number of ticks simulated.
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * @return true if a ball went out of play since the last spawn.
+     */
+    public boolean isLost() {
+        return lost;
+    }
+
+    /**
+     * @return The number of balls in play.
+     */
+    public int getBallCount() {
+        return nBalls;
+    }
+
+    /**
+     * @param side The side of the paddle.
+     * @return The fixed point y coord of the bottom of the paddle.
+     */
+    public int getPaddleY(Side side) {
+        return side == Side.LEFT ? paddle1Y : paddle2Y;
+    }
+
+    /**
+     * @param i The index of the ball.
+     * @return The fixed point x coord of the ball.
+     */
+    public int getBallX(int i) {
+        return ballX[i];
+    }
+
+    /**
+     * @param i The index of the ball.
+     * @return The fixed point y coord of the ball.
+     */
+    public int getBallY(int i) {
+        return ballY[i];
+    }
+}
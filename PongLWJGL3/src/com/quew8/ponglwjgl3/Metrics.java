@@ -0,0 +1,163 @@
+package com.quew8.ponglwjgl3;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A registry of named counters describing the game's behaviour. Counters are
+ * looked up once and then updated through their reference so that recording
+ * a value doesn't allocate.
+ *
+ * @author Quew8
+ */
+public class Metrics {
+    /**
+     * The counters in the order they were registered.
+     */
+    private final Map<String, Counter> counters = new LinkedHashMap<>();
+    /**
+     * The histograms in the order they were registered.
+     */
+    private final Map<String, Histogram> histograms = new LinkedHashMap<>();
+
+    /**
+     * Returns the counter with the specified name, registering it if needed.
+     *
+     * @param name The name.
+     * @return The counter.
+     */
+    public Counter counter(String name) {
+        Counter c = counters.get(name);
+        if(c == null) {
+            c = new Counter();
+            counters.put(name, c);
+        }
+        return c;
+    }
+
+    /**
+     * Returns the histogram with the specified name, registering it if needed.
+     * 
+     * @param name The name.
+     * @return The histogram.
+     */
+    public Histogram histogram(String name) {
+        Histogram h = histograms.get(name);
+        if(h == null) {
+            h = new Histogram();
+            histograms.put(name, h);
+        }
+        return h;
+    }
+
+    /**
+     * Prints every metric, one per line.
+     *
+     * @param out The stream to print to.
+     */
+    public void print(PrintStream out) {
+        for(Map.Entry<String, Counter> e: counters.entrySet()) {
+            out.println(e.getKey() + ": " + e.getValue().value);
+        }
+        for(Map.Entry<String, Histogram> e: histograms.entrySet()) {
+            Histogram h = e.getValue();
+            out.printf(
+                "%s: n=%d mean=%.2f p50=%.2f p90=%.2f p99=%.2f max=%.2f%n", 
+                e.getKey(), h.getCount(), h.getMean(), h.getPercentile(0.5), 
+                h.getPercentile(0.9), h.getPercentile(0.99), h.getMax()
+            );
+        }
+    }
+
+    /**
+     * A struct representing a single value.
+     */
+    public static class Counter {
+        long value;
+
+        public void increment() {
+            value++;
+        }
+
+        public void add(long n) {
+            value += n;
+        }
+
+        public void set(long n) {
+            value = n;
+        }
+
+        public long get() {
+            return value;
+        }
+    }
+
+    /**
+     * A distribution of millisecond values in fixed width buckets. Values past
+     * the last bucket are counted in it, the exact maximum is kept separately.
+     */
+    public static class Histogram {
+        /**
+         * The width of each bucket and the number of buckets, covering 0 to
+         * 250ms.
+         */
+        public static final double BUCKET_MILLIS = 0.1;
+        public static final int BUCKET_COUNT = 2500;
+        final long[] buckets = new long[BUCKET_COUNT];
+        long count;
+        double sum, max;
+
+        /**
+         * @param millis The value to record.
+         */
+        public void record(double millis) {
+            int i = (int) (millis / BUCKET_MILLIS);
+            buckets[Math.max(0, Math.min(BUCKET_COUNT - 1, i))]++;
+            count++;
+            sum += millis;
+            max = Math.max(max, millis);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        /**
+         * @param fraction The percentile as a fraction in [0, 1].
+         * @return The upper bound of the bucket the percentile falls in, or 
+         * the maximum if that is lower.
+         */
+        public double getPercentile(double fraction) {
+            long target = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for(int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets[i];
+                if(seen >= target && seen > 0) {
+                    return Math.min(max, (i + 1) * BUCKET_MILLIS);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * Forgets every recorded value.
+         */
+        public void reset() {
+            for(int i = 0; i < BUCKET_COUNT; i++) {
+                buckets[i] = 0;
+            }
+            count = 0;
+            sum = 0;
+            max = 0;
+        }
+    }
+}
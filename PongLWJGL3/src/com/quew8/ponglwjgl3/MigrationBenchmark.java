@@ -0,0 +1,551 @@
+package com.quew8.ponglwjgl3;
+
+import com.quew8.ponglwjgl3.Pong.Ball;
+import com.quew8.ponglwjgl3.Pong.Framebuffer;
+import com.quew8.ponglwjgl3.Pong.Paddle;
+import com.quew8.ponglwjgl3.Pong.Projection;
+import com.quew8.ponglwjgl3.Pong.RenderHandle;
+import com.quew8.ponglwjgl3.Pong.Side;
+import com.quew8.ponglwjgl3.Pong.State;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import static com.quew8.ponglwjgl3.Pong.*;
+import static org.lwjgl.glfw.GLFW.*;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+
+/**
+ * Plays the same scripted input timeline through the LWJGL2 and the LWJGL3
+ * versions of the game and reports whether they end in the same state and
+ * what each costs per frame, so that the migration's changes in behaviour and
+ * performance are visible.
+ *
+ * LWJGL2 and LWJGL3 both define org.lwjgl so the two projects can't share a
+ * classpath. The LWJGL2 version is instead Lwjgl2Game, a transcription of
+ * com.quew8.ponglwjgl2.Pong's update and render with Display, Mouse, Keyboard
+ * and Sys replaced by the timeline and its GL calls made on a HeadlessBackend.
+ * It keeps that version's integer millisecond clock and delta, float
+ * arithmetic, bottom-up integer mouse coords and per-frame allocations. The
+ * LWJGL3 version is the real Pong on a HeadlessBackend.
+ *
+ * @author Quew8
+ */
+public class MigrationBenchmark {
+
+    /**
+     * @param args The virtual duration of the timeline in seconds, the number
+     * of timed runs of each version and the number of untimed warm up runs
+     * before them, all optional.
+     */
+    public static void main(String[] args) {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 60;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int warmupRuns = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        //LWJGL2 draws every frame so LWJGL3 mustn't idle for the frame counts to match.
+        if(System.getProperty("pong.idle") == null) {
+            System.setProperty("pong.idle", "false");
+        }
+
+        List<Input> timeline = createTimeline(seconds, WINDOW_WIDTH, WINDOW_HEIGHT);
+        long lwjgl2Nanos = 0, lwjgl3Nanos = 0, lwjgl2Frames = 0, lwjgl3Frames = 0;
+        Lwjgl2Game lwjgl2 = null;
+        Pong lwjgl3 = null;
+        //Alternate so that neither version always runs on a warmer JVM.
+        for(int run = 0; run < warmupRuns + runs; run++) {
+            boolean timed = run >= warmupRuns;
+
+            lwjgl2 = new Lwjgl2Game(WINDOW_WIDTH, WINDOW_HEIGHT);
+            lwjgl2.schedule(timeline);
+            long start = System.nanoTime();
+            lwjgl2.loop(seconds * 1000);
+            if(timed) {
+                lwjgl2Nanos += System.nanoTime() - start;
+                lwjgl2Frames += lwjgl2.frames;
+            }
+
+            HeadlessBackend backend = new HeadlessBackend();
+            lwjgl3 = new Pong(backend);
+            lwjgl3.initHeadless(WINDOW_WIDTH, WINDOW_HEIGHT);
+            lwjgl3.onLost(Side.RIGHT);
+            for(Input in: timeline) {
+                in.scheduleOn(backend);
+            }
+            backend.setEndTime(seconds * 1000);
+            start = System.nanoTime();
+            lwjgl3.loop();
+            if(timed) {
+                lwjgl3Nanos += System.nanoTime() - start;
+                lwjgl3Frames += lwjgl3.getMetrics().counter("frames.rendered").get();
+            }
+            lwjgl3.deinit();
+        }
+
+        System.out.println("virtual seconds: " + seconds);
+        System.out.println("inputs: " + timeline.size());
+        System.out.println("timed runs: " + runs);
+        System.out.println("lwjgl2.frames: " + lwjgl2.frames);
+        System.out.println("lwjgl3.frames: " + lwjgl3.getMetrics().counter("frames.rendered").get());
+        System.out.printf("lwjgl2.micros per frame: %.3f%n", lwjgl2Nanos / 1e3 / Math.max(1, lwjgl2Frames));
+        System.out.printf("lwjgl3.micros per frame: %.3f%n", lwjgl3Nanos / 1e3 / Math.max(1, lwjgl3Frames));
+        System.out.println("lwjgl2.state: " + lwjgl2.currentState);
+        System.out.println("lwjgl3.state: " + lwjgl3.getState());
+        System.out.println("lwjgl2.balls: " + lwjgl2.balls.size());
+        System.out.println("lwjgl3.balls: " + lwjgl3.getBalls().size());
+        System.out.println("lwjgl2.paddles: " + lwjgl2.paddle1.y + " " + lwjgl2.paddle2.y);
+        System.out.println("lwjgl3.paddles: " + lwjgl3.getPaddle1().y + " " + lwjgl3.getPaddle2().y);
+        double maxBallError = 0;
+        int nBalls = Math.min(lwjgl2.balls.size(), lwjgl3.getBalls().size());
+        for(int i = 0; i < nBalls; i++) {
+            Ball b2 = lwjgl2.balls.get(i), b3 = lwjgl3.getBalls().get(i);
+            maxBallError = Math.max(maxBallError, Math.max(Math.abs(b2.x - b3.x), Math.abs(b2.y - b3.y)));
+        }
+        System.out.println("max ball position difference: " + maxBallError);
+        boolean same = lwjgl2.currentState == lwjgl3.getState()
+                && lwjgl2.balls.size() == lwjgl3.getBalls().size()
+                && lwjgl2.paddle1.y == lwjgl3.getPaddle1().y
+                && lwjgl2.paddle2.y == lwjgl3.getPaddle2().y
+                && maxBallError == 0;
+        System.out.println("final states identical: " + same);
+    }
+
+    /**
+     * Creates the input timeline. Every half second a ball is dragged out
+     * from the middle of the window, in between the paddles are moved up and
+     * down and every five seconds the game is paused for a third of a second.
+     * Times are offset from the frame boundaries.
+     *
+     * @param seconds The duration in seconds.
+     * @param width The window width.
+     * @param height The window height.
+     * @return The inputs, in time order of each kind.
+     */
+    public static List<Input> createTimeline(double seconds, int width, int height) {
+        List<Input> timeline = new ArrayList<>();
+        int n = 0;
+        for(double t = 3; t < seconds * 1000; t += 500, n++) {
+            int x = width / 2, y = height / 2;
+            int dx = ((n * 37) % 200) - 100, dy = ((n * 53) % 120) - 60;
+            timeline.add(Input.cursorPos(t, x, y));
+            timeline.add(Input.mouseButton(t, 0, GLFW_PRESS));
+            timeline.add(Input.cursorPos(t + 30, x + dx, y + dy));
+            timeline.add(Input.mouseButton(t + 60, 0, GLFW_RELEASE));
+            int leftKey = n % 2 == 0 ? GLFW_KEY_W : GLFW_KEY_S;
+            int rightKey = n % 3 == 0 ? GLFW_KEY_DOWN : GLFW_KEY_UP;
+            timeline.add(Input.key(t + 110, leftKey, GLFW_PRESS));
+            timeline.add(Input.key(t + 290, leftKey, GLFW_RELEASE));
+            timeline.add(Input.key(t + 170, rightKey, GLFW_PRESS));
+            timeline.add(Input.key(t + 420, rightKey, GLFW_RELEASE));
+            if(n % 10 == 9) {
+                timeline.add(Input.key(t + 80, GLFW_KEY_SPACE, GLFW_PRESS));
+                timeline.add(Input.key(t + 90, GLFW_KEY_SPACE, GLFW_RELEASE));
+                timeline.add(Input.key(t + 400, GLFW_KEY_SPACE, GLFW_PRESS));
+                timeline.add(Input.key(t + 410, GLFW_KEY_SPACE, GLFW_RELEASE));
+            }
+        }
+        return timeline;
+    }
+
+    /**
+     * A struct representing a scripted input in GLFW's terms. Cursor coords
+     * are whole window pixels from the top left.
+     */
+    public static class Input {
+        static final int KEY = 0, CURSOR_POS = 1, MOUSE_BUTTON = 2;
+        final double time;
+        final int type;
+        /**
+         * Key/button and action.
+         */
+        final int i, a;
+        /**
+         * Cursor coords.
+         */
+        final int x, y;
+
+        private Input(double time, int type, int i, int a, int x, int y) {
+            this.time = time;
+            this.type = type;
+            this.i = i;
+            this.a = a;
+            this.x = x;
+            this.y = y;
+        }
+
+        static Input key(double time, int key, int action) {
+            return new Input(time, KEY, key, action, 0, 0);
+        }
+
+        static Input cursorPos(double time, int x, int y) {
+            return new Input(time, CURSOR_POS, 0, 0, x, y);
+        }
+
+        static Input mouseButton(double time, int button, int action) {
+            return new Input(time, MOUSE_BUTTON, button, action, 0, 0);
+        }
+
+        /**
+         * @param backend The backend to schedule this input on.
+         */
+        void scheduleOn(HeadlessBackend backend) {
+            switch(type) {
+                case KEY: backend.scheduleKey(time, i, a); break;
+                case CURSOR_POS: backend.scheduleCursorPos(time, x, y); break;
+                case MOUSE_BUTTON: backend.scheduleMouseButton(time, i, a); break;
+            }
+        }
+    }
+
+    /**
+     * The LWJGL2 version of the game. The methods follow
+     * com.quew8.ponglwjgl2.Pong's line for line, only the sources of time and
+     * input differ.
+     */
+    public static class Lwjgl2Game {
+        final Paddle paddle1 = new Paddle(Side.LEFT), paddle2 = new Paddle(Side.RIGHT);
+        final ArrayList<Ball> balls = new ArrayList<>();
+        final Framebuffer framebuffer = new Framebuffer();
+        final Projection projection = new Projection();
+        float centreX, centreY;
+        Ball addBall = null;
+        State currentState = State.LOST;
+        long lastTime;
+        long frames = 0;
+        /**
+         * Stands in for the GL context.
+         */
+        final HeadlessBackend gl = new HeadlessBackend();
+        int program, vao, vbo, modelViewLoc, projectionLoc;
+        final FloatBuffer modelViewMatrix = createFloatBuffer(16), projectionMatrix = createFloatBuffer(16);
+        FloatBuffer replaceBuffer;
+        final RenderHandle paddleHandle = new RenderHandle(0, 4),
+                ballHandle = new RenderHandle(4, BALL_N_VERTICES),
+                boundsHandle = new RenderHandle(4 + BALL_N_VERTICES, 4),
+                lineHandle = new RenderHandle(4 + BALL_N_VERTICES + 4, 2);
+        /**
+         * Stand in for Mouse, Keyboard and Sys. Inputs not yet delivered,
+         * those delivered by the last Display.update(), the held keys, the
+         * mouse position and the virtual time.
+         */
+        private final ArrayDeque<Input> scheduled = new ArrayDeque<>(), delivered = new ArrayDeque<>();
+        private final boolean[] keysDown = new boolean[GLFW_KEY_LAST + 1];
+        private int mouseX, mouseY;
+        private double time = 0;
+        private static final double FRAME_MILLIS = 1000d / 60;
+
+        /**
+         * Creates the game, already lost so that it starts without a ball.
+         *
+         * @param width The framebuffer width.
+         * @param height The framebuffer height.
+         */
+        public Lwjgl2Game(int width, int height) {
+            program = gl.glCreateProgram();
+            vao = gl.glGenVertexArrays();
+            vbo = gl.glGenBuffers();
+            modelViewLoc = gl.glGetUniformLocation(program, "modelView");
+            projectionLoc = gl.glGetUniformLocation(program, "projection");
+            onResize(width, height);
+            lastTime = currentTimeMillis();
+        }
+
+        /**
+         * @param timeline The inputs to deliver.
+         */
+        public void schedule(List<Input> timeline) {
+            List<Input> sorted = new ArrayList<>(timeline);
+            sorted.sort((a, b) -> Double.compare(a.time, b.time));
+            scheduled.addAll(sorted);
+        }
+
+        /**
+         * @param endTime The virtual time at which to stop.
+         */
+        public void loop(double endTime) {
+            while(time < endTime) {
+                long thisTime = currentTimeMillis();
+                int delta = (int) (thisTime - lastTime);
+                lastTime = thisTime;
+
+                update(delta);
+                render();
+                frames++;
+
+                displayUpdate();
+            }
+        }
+
+        /**
+         * Swaps, so a frame passes, then polls for input.
+         */
+        private void displayUpdate() {
+            gl.swapBuffers();
+            time += FRAME_MILLIS;
+            while(!scheduled.isEmpty() && scheduled.peek().time <= time) {
+                Input in = scheduled.poll();
+                switch(in.type) {
+                    case Input.KEY: keysDown[in.i] = in.a == GLFW_PRESS; break;
+                    //LWJGL2's mouse coords are from the bottom left.
+                    case Input.CURSOR_POS: mouseX = in.x; mouseY = framebuffer.height - 1 - in.y; break;
+                    case Input.MOUSE_BUTTON: break;
+                }
+                if(in.type != Input.CURSOR_POS) {
+                    delivered.add(in);
+                }
+            }
+        }
+
+        private long currentTimeMillis() {
+            return (long) time;
+        }
+
+        public void update(int delta) {
+            //Iterate through mouse input events.
+            //The event coords are where the mouse was when delivered, which is
+            //where it is now as moves aren't interleaved.
+            for(Input in: delivered) {
+                if(in.type == Input.MOUSE_BUTTON && in.i == 0) {
+                    if(in.a == GLFW_PRESS && addBall == null) {
+                        onNewBall(mouseX, mouseY);
+                    } else if(in.a == GLFW_RELEASE && addBall != null) {
+                        onNewBallRelease(mouseX, mouseY);
+                    }
+                }
+            }
+            if(addBall != null) {
+                updateNewBall(mouseX, mouseY);
+            }
+            for(Input in: delivered) {
+                if(in.type == Input.KEY && in.i == GLFW_KEY_SPACE && in.a == GLFW_RELEASE) {
+                    onPlayPauseToggle();
+                }
+            }
+            delivered.clear();
+            if(currentState == State.PLAYING || currentState == State.LOST) {
+                updatePaddle(paddle1, delta, keysDown[GLFW_KEY_W], keysDown[GLFW_KEY_S]);
+                updatePaddle(paddle2, delta, keysDown[GLFW_KEY_UP], keysDown[GLFW_KEY_DOWN]);
+            }
+            if(currentState == State.PLAYING) {
+                for(Ball b: balls) {
+                    if(!updateBall(b, delta)) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        public void render() {
+            gl.glClear(GL_COLOR_BUFFER_BIT);
+            gl.glUseProgram(program);
+            gl.glBindVertexArray(vao);
+            gl.glUniformMatrix4fv(projectionLoc, false, projectionMatrix);
+            drawHandleLinesAt(boundsHandle, 0, 0);
+            drawHandleAt(paddleHandle, paddle1.getX(), paddle1.y);
+            drawHandleAt(paddleHandle, paddle2.getX(), paddle2.y);
+            balls.stream().forEach((b) -> {
+                drawHandleAt(ballHandle, b.x, b.y);
+            });
+            if(addBall != null) {
+                drawHandleAt(ballHandle, addBall.x, addBall.y);
+                drawHandleLinesAt(lineHandle, 0, 0);
+            }
+            gl.glBindVertexArray(0);
+            gl.glUseProgram(0);
+            checkError();
+        }
+
+        public void drawHandleLinesAt(RenderHandle handle, float x, float y) {
+            setTranslation(modelViewMatrix, x, y);
+            gl.glUniformMatrix4fv(modelViewLoc, false, modelViewMatrix);
+            gl.glDrawArrays(GL_LINE_LOOP, handle.first, handle.count);
+        }
+
+        public void drawHandleAt(RenderHandle handle, float x, float y) {
+            setTranslation(modelViewMatrix, x, y);
+            gl.glUniformMatrix4fv(modelViewLoc, false, modelViewMatrix);
+            gl.glDrawArrays(GL_TRIANGLE_FAN, handle.first, handle.count);
+        }
+
+        public void setLineFromTo(RenderHandle handle, float x0, float y0, float x1, float y1) {
+            if(replaceBuffer == null) {
+                replaceBuffer = createFloatBuffer(4 * 5);
+            }
+            replaceBuffer.put(new float[]{
+                x0, y0, LINE_COLOUR.red, LINE_COLOUR.green, LINE_COLOUR.blue,
+                x1, y1, LINE_COLOUR.red, LINE_COLOUR.green, LINE_COLOUR.blue
+            });
+            replaceBuffer.flip();
+            gl.glBindBuffer(GL_ARRAY_BUFFER, vbo);
+            gl.glBufferSubData(GL_ARRAY_BUFFER, handle.first * 5 * 4, replaceBuffer);
+            gl.glBindBuffer(GL_ARRAY_BUFFER, 0);
+        }
+
+        public void updatePaddle(Paddle p, int delta, boolean up, boolean down) {
+            if(up) {
+                p.y += delta * PADDLE_SPEED;
+            }
+            if(down) {
+                p.y -= delta * PADDLE_SPEED;
+            }
+            p.y = Math.max(0, Math.min(SCREEN_HEIGHT - PADDLE_HEIGHT, p.y));
+        }
+
+        public void onNewBall(int windowX, int windowY) {
+            centreX = windowToWorldCoordsX(framebuffer, projection, windowX);
+            centreY = windowToWorldCoordsY(framebuffer, projection, windowY);
+            addBall = new Ball(centreX, centreY, 0, 0);
+        }
+
+        public void updateNewBall(int windowX, int windowY) {
+            addBall.x = windowToWorldCoordsX(framebuffer, projection, windowX);
+            addBall.y = windowToWorldCoordsY(framebuffer, projection, windowY);
+            setLineFromTo(lineHandle, centreX, centreY, addBall.x, addBall.y);
+        }
+
+        public void onNewBallRelease(int windowX, int windowY) {
+            addBall.vx = (centreX - addBall.x) * BALL_SPEED_SCALE;
+            addBall.vy = (centreY - addBall.y) * BALL_SPEED_SCALE;
+            balls.add(addBall);
+            addBall = null;
+            onRestart();
+        }
+
+        public boolean updateBall(Ball b, int delta) {
+            b.x += b.vx * delta;
+            b.y += b.vy * delta;
+            if(b.x + BALL_RADIUS < 0) {
+                onLost(Side.RIGHT);
+                return false;
+            }
+            if(b.x - BALL_RADIUS > SCREEN_WIDTH) {
+                onLost(Side.RIGHT);
+                return false;
+            }
+            if(b.vy > 0 && b.y + BALL_RADIUS > SCREEN_HEIGHT) {
+                b.vy = -b.vy;
+            } else if(b.vy < 0 && b.y - BALL_RADIUS < 0) {
+                b.vy = -b.vy;
+            }
+            if(paddleIntersectingBall(paddle1, b)) {
+                b.vx = -b.vx;
+            } else if(paddleIntersectingBall(paddle2, b)) {
+                b.vx = -b.vx;
+            }
+            return true;
+        }
+
+        public void onPlayPauseToggle() {
+            switch(currentState) {
+                case PLAYING: onPause(); break;
+                case PAUSED: onPlay(); break;
+                case LOST: break;
+            }
+        }
+
+        public void onPlay() {
+            currentState = State.PLAYING;
+            setBackColour();
+        }
+
+        public void onPause() {
+            currentState = State.PAUSED;
+            setBackColour();
+        }
+
+        public void onRestart() {
+            currentState = State.PLAYING;
+            setBackColour();
+        }
+
+        public void onLost(Side side) {
+            currentState = State.LOST;
+            balls.clear();
+            setBackColour();
+        }
+
+        public void setBackColour() {
+            gl.glClearColor(currentState.backColour.red, currentState.backColour.green, currentState.backColour.blue, 0);
+        }
+
+        public final void onResize(int framebufferWidth, int framebufferHeight) {
+            framebuffer.width = framebufferWidth;
+            framebuffer.height = framebufferHeight;
+            float aspectRatio = (float) framebufferHeight / framebufferWidth;
+            float desiredAspectRatio = SCREEN_HEIGHT / SCREEN_WIDTH;
+            projection.left = 0;
+            projection.right = SCREEN_WIDTH;
+            projection.bottom = 0;
+            projection.top = SCREEN_HEIGHT;
+            if(aspectRatio == desiredAspectRatio) {
+            } else if(aspectRatio > desiredAspectRatio) {
+                float newScreenHeight = SCREEN_WIDTH * aspectRatio;
+                projection.bottom = -(newScreenHeight - SCREEN_HEIGHT) / 2f;
+                projection.top = newScreenHeight + projection.bottom;
+            } else if(aspectRatio < desiredAspectRatio) {
+                float newScreenWidth = SCREEN_HEIGHT / aspectRatio;
+                projection.left = -(newScreenWidth - SCREEN_WIDTH) / 2f;
+                projection.right = newScreenWidth + projection.left;
+            }
+            setOrtho2D(projectionMatrix, projection);
+            gl.glViewport(0, 0, framebufferWidth, framebufferHeight);
+        }
+
+        public void checkError() {
+            if(gl.glGetError() != GL_NO_ERROR) {
+                throw new RuntimeException("GL Error");
+            }
+        }
+
+        public static boolean paddleIntersectingBall(Paddle p, Ball b) {
+            if((p.side == Side.LEFT && b.vx > 0) || (p.side == Side.RIGHT && b.vx < 0)) {
+                return false;
+            }
+            float edgeX = p.side == Side.LEFT ? PADDLE_WIDTH : SCREEN_WIDTH - PADDLE_WIDTH;
+            if(b.y >= p.y && b.y <= p.y + PADDLE_HEIGHT) {
+                return Math.abs(b.x - edgeX) <= BALL_RADIUS;
+            } else if(Math.pow(b.y - p.y, 2) + Math.pow(b.x - edgeX, 2) <= Math.pow(BALL_RADIUS, 2)) {
+                return true;
+            } else if(Math.pow(b.y - (p.y + PADDLE_HEIGHT), 2) + Math.pow(b.x - edgeX, 2) <= Math.pow(BALL_RADIUS, 2)) {
+                return true;
+            }
+            return false;
+        }
+
+        public static void setTranslation(FloatBuffer dest, float dx, float dy) {
+            dest.put(new float[] {
+                1,  0,  0, 0,
+                0,  1,  0, 0,
+                0,  0,  1, 0,
+                dx, dy, 0, 1
+            });
+            dest.flip();
+        }
+
+        public static void setOrtho2D(FloatBuffer dest, Projection p) {
+            float f1 = p.right - p.left;
+            float f2 = p.top - p.bottom;
+            dest.put(new float[]{
+                2f / f1,                  0,                        0,  0,
+                0,                        2f / f2,                  0,  0,
+                0,                        0,                        -1, 0,
+                -(p.right + p.left) / f1, -(p.top + p.bottom) / f2, 0,  1
+            });
+            dest.flip();
+        }
+
+        public static float windowToWorldCoordsX(Framebuffer framebuffer, Projection proj, int windowX) {
+            return (((float) windowX / framebuffer.width) * (proj.right - proj.left)) + proj.left;
+        }
+
+        public static float windowToWorldCoordsY(Framebuffer framebuffer, Projection proj, int windowY) {
+            return (((float) windowY / framebuffer.height) * (proj.top - proj.bottom)) + proj.bottom;
+        }
+
+        private static FloatBuffer createFloatBuffer(int size) {
+            return ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+    }
+}
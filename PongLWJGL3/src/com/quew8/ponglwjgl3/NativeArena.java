@@ -0,0 +1,191 @@
+package com.quew8.ponglwjgl3;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * A long lived arena of native memory for one subsystem. Buffers are
+ * allocated with MemoryUtil and must be freed explicitly. The arena tracks
+ * the bytes outstanding so that anything still allocated when it is closed
+ * is reported as a leak.
+ *
+ * An arena for a backend without the LWJGL natives, such as HeadlessBackend,
+ * allocates from ByteBuffer.allocateDirect instead.
+ *
+ * @author Quew8
+ */
+public class NativeArena implements AutoCloseable {
+    /**
+     * Should leaks throw rather than just be reported, set with
+     * -Dpong.arena.strict=true.
+     */
+    public static final boolean STRICT = Boolean.getBoolean("pong.arena.strict");
+    /**
+     * The name of the subsystem this arena belongs to.
+     */
+    private final String subsystem;
+    /**
+     * Should memory come from the Java heap's direct buffers.
+     */
+    private final boolean heap;
+    /**
+     * The outstanding allocations, by the buffer handed out, and the byte
+     * buffers they were made with.
+     */
+    private final Map<Buffer, ByteBuffer> allocations = new IdentityHashMap<>();
+    /**
+     * Counters for the outstanding bytes, the most ever outstanding and the
+     * number of leaked allocations.
+     */
+    private final Metrics.Counter outstanding, peak, leaks;
+    private boolean closed = false;
+
+    /**
+     * @param subsystem The name of the subsystem, used in the metrics.
+     * @param metrics The metrics to report in.
+     * @param heap Should memory come from the heap rather than MemoryUtil.
+     */
+    public NativeArena(String subsystem, Metrics metrics, boolean heap) {
+        this.subsystem = subsystem;
+        this.heap = heap;
+        this.outstanding = metrics.counter("native." + subsystem + ".bytes");
+        this.peak = metrics.counter("native." + subsystem + ".peak");
+        this.leaks = metrics.counter("native." + subsystem + ".leaks");
+    }
+
+    /**
+     * Allocates uninitialized native memory.
+     *
+     * @param bytes The size in bytes.
+     * @return A buffer in native byte order covering the memory.
+     */
+    public ByteBuffer malloc(int bytes) {
+        ByteBuffer buffer = allocateTracked(bytes);
+        allocations.put(buffer, buffer);
+        return buffer;
+    }
+
+    /**
+     * Allocates uninitialized native memory for floats.
+     *
+     * @param count The number of floats.
+     * @return The buffer.
+     */
+    public FloatBuffer mallocFloat(int count) {
+        ByteBuffer made = allocateTracked(count * 4);
+        FloatBuffer buffer = made.asFloatBuffer();
+        allocations.put(buffer, made);
+        return buffer;
+    }
+
+    /**
+     * Allocates uninitialized native memory for ints.
+     *
+     * @param count The number of ints.
+     * @return The buffer.
+     */
+    public IntBuffer mallocInt(int count) {
+        ByteBuffer made = allocateTracked(count * 4);
+        IntBuffer buffer = made.asIntBuffer();
+        allocations.put(buffer, made);
+        return buffer;
+    }
+
+    /**
+     * Allocates memory and counts it as outstanding.
+     *
+     * @param bytes The size in bytes.
+     * @return The buffer.
+     */
+    private ByteBuffer allocateTracked(int bytes) {
+        if(closed) {
+            throw new IllegalStateException("Arena " + subsystem + " is closed");
+        }
+        ByteBuffer buffer = allocate(bytes, heap);
+        outstanding.add(bytes);
+        if(outstanding.get() > peak.get()) {
+            peak.set(outstanding.get());
+        }
+        return buffer;
+    }
+
+    /**
+     * Frees memory allocated by this arena.
+     *
+     * @param buffer The buffer returned by one of the malloc methods.
+     */
+    public void free(Buffer buffer) {
+        ByteBuffer made = allocations.remove(buffer);
+        if(made == null) {
+            throw new IllegalArgumentException("Buffer was not allocated by arena " + subsystem);
+        }
+        outstanding.add(-made.capacity());
+        release(made, heap);
+    }
+
+    /**
+     * @return The number of bytes currently allocated.
+     */
+    public long getOutstandingBytes() {
+        return outstanding.get();
+    }
+
+    /**
+     * Frees everything still allocated, reporting it as leaked, and closes
+     * the arena.
+     */
+    @Override
+    public void close() {
+        if(closed) {
+            return;
+        }
+        int leaked = allocations.size();
+        long leakedBytes = outstanding.get();
+        for(ByteBuffer made: allocations.values()) {
+            outstanding.add(-made.capacity());
+            release(made, heap);
+        }
+        allocations.clear();
+        closed = true;
+        if(leaked > 0) {
+            leaks.add(leaked);
+            String msg = "Arena " + subsystem + " leaked " + leaked + " allocations, " + leakedBytes + " bytes";
+            if(STRICT) {
+                throw new RuntimeException(msg);
+            }
+            System.err.println(msg);
+        }
+    }
+
+    /**
+     * Allocates native memory from MemoryUtil or the heap.
+     *
+     * @param bytes The size in bytes.
+     * @param heap Should it come from the heap.
+     * @return The buffer in native byte order.
+     */
+    static ByteBuffer allocate(int bytes, boolean heap) {
+        if(heap) {
+            return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        }
+        return MemoryUtil.memAlloc(bytes);
+    }
+
+    /**
+     * Frees memory from allocate(). Memory from the heap is left to the GC.
+     *
+     * @param buffer The buffer.
+     * @param heap Did it come from the heap.
+     */
+    static void release(ByteBuffer buffer, boolean heap) {
+        if(!heap) {
+            MemoryUtil.memFree(buffer);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.quew8.ponglwjgl3;
+
+import java.io.IOException;
+import static org.lwjgl.opengl.GL11.*;
+
+/**
+ * Runs the full game with the real LWJGL renderer into an offscreen 
+ * framebuffer for a fixed wall clock time and reports the frame rate and the 
+ * GL calls made. Without a GPU or display it can be run on Mesa's llvmpipe:
+ * 
+ *     xvfb-run -a env LIBGL_ALWAYS_SOFTWARE=1 java -Dpong.ai=both \
+ *         com.quew8.ponglwjgl3.OffscreenRunner 1000x600 30
+ * 
+ * With both paddles played by the AI the rally keeps going.
+ *
+ * @author Quew8
+ */
+public class OffscreenRunner {
+
+    /**
+     * @param args The framebuffer size as WIDTHxHEIGHT and the duration in 
+     * seconds, both optional.
+     * @throws java.io.IOException If the natives can't be extracted.
+     */
+    public static void main(String[] args) throws IOException {
+        int width = Pong.WINDOW_WIDTH, height = Pong.WINDOW_HEIGHT;
+        if(args.length > 0) {
+            String[] size = args[0].split("x");
+            width = Integer.parseInt(size[0]);
+            height = Integer.parseInt(size[1]);
+        }
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 30;
+        
+        Pong.extractNatives();
+        final double[] endMillis = {Double.POSITIVE_INFINITY};
+        CountingBackend backend = new CountingBackend(new LWJGLBackend()) {
+            
+            @Override
+            public boolean shouldClose() {
+                return getTimeMillis() >= endMillis[0] || super.shouldClose();
+            }
+            
+        };
+        Pong pong = new Pong(backend);
+        pong.initOffscreen(width, height);
+        String renderer = backend.glGetString(GL_RENDERER);
+        String version = backend.glGetString(GL_VERSION);
+        //Only count the loop's calls.
+        backend.getCalls().reset();
+        double startMillis = backend.getTimeMillis();
+        endMillis[0] = startMillis + (seconds * 1000);
+        pong.loop();
+        //Wait for the last frame so the time covers all of the work.
+        backend.glFinish();
+        double elapsedSeconds = (backend.getTimeMillis() - startMillis) / 1000;
+        pong.deinit();
+        
+        long rendered = pong.getMetrics().counter("frames.rendered").get();
+        System.out.println("renderer: " + renderer);
+        System.out.println("version: " + version);
+        System.out.println("framebuffer: " + width + "x" + height);
+        System.out.printf("seconds: %.2f%n", elapsedSeconds);
+        pong.getMetrics().print(System.out);
+        System.out.printf("frames per second: %.1f%n", rendered / elapsedSeconds);
+        System.out.printf("GL calls per rendered frame: %.1f%n", (double) backend.getCalls().getGL() / Math.max(1, rendered));
+        backend.getCalls().print(System.out);
+    }
+}
@@ -0,0 +1,141 @@
+package com.quew8.ponglwjgl3;
+
+import java.util.List;
+import static com.quew8.ponglwjgl3.Pong.*;
+
+/**
+ * A computer controller for a paddle on either side. Rather than stepping
+ * balls forward it solves where each ball will cross the paddle's plane
+ * analytically, unfolding reflections off the top and bottom walls. Solved
+ * intercepts are cached on the ball itself until its velocity changes so
+ * that any number of controllers can share them.
+ *
+ * @author Quew8
+ */
+public class PaddleAI {
+    /**
+     * The lowest and highest y coord the centre of a ball can reach before
+     * bouncing off a wall.
+     */
+    private static final float MIN_BALL_Y = BALL_RADIUS, MAX_BALL_Y = SCREEN_HEIGHT - BALL_RADIUS;
+    /**
+     * The side of the paddle this controls.
+     */
+    private final Side side;
+    /**
+     * The x coord of a ball's centre when touching this paddle's leading edge.
+     */
+    private final float planeX;
+
+    public PaddleAI(Side side) {
+        this.side = side;
+        this.planeX = getPlaneX(side);
+    }
+
+    /**
+     * Decides which way the paddle should move to meet the ball which will
+     * reach it soonest. If no ball is approaching then the paddle returns to
+     * the centre.
+     *
+     * @param p The paddle being controlled.
+     * @param balls The balls in play.
+     * @param delta The delta time of this frame.
+     * @return 1 to move up, -1 to move down or 0 to stay.
+     */
+    public int decide(Paddle p, List<Ball> balls, double delta) {
+        float targetY = SCREEN_HEIGHT / 2;
+        float soonest = Float.POSITIVE_INFINITY;
+        for(int i = 0; i < balls.size(); i++) {
+            Ball b = balls.get(i);
+            if((side == Side.LEFT && b.vx >= 0) || (side == Side.RIGHT && b.vx <= 0)) {
+                continue;
+            }
+            float eta = (planeX - b.x) / b.vx;
+            if(eta >= 0 && eta < soonest) {
+                soonest = eta;
+                targetY = getInterceptY(b, side);
+            }
+        }
+        float offset = targetY - (p.y + (PADDLE_HEIGHT / 2));
+        //Don't move if within half a frame's movement else the paddle jitters.
+        float deadZone = (float) (delta * PADDLE_SPEED) / 2;
+        if(offset > deadZone) {
+            return 1;
+        } else if(offset < -deadZone) {
+            return -1;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the y coord at which the specified ball will reach the specified
+     * side's paddle plane, using the cached value if the ball's velocity is
+     * unchanged since it was solved.
+     *
+     * @param b The ball.
+     * @param side The side of the paddle.
+     * @return The y coord of the ball's centre at the intercept.
+     */
+    public static float getInterceptY(Ball b, Side side) {
+        if(b.vx != b.interceptVx || b.vy != b.interceptVy) {
+            b.interceptVx = b.vx;
+            b.interceptVy = b.vy;
+            b.leftInterceptY = Float.NaN;
+            b.rightInterceptY = Float.NaN;
+        }
+        switch(side) {
+            case LEFT: {
+                if(Float.isNaN(b.leftInterceptY)) {
+                    b.leftInterceptY = solveInterceptY(b.x, b.y, b.vx, b.vy, getPlaneX(side));
+                }
+                return b.leftInterceptY;
+            }
+            case RIGHT: {
+                if(Float.isNaN(b.rightInterceptY)) {
+                    b.rightInterceptY = solveInterceptY(b.x, b.y, b.vx, b.vy, getPlaneX(side));
+                }
+                return b.rightInterceptY;
+            }
+            default: throw new IllegalStateException("Invalid Enum");
+        }
+    }
+
+    /**
+     * Solves the y coord at which a ball will reach the plane x = planeX,
+     * accounting for any number of reflections off the top and bottom walls.
+     * The straight line path is unfolded through the mirrored courts and then
+     * folded back into the real one.
+     *
+     * @param x The x coord of the ball.
+     * @param y The y coord of the ball.
+     * @param vx The x velocity of the ball. Must be non zero.
+     * @param vy The y velocity of the ball.
+     * @param planeX The x coord of the plane.
+     * @return The y coord of the ball's centre when reaching the plane.
+     */
+    public static float solveInterceptY(float x, float y, float vx, float vy, float planeX) {
+        double t = (planeX - x) / vx;
+        double span = MAX_BALL_Y - MIN_BALL_Y;
+        double unfolded = (y - MIN_BALL_Y) + (vy * t);
+        double m = unfolded % (2 * span);
+        if(m < 0) {
+            m += 2 * span;
+        }
+        return (float) (MIN_BALL_Y + (m <= span ? m : (2 * span) - m));
+    }
+
+    /**
+     * Returns the x coord of a ball's centre when touching the specified side's
+     * paddle's leading edge.
+     *
+     * @param side The side of the paddle.
+     * @return The x coord of the plane.
+     */
+    public static float getPlaneX(Side side) {
+        switch(side) {
+            case LEFT: return PADDLE_WIDTH + BALL_RADIUS;
+            case RIGHT: return SCREEN_WIDTH - PADDLE_WIDTH - BALL_RADIUS;
+            default: throw new IllegalStateException("Invalid Enum");
+        }
+    }
+}
@@ -0,0 +1,493 @@
+package com.quew8.ponglwjgl3;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import static com.quew8.ponglwjgl3.Pong.*;
+
+/**
+ * Short lived particles for ball trails and the sparks where balls bounce.
+ * Every particle's state lives in preallocated primitive arrays, live
+ * particles packed at the front, so nothing is allocated however many there
+ * are.
+ *
+ * The arrays are split into fixed chunks which are updated independently,
+ * in parallel on a pool if there is one. Each chunk packs its survivors to
+ * its own front and then the chunks are moved together, so the order of the
+ * particles and so the results don't depend on the threads. The pool's tasks
+ * are allocated up front and reinitialised every update.
+ *
+ * If an update takes longer than the budget the emission rate is halved, and
+ * whilst within it the rate recovers gradually, so a burst of balls thins
+ * their trails rather than the frame rate. Particles emitted once the arrays
+ * are full are dropped.
+ *
+ * @author Quew8
+ */
+public class ParticleSystem {
+    /**
+     * Particle kinds.
+     */
+    private static final byte KIND_TRAIL = 0, KIND_SPARK = 1;
+    /**
+     * How long each kind lives in milliseconds.
+     */
+    private static final float TRAIL_LIFE_MILLIS = 400, SPARK_LIFE_MILLIS = 300;
+    /**
+     * Trail particles emitted per ball per millisecond and sparks per bounce,
+     * at full emission.
+     */
+    private static final float TRAIL_PER_MILLI = 0.5f;
+    private static final int SPARKS_PER_BOUNCE = 24;
+    /**
+     * The speed of trail particles and the top speed of sparks, in screen
+     * units per millisecond.
+     */
+    private static final float TRAIL_SPEED = 0.0002f, SPARK_SPEED = 0.003f;
+    /**
+     * The fraction of a particle's velocity lost per millisecond.
+     */
+    private static final float DRAG = 0.004f;
+    /**
+     * The number of particles per chunk.
+     */
+    private static final int CHUNK_SIZE = 16384;
+    /**
+     * The lowest emission scale, so that emission can always recover.
+     */
+    private static final float MIN_EMISSION_SCALE = 1f / 64, EMISSION_RECOVERY = 0.02f;
+    private static final Colour TRAIL_COLOUR = BALL_COLOUR, SPARK_COLOUR = ORANGE;
+    private final int capacity;
+    /**
+     * The particles. The first size are alive.
+     */
+    private final float[] xs, ys, vxs, vys, lives;
+    private final byte[] kinds;
+    private int size = 0;
+    /**
+     * The number of particles left in each chunk by the last update.
+     */
+    private final int[] chunkAlive;
+    /**
+     * The pool to update on, null to update serially, and its reusable tasks.
+     */
+    private final ForkJoinPool pool;
+    private final ChunkTask[] tasks;
+    private final RootTask root;
+    /**
+     * The arguments of the running parallel pass.
+     */
+    private float passDelta;
+    private ByteBuffer passDest;
+    /**
+     * The update time above which emission is throttled.
+     */
+    private final long budgetNanos;
+    private float emissionScale = 1;
+    /**
+     * The fraction of particles emitted as chosen by the caller, on top of
+     * the throttling.
+     */
+    private float density = 1;
+    private long lastUpdateNanos = 0;
+    private long dropped = 0;
+    /**
+     * Carried fraction of a trail particle.
+     */
+    private float trailCarry = 0;
+    /**
+     * The state of the xorshift generator for emission.
+     */
+    private long seed;
+
+    /**
+     * @param capacity The most particles alive at once.
+     * @param pool The pool to update on or null to update on the caller.
+     * @param budgetMillis The update time above which emission is throttled.
+     * @param seed The seed.
+     */
+    public ParticleSystem(int capacity, ForkJoinPool pool, double budgetMillis, long seed) {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+        }
+        this.capacity = capacity;
+        this.xs = new float[capacity];
+        this.ys = new float[capacity];
+        this.vxs = new float[capacity];
+        this.vys = new float[capacity];
+        this.lives = new float[capacity];
+        this.kinds = new byte[capacity];
+        int nChunks = (capacity + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        this.chunkAlive = new int[nChunks];
+        this.pool = pool;
+        if(pool != null) {
+            this.tasks = new ChunkTask[nChunks];
+            for(int c = 0; c < nChunks; c++) {
+                tasks[c] = new ChunkTask(c);
+            }
+            this.root = new RootTask();
+        } else {
+            this.tasks = null;
+            this.root = null;
+        }
+        this.budgetNanos = (long) (budgetMillis * 1e6);
+        this.seed = seed == 0 ? 0x9E3779B97F4A7C15L : seed;
+    }
+
+    /**
+     * Emits a ball's trail for a tick.
+     *
+     * @param x The ball's x coord.
+     * @param y The ball's y coord.
+     * @param delta The tick's length in milliseconds.
+     */
+    public void emitTrail(float x, float y, double delta) {
+        trailCarry += (float) (TRAIL_PER_MILLI * delta * emissionScale * density);
+        int n = (int) trailCarry;
+        trailCarry -= n;
+        for(int i = 0; i < n; i++) {
+            float theta = nextFloat() * (float) (Math.PI * 2);
+            float speed = nextFloat() * TRAIL_SPEED;
+            add(KIND_TRAIL, x, y, speed * (float) Math.cos(theta), speed * (float) Math.sin(theta), TRAIL_LIFE_MILLIS);
+        }
+    }
+
+    /**
+     * Emits sparks where a ball bounced, spraying away from the surface.
+     *
+     * @param x The x coord of the bounce.
+     * @param y The y coord of the bounce.
+     * @param nx The x component of the surface's normal.
+     * @param ny The y component of the surface's normal.
+     */
+    public void emitSparks(float x, float y, float nx, float ny) {
+        if(density <= 0) {
+            return;
+        }
+        int n = Math.max(1, (int) (SPARKS_PER_BOUNCE * emissionScale * density));
+        for(int i = 0; i < n; i++) {
+            //Spread over the half facing along the normal.
+            float theta = (nextFloat() - 0.5f) * (float) Math.PI;
+            float cos = (float) Math.cos(theta), sin = (float) Math.sin(theta);
+            float speed = (0.25f + (0.75f * nextFloat())) * SPARK_SPEED;
+            add(KIND_SPARK, x, y, speed * ((nx * cos) - (ny * sin)), speed * ((nx * sin) + (ny * cos)),
+                    SPARK_LIFE_MILLIS * (0.5f + (0.5f * nextFloat())));
+        }
+    }
+
+    private void add(byte kind, float x, float y, float vx, float vy, float life) {
+        if(size == capacity) {
+            dropped++;
+            return;
+        }
+        xs[size] = x;
+        ys[size] = y;
+        vxs[size] = vx;
+        vys[size] = vy;
+        lives[size] = life;
+        kinds[size] = kind;
+        size++;
+    }
+
+    /**
+     * Ages and moves every particle, removing those which have expired, and
+     * adjusts the emission rate to the time it took.
+     *
+     * @param delta The tick's length in milliseconds.
+     */
+    public void update(double delta) {
+        long start = System.nanoTime();
+        int nChunks = getChunkCount();
+        if(pool != null && nChunks > 1) {
+            runParallel((float) delta, null);
+        } else {
+            for(int c = 0; c < nChunks; c++) {
+                updateChunk(c, (float) delta);
+            }
+        }
+        //Move the chunks' survivors together.
+        int dest = nChunks > 0 ? chunkAlive[0] : 0;
+        for(int c = 1; c < nChunks; c++) {
+            int from = c * CHUNK_SIZE, n = chunkAlive[c];
+            if(from != dest) {
+                System.arraycopy(xs, from, xs, dest, n);
+                System.arraycopy(ys, from, ys, dest, n);
+                System.arraycopy(vxs, from, vxs, dest, n);
+                System.arraycopy(vys, from, vys, dest, n);
+                System.arraycopy(lives, from, lives, dest, n);
+                System.arraycopy(kinds, from, kinds, dest, n);
+            }
+            dest += n;
+        }
+        size = dest;
+
+        lastUpdateNanos = System.nanoTime() - start;
+        if(lastUpdateNanos > budgetNanos) {
+            emissionScale = Math.max(MIN_EMISSION_SCALE, emissionScale / 2);
+        } else {
+            emissionScale = Math.min(1, emissionScale + EMISSION_RECOVERY);
+        }
+    }
+
+    /**
+     * Updates a chunk and packs its survivors to its front. Distinct chunks
+     * may be updated concurrently.
+     *
+     * @param c The chunk.
+     * @param delta The tick's length in milliseconds.
+     */
+    private void updateChunk(int c, float delta) {
+        int from = c * CHUNK_SIZE, to = Math.min(size, from + CHUNK_SIZE);
+        float drag = Math.max(0, 1 - (DRAG * delta));
+        int w = from;
+        for(int i = from; i < to; i++) {
+            float life = lives[i] - delta;
+            if(life <= 0) {
+                continue;
+            }
+            xs[w] = xs[i] + (vxs[i] * delta);
+            ys[w] = ys[i] + (vys[i] * delta);
+            vxs[w] = vxs[i] * drag;
+            vys[w] = vys[i] * drag;
+            lives[w] = life;
+            kinds[w] = kinds[i];
+            w++;
+        }
+        chunkAlive[c] = w - from;
+    }
+
+    /**
+     * Writes every live particle as a point vertex in Pong's vertex format,
+     * fading to black as it expires, and sets the buffer's position to 0 and
+     * its limit to the end of the last.
+     *
+     * @param dest The buffer, with room for capacity vertices.
+     */
+    public void fill(ByteBuffer dest) {
+        //Absolute puts are checked against the limit left by the last fill.
+        dest.clear();
+        int nChunks = getChunkCount();
+        if(pool != null && nChunks > 1) {
+            runParallel(0, dest);
+        } else {
+            for(int c = 0; c < nChunks; c++) {
+                fillChunk(c, dest);
+            }
+        }
+        dest.position(0);
+        dest.limit(size * VERTEX_SIZE);
+    }
+
+    /**
+     * Writes a chunk's vertices with absolute puts, so distinct chunks may be
+     * filled concurrently.
+     */
+    private void fillChunk(int c, ByteBuffer dest) {
+        int from = c * CHUNK_SIZE, to = Math.min(size, from + CHUNK_SIZE);
+        boolean little = dest.order() == ByteOrder.LITTLE_ENDIAN;
+        for(int i = from; i < to; i++) {
+            Colour colour;
+            float fade;
+            if(kinds[i] == KIND_TRAIL) {
+                colour = TRAIL_COLOUR;
+                fade = lives[i] * (1 / TRAIL_LIFE_MILLIS);
+            } else {
+                colour = SPARK_COLOUR;
+                fade = lives[i] * (1 / SPARK_LIFE_MILLIS);
+            }
+            fade = Math.min(1, fade);
+            //Each half of the vertex written as one int.
+            int x = quantise(xs[i]), y = quantise(ys[i]);
+            int r = (int) ((colour.packed[0] & 0xFF) * fade), g = (int) ((colour.packed[1] & 0xFF) * fade),
+                    b = (int) ((colour.packed[2] & 0xFF) * fade), a = colour.packed[3] & 0xFF;
+            int offset = i * VERTEX_SIZE;
+            if(little) {
+                dest.putInt(offset, x | (y << 16));
+                dest.putInt(offset + 4, r | (g << 8) | (b << 16) | (a << 24));
+            } else {
+                dest.putInt(offset, (x << 16) | y);
+                dest.putInt(offset + 4, (r << 24) | (g << 16) | (b << 8) | a);
+            }
+        }
+    }
+
+    /**
+     * Pong.quantisePosition as an unsigned int, rounding by truncation which
+     * unlike Math.round compiles to a single instruction. Particles are too
+     * small for the difference to show.
+     */
+    private static int quantise(float value) {
+        float scaled = Math.max(-Short.MAX_VALUE, Math.min(Short.MAX_VALUE, value * (Short.MAX_VALUE / POSITION_SCALE)));
+        return ((int) scaled) & 0xFFFF;
+    }
+
+    /**
+     * Runs a pass over every chunk on the pool, updating if dest is null else
+     * filling it.
+     */
+    private void runParallel(float delta, ByteBuffer dest) {
+        passDelta = delta;
+        passDest = dest;
+        root.reinitialize();
+        for(int c = 0; c < tasks.length; c++) {
+            tasks[c].reinitialize();
+        }
+        pool.invoke(root);
+        passDest = null;
+    }
+
+    private int getChunkCount() {
+        return (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    /**
+     * @return A uniformly distributed float in [0, 1).
+     */
+    private float nextFloat() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 7;
+        seed ^= seed << 17;
+        return (seed >>> 40) * 0x1.0p-24f;
+    }
+
+    /**
+     * @return The number of live particles.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The most particles alive at once.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The fraction of the full emission rate currently emitted.
+     */
+    public float getEmissionScale() {
+        return emissionScale;
+    }
+
+    /**
+     * @param density The fraction of particles to emit, in [0, 1].
+     */
+    public void setDensity(float density) {
+        this.density = Math.max(0, Math.min(1, density));
+    }
+
+    /**
+     * @return The fraction of particles emitted as set by setDensity().
+     */
+    public float getDensity() {
+        return density;
+    }
+
+    /**
+     * @return The number of particles dropped because the arrays were full.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return How long the last update took in nanoseconds.
+     */
+    public long getLastUpdateNanos() {
+        return lastUpdateNanos;
+    }
+
+    /**
+     * Runs every chunk's task, which ignore chunks beyond the live particles.
+     */
+    private class RootTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+            invokeAll(tasks);
+        }
+    }
+
+    private class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int chunk;
+
+        ChunkTask(int chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            if(chunk >= getChunkCount()) {
+                chunkAlive[chunk] = 0;
+                return;
+            }
+            if(passDest == null) {
+                updateChunk(chunk, passDelta);
+            } else {
+                fillChunk(chunk, passDest);
+            }
+        }
+    }
+
+    /**
+     * Keeps a steady population of particles alive, emitting as many as
+     * expire each tick, and prints the update and fill throughput as a line
+     * of JSON, like StressTest. Emission is never throttled.
+     *
+     * @param args The number of particles, the duration in seconds and the
+     * number of threads, all optional.
+     */
+    public static void main(String[] args) {
+        int nParticles = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 10;
+        int nThreads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+
+        ForkJoinPool pool = nThreads > 1 ? new ForkJoinPool(nThreads) : null;
+        ParticleSystem particles = new ParticleSystem(nParticles, pool, Double.POSITIVE_INFINITY, 1);
+        ByteBuffer vertices = ByteBuffer.allocateDirect(nParticles * VERTEX_SIZE).order(ByteOrder.nativeOrder());
+        float tickMillis = 1000f / 60;
+
+        long ticks = 0, updateNanos = 0, fillNanos = 0, startGcCount = -1;
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        long now = start;
+        while(now < end) {
+            //Top up to the target, bursts of sparks spread over the court.
+            while(particles.size() + SPARKS_PER_BOUNCE <= nParticles) {
+                particles.emitSparks(particles.nextFloat() * SCREEN_WIDTH, particles.nextFloat() * SCREEN_HEIGHT, 0, 1);
+            }
+            long before = System.nanoTime();
+            particles.update(tickMillis);
+            long between = System.nanoTime();
+            particles.fill(vertices);
+            now = System.nanoTime();
+            //The first ticks fill the arrays, only steady ticks count.
+            if(ticks == 0) {
+                startGcCount = BenchmarkReport.getGcCount();
+                start = now;
+                end = start + (long) (seconds * 1e9);
+            } else {
+                updateNanos += between - before;
+                fillNanos += now - between;
+            }
+            ticks++;
+        }
+        long gcCount = BenchmarkReport.getGcCount() - startGcCount;
+        if(pool != null) {
+            pool.shutdown();
+        }
+        long steadyTicks = Math.max(1, ticks - 1);
+        double updateMillis = (updateNanos / 1e6) / steadyTicks, fillMillis = (fillNanos / 1e6) / steadyTicks;
+        new BenchmarkReport()
+                .add("particles", nParticles).add("threads", nThreads).add("ticks", steadyTicks)
+                .add("updateMillis", updateMillis, 3).add("fillMillis", fillMillis, 3)
+                .add("updateNanosPerParticle", (updateMillis * 1e6) / nParticles, 2)
+                .add("live", particles.size()).add("gcCount", gcCount)
+                .print(System.out);
+    }
+}
@@ -4,10 +4,15 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import org.lwjgl.BufferUtils;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 import static org.lwjgl.glfw.GLFW.*;
 import org.lwjgl.glfw.GLFWCursorPosCallback;
 import org.lwjgl.glfw.GLFWErrorCallback;
@@ -15,23 +20,30 @@ import org.lwjgl.glfw.GLFWFramebufferSizeCallback;
 import org.lwjgl.glfw.GLFWKeyCallback;
 import org.lwjgl.glfw.GLFWMouseButtonCallback;
 import org.lwjgl.glfw.GLFWVidMode;
+import org.lwjgl.Version;
 import org.lwjgl.opengl.GL;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL43.*;
 
 /**
  *
  * @author Quew8
  */
-public class Pong {
+public class Pong implements Backend.InputHandler, Backend.DebugMessageHandler {
     public static final Colour 
             BLACK = new Colour(0, 0, 0), 
             WHITE = new Colour(1, 1, 1),
             GREY = new Colour(0.5f, 0.5f, 0.5f),
             ORANGE = new Colour(1, 0.55f, 0),
             RED = new Colour(1, 0, 0);
+    /**
+     * The LWJGL release the game is built against. The bundled natives are
+     * older, from a nightly build with a pre-release GLFW 3.2, see the README.
+     */
+    public static final String LWJGL_VERSION = "3.0.0";
     /**
      * The initial width and height of the window.
      */
@@ -51,24 +63,59 @@ public class Pong {
      */
     public static final float BALL_SPEED_SCALE = 0.005f;
     /**
-     * Number of vertices to display circle with.
+     * Number of vertices to display circle with at full detail.
      */
     public static final int BALL_N_VERTICES = 16;
+    /**
+     * The vertex counts of the circle fans held for each level of detail, 
+     * most detailed first.
+     */
+    public static final int[] BALL_LOD_VERTICES = {BALL_N_VERTICES, 8, 4};
+    /**
+     * The furthest, in pixels, a ball's outline may fall inside the true 
+     * circle. The coarsest fan within this is drawn.
+     */
+    public static final float BALL_LOD_MAX_ERROR_PIXELS = 0.5f;
+    /**
+     * The size of a vertex in bytes. Two normalised shorts for the position
+     * followed by four unsigned bytes for the RGBA colour.
+     */
+    public static final int VERTEX_SIZE = 8;
+    /**
+     * The magnitude of the largest coord a vertex can hold. The normalised 
+     * shorts cover -1 to 1 and the vertex shader scales them by this, so
+     * positions are held to within POSITION_SCALE / 32767 units.
+     */
+    public static final float POSITION_SCALE = 8;
     /**
      * Colours to draw various elements in.
      */
     public static final Colour PADDLE_COLOUR = WHITE, 
             BALL_COLOUR = WHITE,
             BORDER_COLOUR = GREY,
-            LINE_COLOUR = WHITE;
+            LINE_COLOUR = WHITE,
+            OBSTACLE_COLOUR = ORANGE;
     /**
      * The left and right paddle.
      */
     private final Paddle paddle1 = new Paddle(Side.LEFT), paddle2 = new Paddle(Side.RIGHT);
+    /**
+     * Counters for the behaviour of the loop. Printed on exit with 
+     * -Dpong.metrics=true.
+     */
+    private final Metrics metrics = new Metrics();
+    /**
+     * The number of balls to preallocate, set with -Dpong.balls.pool.
+     */
+    private static final int BALL_POOL_CAPACITY = Integer.getInteger("pong.balls.pool", BallPool.DEFAULT_CAPACITY);
+    /**
+     * Every ball comes from and goes back to this pool.
+     */
+    private final BallPool ballPool = new BallPool(BALL_POOL_CAPACITY, metrics);
     /**
      * List of active balls.
      */
-    private final ArrayList<Ball> balls = new ArrayList<>();
+    private final ArrayList<Ball> balls = new ArrayList<>(BALL_POOL_CAPACITY);
     {
         //Add random initial ball.
         float vx = (float) ((Math.random() * 0.002f) + 0.002f);
@@ -76,12 +123,54 @@ public class Pong {
             vx = -vx;
         }
         float vy = (float) ((Math.random() * 0.002f)) - 0.001f;
-        balls.add(new Ball(SCREEN_WIDTH / 2, SCREEN_HEIGHT / 2, vx, vy));
+        balls.add(ballPool.obtain(SCREEN_WIDTH / 2, SCREEN_HEIGHT / 2, vx, vy));
     };
     /**
      * Should start in fullscreen mode.
      */
     private static final boolean START_FULLSCREEN = true;
+    /**
+     * Which paddles are computer controlled. One of "left", "right", "both"
+     * or "none", set with -Dpong.ai.
+     */
+    private static final String AI_SIDES = System.getProperty("pong.ai", "none");
+    /**
+     * The controllers of the left and right paddle, null if player controlled.
+     */
+    private final PaddleAI paddle1AI = 
+            AI_SIDES.equals("left") || AI_SIDES.equals("both") ? new PaddleAI(Side.LEFT) : null;
+    private final PaddleAI paddle2AI = 
+            AI_SIDES.equals("right") || AI_SIDES.equals("both") ? new PaddleAI(Side.RIGHT) : null;
+    /**
+     * Should the game be simulated deterministically in fixed ticks, set with 
+     * -Dpong.lockstep=true. The seed all peers agree upon is set with 
+     * -Dpong.lockstep.seed.
+     */
+    private static final boolean LOCKSTEP = Boolean.getBoolean("pong.lockstep");
+    private static final long LOCKSTEP_SEED = Long.getLong("pong.lockstep.seed", 0);
+    /**
+     * The deterministic simulation, null if not in lockstep mode. When present
+     * it is the authority and the paddles and balls only mirror it.
+     */
+    private final LockstepSimulation lockstep = LOCKSTEP ? new LockstepSimulation(LOCKSTEP_SEED) : null;
+    /**
+     * Time not yet simulated in lockstep mode. Less than a tick.
+     */
+    private double lockstepAccumulator = 0;
+    /**
+     * The state ring file to publish every tick to, set with -Dpong.ring.publish,
+     * and the one to mirror instead of simulating, set with -Dpong.ring.spectate.
+     */
+    private static final String RING_PUBLISH_PATH = System.getProperty("pong.ring.publish");
+    private static final String RING_SPECTATE_PATH = System.getProperty("pong.ring.spectate");
+    /**
+     * The rings being published to and mirrored, null if not.
+     */
+    private StateRing publishRing, spectateRing;
+    /**
+     * The frames for which the mirrored ring couldn't be read consistently.
+     */
+    private final Metrics.Counter ringLapped = metrics.counter("ring.lapped");
     /**
      * A reference to the error callback so it doesn't get GCd.
      */
@@ -149,10 +238,11 @@ public class Pong {
             + "layout(std140) uniform mat4 modelView;\n"
             + "layout(location = 0) in vec2 position;\n"
             + "layout(location = 1) in vec3 colour;\n"
+            + "const float positionScale = " + POSITION_SCALE + ";\n"
             + "varying vec3 vColour;"
             + "void main(void) {\n"
             + "    vColour = colour;"
-            + "    gl_Position = projection * modelView * vec4(position.xy, 0, 1);\n"
+            + "    gl_Position = projection * modelView * vec4(position.xy * positionScale, 0, 1);\n"
             + "}\n";
     private final String fragmentSrc =
             "#version 330\n"
@@ -165,6 +255,17 @@ public class Pong {
      * OpenGL object handles.
      */
     private int program, vao, vbo;
+    /**
+     * The ids standing for the program and VAOs in render commands, and the
+     * ids of the program and vao.
+     */
+    private final RenderCommandBuffer.Names renderNames = new RenderCommandBuffer.Names();
+    private int programId, vaoId;
+    /**
+     * The framebuffer object and its colour renderbuffer when rendering 
+     * offscreen, else 0.
+     */
+    private int offscreenFramebuffer = 0, offscreenColour = 0;
     /**
      * The location and a buffer representing the modelViewMatrix uniform.
      */
@@ -178,11 +279,282 @@ public class Pong {
     /**
      * Reference for the vertex data of various scene objects.
      */
-    private RenderHandle paddleHandle, ballHandle, boundsHandle, lineHandle;
+    private RenderHandle paddleHandle, boundsHandle, lineHandle;
+    /**
+     * The ball fans for each level of detail and the one chosen for the 
+     * current framebuffer size.
+     */
+    private final RenderHandle[] ballLodHandles = new RenderHandle[BALL_LOD_VERTICES.length];
+    private RenderHandle ballHandle;
+    /**
+     * The ball level of detail chosen for the framebuffer size. The one drawn 
+     * may be coarser if the quality governor says so.
+     */
+    private int selectedBallLod = 0;
+    /**
+     * The level's outlines as lines in their own buffer. The draw commands 
+     * can only address 4096 vertices from a VAO's start so there is a VAO 
+     * per page of them. They never change so their commands are recorded and 
+     * sorted once, null if there is no level.
+     */
+    private int levelVbo = 0;
+    private int[] levelVaos = new int[0];
+    private RenderCommandBuffer levelCommands = null;
+    /**
+     * The native memory for the GL subsystem's long lived buffers and the
+     * native memory for transfers which last no longer than a frame.
+     */
+    private final NativeArena glArena;
+    private final FrameArena frameArena;
+    /**
+     * The size of the frame arena in bytes.
+     */
+    private static final int FRAME_ARENA_BYTES = 4096;
+    /**
+     * The frame's draw commands, recorded by recordScene() and executed by 
+     * render(), and when recording in parallel a buffer for each chunk of balls.
+     */
+    private final RenderCommandBuffer commands = new RenderCommandBuffer(BALL_POOL_CAPACITY + 8, renderNames);
+    private RenderCommandBuffer[] chunkCommands = new RenderCommandBuffer[0];
+    private int[] chunkCulled = new int[0];
+    /**
+     * The number of balls from which they are recorded in parallel, set with
+     * -Dpong.render.parallel. Below it recording is serial and allocates nothing.
+     */
+    private static final int PARALLEL_RECORD_THRESHOLD = Integer.getInteger("pong.render.parallel", 4096);
+    /**
+     * The number of balls recorded per task when recording in parallel.
+     */
+    private static final int RECORD_CHUNK_SIZE = 1024;
+    /**
+     * Should balls far from a paddle or wall skip the checks they can't yet 
+     * pass, set with -Dpong.update.tiered=true.
+     */
+    private static final boolean TIERED_UPDATE = Boolean.getBoolean("pong.update.tiered");
+    /**
+     * The distance, in screen units, by which tiered updates underestimate how
+     * far a ball is from an event. Covers the rounding of its float position 
+     * over TIERED_MAX_SKIP_MILLIS.
+     */
+    private static final float TIERED_MARGIN = 0.01f;
+    /**
+     * The longest a ball goes unchecked before its event times are solved 
+     * again, in simulated milliseconds.
+     */
+    private static final double TIERED_MAX_SKIP_MILLIS = 250;
+    /**
+     * The simulated time, advanced whilst balls are moving.
+     */
+    private double simulatedMillis = 0;
+    private final Metrics.Counter tieredChecksSkipped = metrics.counter("balls.tiered.skipped");
+    /**
+     * Should balls bounce off each other, set with -Dpong.balls.collide=true.
+     * The passes over each group of touching balls are set with 
+     * -Dpong.balls.collide.iterations and the number of groups from which 
+     * they are solved in parallel with -Dpong.balls.collide.parallel. Solving
+     * in parallel allocates and uses the common pool, sized with 
+     * -Djava.util.concurrent.ForkJoinPool.common.parallelism.
+     */
+    private static final boolean BALL_COLLISIONS = Boolean.getBoolean("pong.balls.collide");
+    private final BallContactSolver contactSolver = BALL_COLLISIONS ? new BallContactSolver(
+            Integer.getInteger("pong.balls.collide.iterations", BallContactSolver.DEFAULT_ITERATIONS),
+            Integer.getInteger("pong.balls.collide.parallel", 256)
+    ) : null;
+    /**
+     * The static obstacles loaded from -Dpong.level, null for the empty court.
+     * Level.main writes random ones.
+     */
+    private static final String LEVEL_PATH = System.getProperty("pong.level");
     /**
-     * A buffer for transferring the data for a new line.
+     * The number of vertices drawn from each level VAO and the most drawn 
+     * by one command, a whole number of lines.
      */
-    private FloatBuffer replaceBuffer;
+    private static final int LEVEL_PAGE_VERTICES = 4096, LEVEL_COMMAND_VERTICES = 254;
+    /**
+     * The most vertices of outline a level can have, a page for every VAO 
+     * the render commands can address but the game's own.
+     */
+    private static final int LEVEL_MAX_VERTICES = (RenderCommandBuffer.MAX_VAOS - 1) * LEVEL_PAGE_VERTICES;
+    /**
+     * The number of line segments in a level circle's outline.
+     */
+    private static final int LEVEL_CIRCLE_SEGMENTS = 8;
+    private final Level level = loadLevel();
+    /**
+     * Trails and sparks, up to -Dpong.particles of them at once, null if 0 as
+     * by default. Emission is throttled whilst updating them takes longer 
+     * than -Dpong.particles.budget milliseconds. They're updated on the 
+     * common pool and drawn as points in one call from a buffer rewritten 
+     * every frame.
+     */
+    private static final int PARTICLE_CAPACITY = Integer.getInteger("pong.particles", 0);
+    private static final double PARTICLE_BUDGET_MILLIS = 
+            Double.parseDouble(System.getProperty("pong.particles.budget", "2"));
+    private final ParticleSystem particles = PARTICLE_CAPACITY > 0 ? new ParticleSystem(
+            PARTICLE_CAPACITY, ForkJoinPool.commonPool(), PARTICLE_BUDGET_MILLIS, 1
+    ) : null;
+    private int particleVao = 0, particleVbo = 0;
+    private ByteBuffer particleVertices;
+    /**
+     * The frames since the particles were last updated and the time they 
+     * have missed.
+     */
+    private int particleFrames = 0;
+    private double particleDelta = 0;
+    /**
+     * Lowers the ball mesh detail, then effect density and then the particle 
+     * update rate whilst the work of a frame exceeds -Dpong.quality.budget 
+     * milliseconds, enabled with -Dpong.quality=true. Logs every change.
+     */
+    private static final boolean QUALITY_GOVERNOR = Boolean.getBoolean("pong.quality");
+    private static final double QUALITY_BUDGET_MILLIS = 
+            Double.parseDouble(System.getProperty("pong.quality.budget", Double.toString(1000d / 60)));
+    private final QualityGovernor qualityGovernor = QUALITY_GOVERNOR 
+            ? new QualityGovernor(QUALITY_BUDGET_MILLIS, System.out) : null;
+    private final Metrics.Counter qualityLevel = metrics.counter("quality.level");
+    private final Metrics.Counter particlesLive = metrics.counter("particles.live"),
+            particlesEmission = metrics.counter("particles.emission.percent"),
+            particlesDropped = metrics.counter("particles.dropped");
+    private final Metrics.Counter levelContacts = metrics.counter("level.contacts");
+    private final Metrics.Counter ballContacts = metrics.counter("balls.contacts"),
+            ballIslands = metrics.counter("balls.islands");
+    private final Metrics.Counter renderCommands = metrics.counter("render.commands"),
+            renderBinds = metrics.counter("render.binds"),
+            ballsCulled = metrics.counter("render.balls.culled"),
+            ballLod = metrics.counter("render.balls.lod.vertices");
+    /**
+     * The virtual seconds of headless play run before the window is created
+     * so the JIT has compiled the game by its first frame, set with 
+     * -Dpong.warmup. 0, the default, skips it.
+     */
+    private static final double WARMUP_SECONDS = Double.parseDouble(System.getProperty("pong.warmup", "0"));
+    /**
+     * Is this game a warm-up, which leaves no trace outside the process.
+     */
+    private boolean warmup = false;
+    /**
+     * Should the time to the first frame and to stable frame times be 
+     * measured and printed on exit, set with -Dpong.startup=true.
+     */
+    private static final boolean STARTUP_TIMING = Boolean.getBoolean("pong.startup");
+    /**
+     * The startup timer, null if not enabled.
+     */
+    private StartupTimer startupTimer;
+    /**
+     * How GL errors are checked for, set with -Dpong.gl.errors. One of 
+     * "release", "poll" or "debug".
+     */
+    private static final ErrorMode ERROR_MODE = 
+            ErrorMode.valueOf(System.getProperty("pong.gl.errors", "release").toUpperCase());
+    /**
+     * The part of the game currently making GL calls. Debug messages are
+     * attributed to it.
+     */
+    private String glPhase = "init";
+    /**
+     * The first error reported through debug output since the last check, 
+     * null if none.
+     */
+    private String debugError = null;
+    private final Metrics.Counter debugMessages = metrics.counter("gl.debug.messages");
+    /**
+     * The GL and window system calls are made through this.
+     */
+    private final Backend gl;
+    /**
+     * Should the loop wait for events rather than redraw unchanged frames, 
+     * disable with -Dpong.idle=false.
+     */
+    private static final boolean IDLE_WAIT = !"false".equals(System.getProperty("pong.idle"));
+    /**
+     * The longest time to wait for events whilst idle, in seconds.
+     */
+    private static final double IDLE_TIMEOUT = 0.5;
+    /**
+     * Does the next frame need to be rendered. Set by input, resizes and 
+     * state transitions.
+     */
+    private boolean dirty = true;
+    private final Metrics.Counter framesRendered = metrics.counter("frames.rendered"),
+            framesSkipped = metrics.counter("frames.skipped"),
+            idleMillis = metrics.counter("idle.millis");
+    private static final boolean PRINT_METRICS = Boolean.getBoolean("pong.metrics");
+    /**
+     * Should input be polled at the top of the loop, just before the update, 
+     * rather than between render and swap. Set with -Dpong.input.late=true.
+     */
+    private static final boolean LATE_INPUT = Boolean.getBoolean("pong.input.late");
+    /**
+     * The times at which input events not yet presented were received. The 
+     * first inputsUpdated have been seen by an update and will be presented by 
+     * the next swap.
+     */
+    private final double[] inputTimes = new double[256];
+    private int inputCount = 0, inputsUpdated = 0;
+    /**
+     * The latency from an input event to the update which saw it, the render 
+     * which reflected it and the swap which presented it.
+     */
+    private final Metrics.Histogram inputToUpdate = metrics.histogram("latency.input.update"),
+            inputToRender = metrics.histogram("latency.input.render"),
+            inputToPresent = metrics.histogram("latency.input.present");
+    private final Metrics.Counter inputsDropped = metrics.counter("input.dropped");
+    /**
+     * The frame budget in milliseconds past which a flight recording is dumped,
+     * set with -Dpong.hitch.millis, and the directory dumps go to, set with 
+     * -Dpong.hitch.dir.
+     */
+    private static final String HITCH_MILLIS = System.getProperty("pong.hitch.millis");
+    private static final String HITCH_DIR = System.getProperty("pong.hitch.dir", System.getProperty("java.io.tmpdir"));
+    /**
+     * How many seconds of history each hitch dump holds and how long after the
+     * hitch it is taken.
+     */
+    private static final double HITCH_BEFORE_SECONDS = 20, HITCH_AFTER_SECONDS = 2;
+    /**
+     * The hitch detector, null if not enabled.
+     */
+    private HitchDetector hitchDetector;
+    /**
+     * The number of frames rendered and simulation steps taken so far. For 
+     * labelling flight recorder events.
+     */
+    private long frameNumber = 0, tickNumber = 0;
+    /**
+     * Should each frame's allocation be measured, set with -Dpong.alloc=true 
+     * or implied by -Dpong.alloc.strict=true which also fails the run when 
+     * more than -Dpong.alloc.tolerance frames after the warmup allocate more 
+     * than -Dpong.alloc.budget bytes.
+     */
+    private static final boolean ALLOC_STRICT = Boolean.getBoolean("pong.alloc.strict");
+    private static final boolean ALLOC_GUARD = ALLOC_STRICT || Boolean.getBoolean("pong.alloc");
+    private static final long ALLOC_BUDGET = Long.getLong("pong.alloc.budget", 0);
+    private static final long ALLOC_WARMUP_FRAMES = Long.getLong("pong.alloc.warmup", 600);
+    private static final long ALLOC_TOLERANCE = Long.getLong("pong.alloc.tolerance", 8);
+    /**
+     * The allocation guard, null if not enabled.
+     */
+    private AllocationGuard allocationGuard;
+    
+    /**
+     * Creates a game which renders to a window through LWJGL.
+     */
+    public Pong() {
+        this(new LWJGLBackend());
+    }
+    
+    /**
+     * Creates a game which makes its GL and window system calls through the
+     * specified backend.
+     * 
+     * @param gl The backend.
+     */
+    public Pong(Backend gl) {
+        this.gl = gl;
+        this.glArena = new NativeArena("gl", metrics, !gl.hasNatives());
+        this.frameArena = new FrameArena(FRAME_ARENA_BYTES, metrics, !gl.hasNatives());
+    }
     
     public void init() {
         //Initialize GLFW.
@@ -191,11 +563,15 @@ public class Pong {
         glfwSetErrorCallback(errorCallback = GLFWErrorCallback.createPrint(System.err));
         
         //Set resizable
-        glfwWindowHint(GLFW_RESIZABLE, GL_TRUE);
+        glfwWindowHint(GLFW_RESIZABLE, GLFW_TRUE);
         //Request an OpenGL 3.3 Core context.
         glfwWindowHint(GLFW_CONTEXT_VERSION_MAJOR, 3);
         glfwWindowHint(GLFW_CONTEXT_VERSION_MINOR, 3);
         glfwWindowHint(GLFW_OPENGL_PROFILE, GLFW_OPENGL_CORE_PROFILE); 
+        if(ERROR_MODE == ErrorMode.DEBUG) {
+            //Debug output is only guaranteed in a debug context.
+            glfwWindowHint(GLFW_OPENGL_DEBUG_CONTEXT, GLFW_TRUE);
+        }
         int windowWidth = WINDOW_WIDTH;
         int windowHeight = WINDOW_HEIGHT;
         long monitor = 0;
@@ -217,8 +593,12 @@ public class Pong {
         glfwMakeContextCurrent(window);
         //Let LWJGL know to use this current context.
         GL.createCapabilities();
+        gl.setWindow(window);
         
+        initDebugOutput();
         initGL();
+        initStateRings();
+        initHitchDetector();
         
         //Setup the framebuffer resize callback.
         glfwSetFramebufferSizeCallback(window, (framebufferSizeCallback = new GLFWFramebufferSizeCallback() {
@@ -231,29 +611,21 @@ public class Pong {
         }));
         
         //Create buffers to put the framebuffer width and height into.
-        IntBuffer framebufferWidth = BufferUtils.createIntBuffer(1), 
-                framebufferHeight = BufferUtils.createIntBuffer(1);
+        IntBuffer framebufferWidth = glArena.mallocInt(1), 
+                framebufferHeight = glArena.mallocInt(1);
         //Put the framebuffer dimensions into these buffers.
         glfwGetFramebufferSize(window, framebufferWidth, framebufferHeight);
         //Intialize the projection matrix with the framebuffer dimensions.
         onResize(framebufferWidth.get(), framebufferHeight.get());
+        glArena.free(framebufferWidth);
+        glArena.free(framebufferHeight);
         
         //Setup the framebuffer resize callback.
         glfwSetKeyCallback(window, (keyCallback = new GLFWKeyCallback() {
 
             @Override
             public void invoke(long window, int key, int scancode, int action, int mods) {
-                //If current event key is Space and is up event.
-                //Else If current event key is F5 and is key up event.
-                //Else If current event key is Escape and is key up event.
-                if(key == GLFW_KEY_SPACE && action == GLFW_RELEASE) {
-                    onPlayPauseToggle();
-                } else if(key == GLFW_KEY_F5 && action == GLFW_RELEASE) {
-                    
-                } else if(key == GLFW_KEY_ESCAPE && action == GLFW_RELEASE) {
-                    //Request close.
-                    remainOpen = false;
-                }
+                onKey(key, action);
             }
 
         }));
@@ -263,8 +635,7 @@ public class Pong {
 
             @Override
             public void invoke(long window, double xpos, double ypos) {
-                cursorPos.x = xpos;
-                cursorPos.y = framebuffer.height - ypos;
+                onCursorPos(xpos, ypos);
             }
 
         }));
@@ -274,15 +645,7 @@ public class Pong {
 
             @Override
             public void invoke(long window, int button, int action, int mods) {
-                if(button == 0) {
-                    //If this event is down event and no current to-add-ball.
-                    //Else If this event is up event and there is a current to-add-ball.
-                    if(action == GLFW_PRESS && addBall == null) {
-                        onNewBall(cursorPos.x, cursorPos.y);
-                    } else if(action == GLFW_RELEASE && addBall != null) {
-                        onNewBallRelease(cursorPos.x, cursorPos.y);
-                    }
-                }
+                onMouseButton(button, action);
             }
 
         }));
@@ -291,7 +654,191 @@ public class Pong {
         glfwShowWindow(window);
         
         //For the first frame, take this time to be the last frame's start.
-        lastTime = currentTimeMillis();
+        lastTime = gl.getTimeMillis();
+    }
+    
+    /**
+     * Initializes the game to render into a framebuffer object of a hidden 
+     * window's context rather than to a visible window, for measuring the real
+     * renderer on machines without a display or GPU. With Mesa this works 
+     * under Xvfb with LIBGL_ALWAYS_SOFTWARE=1, which selects llvmpipe. There 
+     * is no input so the game just plays.
+     * 
+     * @param framebufferWidth The width of the framebuffer object.
+     * @param framebufferHeight The height of the framebuffer object.
+     */
+    public void initOffscreen(int framebufferWidth, int framebufferHeight) {
+        glfwInit();
+        glfwSetErrorCallback(errorCallback = GLFWErrorCallback.createPrint(System.err));
+        
+        glfwWindowHint(GLFW_VISIBLE, GLFW_FALSE);
+        glfwWindowHint(GLFW_RESIZABLE, GLFW_FALSE);
+        glfwWindowHint(GLFW_CONTEXT_VERSION_MAJOR, 3);
+        glfwWindowHint(GLFW_CONTEXT_VERSION_MINOR, 3);
+        glfwWindowHint(GLFW_OPENGL_PROFILE, GLFW_OPENGL_CORE_PROFILE); 
+        if(ERROR_MODE == ErrorMode.DEBUG) {
+            glfwWindowHint(GLFW_OPENGL_DEBUG_CONTEXT, GLFW_TRUE);
+        }
+        //The window's own framebuffer is never shown so needn't be big.
+        window = glfwCreateWindow(1, 1, "Pong - LWJGL3 Offscreen", 0, 0);
+        if(window == 0) {
+            throw new RuntimeException("Failed to create offscreen window");
+        }
+        glfwMakeContextCurrent(window);
+        GL.createCapabilities();
+        //Render as fast as possible rather than at the refresh rate.
+        glfwSwapInterval(0);
+        gl.setWindow(window);
+        
+        initDebugOutput();
+        initGL();
+        
+        offscreenColour = gl.glGenRenderbuffers();
+        gl.glBindRenderbuffer(GL_RENDERBUFFER, offscreenColour);
+        gl.glRenderbufferStorage(GL_RENDERBUFFER, GL_RGBA8, framebufferWidth, framebufferHeight);
+        gl.glBindRenderbuffer(GL_RENDERBUFFER, 0);
+        offscreenFramebuffer = gl.glGenFramebuffers();
+        gl.glBindFramebuffer(GL_FRAMEBUFFER, offscreenFramebuffer);
+        gl.glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_RENDERBUFFER, offscreenColour);
+        int status = gl.glCheckFramebufferStatus(GL_FRAMEBUFFER);
+        if(status != GL_FRAMEBUFFER_COMPLETE) {
+            throw new RuntimeException("Offscreen framebuffer incomplete: 0x" + Integer.toHexString(status));
+        }
+        
+        initStateRings();
+        initHitchDetector();
+        onResize(framebufferWidth, framebufferHeight);
+        lastTime = gl.getTimeMillis();
+    }
+    
+    /**
+     * Initializes the game without a window. Input events come from the 
+     * backend instead of GLFW callbacks.
+     * 
+     * @param framebufferWidth The width of the virtual framebuffer.
+     * @param framebufferHeight The height of the virtual framebuffer.
+     */
+    public void initHeadless(int framebufferWidth, int framebufferHeight) {
+        gl.setInputHandler(this);
+        initDebugOutput();
+        initGL();
+        initStateRings();
+        initHitchDetector();
+        onResize(framebufferWidth, framebufferHeight);
+        lastTime = gl.getTimeMillis();
+    }
+    
+    /**
+     * Initializes the game without a window for a warm-up. As initHeadless 
+     * but maps no state ring, records no hitches or allocations and prints 
+     * no metrics, all of which would be mistaken for the real game's.
+     * 
+     * @param framebufferWidth The width of the virtual framebuffer.
+     * @param framebufferHeight The height of the virtual framebuffer.
+     */
+    public void initWarmup(int framebufferWidth, int framebufferHeight) {
+        warmup = true;
+        gl.setInputHandler(this);
+        initDebugOutput();
+        initGL();
+        onResize(framebufferWidth, framebufferHeight);
+        lastTime = gl.getTimeMillis();
+    }
+    
+    /**
+     * To be called on a key event.
+     * 
+     * @param key The GLFW key code.
+     * @param action The GLFW action.
+     */
+    @Override
+    public void onKey(int key, int action) {
+        dirty = true;
+        onInputEvent();
+        //If current event key is Space and is up event.
+        //Else If current event key is F5 and is key up event.
+        //Else If current event key is Escape and is key up event.
+        if(key == GLFW_KEY_SPACE && action == GLFW_RELEASE) {
+            onPlayPauseToggle();
+        } else if(key == GLFW_KEY_F5 && action == GLFW_RELEASE) {
+
+        } else if(key == GLFW_KEY_ESCAPE && action == GLFW_RELEASE) {
+            //Request close.
+            remainOpen = false;
+        }
+    }
+    
+    /**
+     * To be called when the cursor moves.
+     * 
+     * @param xpos The window x coord of the cursor.
+     * @param ypos The window y coord of the cursor, from the top.
+     */
+    @Override
+    public void onCursorPos(double xpos, double ypos) {
+        dirty = true;
+        onInputEvent();
+        cursorPos.x = xpos;
+        cursorPos.y = framebuffer.height - ypos;
+    }
+    
+    /**
+     * To be called on a mouse button event.
+     * 
+     * @param button The mouse button.
+     * @param action The GLFW action.
+     */
+    @Override
+    public void onMouseButton(int button, int action) {
+        dirty = true;
+        onInputEvent();
+        if(button == 0) {
+            //If this event is down event and no current to-add-ball.
+            //Else If this event is up event and there is a current to-add-ball.
+            if(action == GLFW_PRESS && addBall == null) {
+                onNewBall(cursorPos.x, cursorPos.y);
+            } else if(action == GLFW_RELEASE && addBall != null) {
+                onNewBallRelease(cursorPos.x, cursorPos.y);
+            }
+        }
+    }
+    
+    /**
+     * Timestamps an input event so its latency can be measured. Events beyond
+     * the capacity of inputTimes are counted as dropped rather than timed.
+     */
+    public void onInputEvent() {
+        if(inputCount == inputTimes.length) {
+            inputsDropped.increment();
+            return;
+        }
+        inputTimes[inputCount++] = gl.getTimeMillis();
+    }
+    
+    /**
+     * Records the latency of each timestamped event from the specified index
+     * up to but excluding the other.
+     * 
+     * @param histogram The histogram to record into.
+     * @param from The first event.
+     * @param to The last event, exclusive.
+     */
+    private void recordInputLatency(Metrics.Histogram histogram, int from, int to) {
+        double now = gl.getTimeMillis();
+        for(int i = from; i < to; i++) {
+            histogram.record(now - inputTimes[i]);
+        }
+    }
+    
+    /**
+     * To be called after a swap. Records the latency of the presented events
+     * and forgets them, keeping those received since the update.
+     */
+    private void onPresent() {
+        recordInputLatency(inputToPresent, 0, inputsUpdated);
+        System.arraycopy(inputTimes, inputsUpdated, inputTimes, 0, inputCount - inputsUpdated);
+        inputCount -= inputsUpdated;
+        inputsUpdated = 0;
     }
     
     /**
@@ -299,117 +846,410 @@ public class Pong {
      * appropriate state. 
      */
     public void initGL() {
-        program = glCreateProgram();
-        int vertexId = glCreateShader(GL_VERTEX_SHADER);
-        glShaderSource(vertexId, vertexSrc);
-        glCompileShader(vertexId);
-        if(glGetShaderi(vertexId, GL_COMPILE_STATUS) != GL_TRUE) {
-            System.out.println(glGetShaderInfoLog(vertexId, Integer.MAX_VALUE));
+        glPhase = "initGL";
+        program = gl.glCreateProgram();
+        int vertexId = gl.glCreateShader(GL_VERTEX_SHADER);
+        gl.glShaderSource(vertexId, vertexSrc);
+        gl.glCompileShader(vertexId);
+        if(gl.glGetShaderi(vertexId, GL_COMPILE_STATUS) != GL_TRUE) {
+            System.out.println(gl.glGetShaderInfoLog(vertexId, Integer.MAX_VALUE));
             throw new RuntimeException();
         }
         
-        int fragmentId = glCreateShader(GL_FRAGMENT_SHADER);
-        glShaderSource(fragmentId, fragmentSrc);
-        glCompileShader(fragmentId);
-        if(glGetShaderi(fragmentId, GL_COMPILE_STATUS) != GL_TRUE) {
-            System.out.println(glGetShaderInfoLog(fragmentId, Integer.MAX_VALUE));
+        int fragmentId = gl.glCreateShader(GL_FRAGMENT_SHADER);
+        gl.glShaderSource(fragmentId, fragmentSrc);
+        gl.glCompileShader(fragmentId);
+        if(gl.glGetShaderi(fragmentId, GL_COMPILE_STATUS) != GL_TRUE) {
+            System.out.println(gl.glGetShaderInfoLog(fragmentId, Integer.MAX_VALUE));
             throw new RuntimeException();
         }
         
-        glAttachShader(program, vertexId);
-        glAttachShader(program, fragmentId);
-        glLinkProgram(program);
-        if(glGetProgrami(program, GL_LINK_STATUS) != GL_TRUE) {
-            System.out.println(glGetProgramInfoLog(program, Integer.MAX_VALUE));
+        gl.glAttachShader(program, vertexId);
+        gl.glAttachShader(program, fragmentId);
+        gl.glLinkProgram(program);
+        if(gl.glGetProgrami(program, GL_LINK_STATUS) != GL_TRUE) {
+            System.out.println(gl.glGetProgramInfoLog(program, Integer.MAX_VALUE));
             throw new RuntimeException();
         }
         
-        modelViewLoc = glGetUniformLocation(program, "modelView");
+        programId = renderNames.addProgram(program);
+        modelViewLoc = gl.glGetUniformLocation(program, "modelView");
         if(modelViewLoc == -1) {
             throw new RuntimeException();
         }
-        modelViewMatrix = BufferUtils.createFloatBuffer(16);
-        projectionLoc = glGetUniformLocation(program, "projection");
+        modelViewMatrix = glArena.mallocFloat(16);
+        projectionLoc = gl.glGetUniformLocation(program, "projection");
         if(projectionLoc == -1) {
             throw new RuntimeException();
         }
-        projectionMatrix = BufferUtils.createFloatBuffer(16);
+        projectionMatrix = glArena.mallocFloat(16);
         
-        vbo = glGenBuffers();
-        glBindBuffer(GL_ARRAY_BUFFER, vbo);
-        FloatBuffer fb = BufferUtils.createFloatBuffer(5 * (4 + BALL_N_VERTICES + 4 + 2));
+        vbo = gl.glGenBuffers();
+        gl.glBindBuffer(GL_ARRAY_BUFFER, vbo);
+        //Staging memory, freed once uploaded.
+        int ballVertices = 0;
+        for(int i = 0; i < BALL_LOD_VERTICES.length; i++) {
+            ballVertices += BALL_LOD_VERTICES[i];
+        }
+        ByteBuffer fb = glArena.malloc(VERTEX_SIZE * (4 + ballVertices + 4 + 2));
         
-        fb.put(new float[]{
-            0,            0,             PADDLE_COLOUR.red, PADDLE_COLOUR.green, PADDLE_COLOUR.blue,
-            PADDLE_WIDTH, 0,             PADDLE_COLOUR.red, PADDLE_COLOUR.green, PADDLE_COLOUR.blue,
-            PADDLE_WIDTH, PADDLE_HEIGHT, PADDLE_COLOUR.red, PADDLE_COLOUR.green, PADDLE_COLOUR.blue,
-            0,            PADDLE_HEIGHT, PADDLE_COLOUR.red, PADDLE_COLOUR.green, PADDLE_COLOUR.blue
-        });
+        putVertex(fb, 0,            0,             PADDLE_COLOUR);
+        putVertex(fb, PADDLE_WIDTH, 0,             PADDLE_COLOUR);
+        putVertex(fb, PADDLE_WIDTH, PADDLE_HEIGHT, PADDLE_COLOUR);
+        putVertex(fb, 0,            PADDLE_HEIGHT, PADDLE_COLOUR);
         paddleHandle = new RenderHandle(0, 4);
         
-        double step = (Math.PI * 2d) / BALL_N_VERTICES;
-        for(int i = 0; i < BALL_N_VERTICES; i++) {
-            double theta = i * step;
-            float x = (float) (BALL_RADIUS * Math.cos(theta));
-            float y = (float) (BALL_RADIUS * Math.sin(theta));
-            fb.put(new float[]{
-                x, y, BALL_COLOUR.red, BALL_COLOUR.green, BALL_COLOUR.blue
-            });
-        }
-        ballHandle = new RenderHandle(4, BALL_N_VERTICES);
-        
-        fb.put(new float[]{
-            0,            0,             BORDER_COLOUR.red, BORDER_COLOUR.green, BORDER_COLOUR.blue,
-            SCREEN_WIDTH, 0,             BORDER_COLOUR.red, BORDER_COLOUR.green, BORDER_COLOUR.blue,
-            SCREEN_WIDTH, SCREEN_HEIGHT, BORDER_COLOUR.red, BORDER_COLOUR.green, BORDER_COLOUR.blue,
-            0,            SCREEN_HEIGHT, BORDER_COLOUR.red, BORDER_COLOUR.green, BORDER_COLOUR.blue
-        });
-        boundsHandle = new RenderHandle(4 + BALL_N_VERTICES, 4);
+        int first = 4;
+        for(int lod = 0; lod < BALL_LOD_VERTICES.length; lod++) {
+            int nVertices = BALL_LOD_VERTICES[lod];
+            double step = (Math.PI * 2d) / nVertices;
+            for(int i = 0; i < nVertices; i++) {
+                double theta = i * step;
+                float x = (float) (BALL_RADIUS * Math.cos(theta));
+                float y = (float) (BALL_RADIUS * Math.sin(theta));
+                putVertex(fb, x, y, BALL_COLOUR);
+            }
+            ballLodHandles[lod] = new RenderHandle(first, nVertices);
+            first += nVertices;
+        }
+        //Chosen properly once the framebuffer size is known.
+        ballHandle = ballLodHandles[0];
         
-        fb.put(new float[]{
-            0,            0,             LINE_COLOUR.red, LINE_COLOUR.green, LINE_COLOUR.blue,
-            SCREEN_WIDTH, SCREEN_HEIGHT, LINE_COLOUR.red, LINE_COLOUR.green, LINE_COLOUR.blue
-        });
-        lineHandle = new RenderHandle(4 + BALL_N_VERTICES + 4, 2);
+        putVertex(fb, 0,            0,             BORDER_COLOUR);
+        putVertex(fb, SCREEN_WIDTH, 0,             BORDER_COLOUR);
+        putVertex(fb, SCREEN_WIDTH, SCREEN_HEIGHT, BORDER_COLOUR);
+        putVertex(fb, 0,            SCREEN_HEIGHT, BORDER_COLOUR);
+        boundsHandle = new RenderHandle(first, 4);
+        
+        putVertex(fb, 0,            0,             LINE_COLOUR);
+        putVertex(fb, SCREEN_WIDTH, SCREEN_HEIGHT, LINE_COLOUR);
+        lineHandle = new RenderHandle(first + 4, 2);
         
         fb.flip();
-        glBufferData(GL_ARRAY_BUFFER, fb, GL_STATIC_DRAW);
+        gl.glBufferData(GL_ARRAY_BUFFER, fb, GL_STATIC_DRAW);
+        glArena.free(fb);
+        
+        vao = gl.glGenVertexArrays();
+        vaoId = renderNames.addVao(vao);
+        gl.glBindVertexArray(vao);
+        gl.glEnableVertexAttribArray(0);
+        gl.glVertexAttribPointer(0, 2, GL_SHORT, true, VERTEX_SIZE, 0);
+        gl.glEnableVertexAttribArray(1);
+        gl.glVertexAttribPointer(1, 4, GL_UNSIGNED_BYTE, true, VERTEX_SIZE, 4);
+        gl.glBindBuffer(GL_ARRAY_BUFFER, 0);
         
-        vao = glGenVertexArrays();
-        glBindVertexArray(vao);
-        glEnableVertexAttribArray(0);
-        glVertexAttribPointer(0, 2, GL_FLOAT, false, 20, 0);
-        glEnableVertexAttribArray(1);
-        glVertexAttribPointer(1, 3, GL_FLOAT, false, 20, 8);
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        gl.glBindVertexArray(0);
         
-        glBindVertexArray(0);
+        if(level != null) {
+            initLevelGL();
+        }
+        if(particles != null) {
+            particleVertices = glArena.malloc(particles.getCapacity() * VERTEX_SIZE);
+            particleVbo = gl.glGenBuffers();
+            particleVao = gl.glGenVertexArrays();
+            gl.glBindVertexArray(particleVao);
+            gl.glBindBuffer(GL_ARRAY_BUFFER, particleVbo);
+            gl.glEnableVertexAttribArray(0);
+            gl.glVertexAttribPointer(0, 2, GL_SHORT, true, VERTEX_SIZE, 0);
+            gl.glEnableVertexAttribArray(1);
+            gl.glVertexAttribPointer(1, 4, GL_UNSIGNED_BYTE, true, VERTEX_SIZE, 4);
+            gl.glBindBuffer(GL_ARRAY_BUFFER, 0);
+            gl.glBindVertexArray(0);
+        }
         
         setBackColour();
-        glLineWidth(5);
+        gl.glLineWidth(5);
         
         checkError();
     }
     
+    /**
+     * Uploads the level's outlines as lines and sets up a VAO and draw 
+     * handles for each page of them.
+     */
+    private void initLevelGL() {
+        int nVertices = getLevelVertexCount(level);
+        ByteBuffer fb = glArena.malloc(VERTEX_SIZE * Math.max(1, nVertices));
+        for(int i = 0; i < level.getObstacleCount(); i++) {
+            float a = level.getValue(i, 0), b = level.getValue(i, 1), 
+                    c = level.getValue(i, 2), d = level.getValue(i, 3);
+            switch(level.getType(i)) {
+                case Level.TYPE_SEGMENT:
+                    putVertex(fb, a, b, OBSTACLE_COLOUR);
+                    putVertex(fb, c, d, OBSTACLE_COLOUR);
+                    break;
+                case Level.TYPE_BOX:
+                    putVertex(fb, a, b, OBSTACLE_COLOUR);
+                    putVertex(fb, c, b, OBSTACLE_COLOUR);
+                    putVertex(fb, c, b, OBSTACLE_COLOUR);
+                    putVertex(fb, c, d, OBSTACLE_COLOUR);
+                    putVertex(fb, c, d, OBSTACLE_COLOUR);
+                    putVertex(fb, a, d, OBSTACLE_COLOUR);
+                    putVertex(fb, a, d, OBSTACLE_COLOUR);
+                    putVertex(fb, a, b, OBSTACLE_COLOUR);
+                    break;
+                default:
+                    double step = (Math.PI * 2d) / LEVEL_CIRCLE_SEGMENTS;
+                    for(int k = 0; k < LEVEL_CIRCLE_SEGMENTS; k++) {
+                        putVertex(fb, a + (float) (c * Math.cos(k * step)), b + (float) (c * Math.sin(k * step)), OBSTACLE_COLOUR);
+                        putVertex(fb, a + (float) (c * Math.cos((k + 1) * step)), b + (float) (c * Math.sin((k + 1) * step)), OBSTACLE_COLOUR);
+                    }
+                    break;
+            }
+        }
+        fb.flip();
+        levelVbo = gl.glGenBuffers();
+        gl.glBindBuffer(GL_ARRAY_BUFFER, levelVbo);
+        gl.glBufferData(GL_ARRAY_BUFFER, fb, GL_STATIC_DRAW);
+        glArena.free(fb);
+        
+        int nPages = (nVertices + LEVEL_PAGE_VERTICES - 1) / LEVEL_PAGE_VERTICES;
+        int nHandles = 0;
+        for(int page = 0; page < nPages; page++) {
+            int pageVertices = Math.min(LEVEL_PAGE_VERTICES, nVertices - (page * LEVEL_PAGE_VERTICES));
+            nHandles += (pageVertices + LEVEL_COMMAND_VERTICES - 1) / LEVEL_COMMAND_VERTICES;
+        }
+        levelVaos = new int[nPages];
+        levelCommands = new RenderCommandBuffer(nHandles, renderNames);
+        for(int page = 0; page < nPages; page++) {
+            levelVaos[page] = gl.glGenVertexArrays();
+            int levelVaoId = renderNames.addVao(levelVaos[page]);
+            gl.glBindVertexArray(levelVaos[page]);
+            long base = (long) page * LEVEL_PAGE_VERTICES * VERTEX_SIZE;
+            gl.glEnableVertexAttribArray(0);
+            gl.glVertexAttribPointer(0, 2, GL_SHORT, true, VERTEX_SIZE, base);
+            gl.glEnableVertexAttribArray(1);
+            gl.glVertexAttribPointer(1, 4, GL_UNSIGNED_BYTE, true, VERTEX_SIZE, base + 4);
+            int pageVertices = Math.min(LEVEL_PAGE_VERTICES, nVertices - (page * LEVEL_PAGE_VERTICES));
+            for(int first = 0; first < pageVertices; first += LEVEL_COMMAND_VERTICES) {
+                RenderHandle handle = new RenderHandle(first, Math.min(LEVEL_COMMAND_VERTICES, pageVertices - first));
+                levelCommands.add(programId, levelVaoId, RenderCommandBuffer.LAYER_BACKGROUND, GL_LINES, handle, 0, 0);
+            }
+        }
+        levelCommands.sort();
+        gl.glBindBuffer(GL_ARRAY_BUFFER, 0);
+        gl.glBindVertexArray(0);
+    }
+    
+    /**
+     * @param type The obstacle type, a Level.TYPE_ constant.
+     * @return The number of vertices in its outline as lines.
+     */
+    private static int getLevelVertexCount(int type) {
+        switch(type) {
+            case Level.TYPE_SEGMENT: return 2;
+            case Level.TYPE_BOX: return 8;
+            default: return LEVEL_CIRCLE_SEGMENTS * 2;
+        }
+    }
+    
+    /**
+     * @param level The level.
+     * @return The number of vertices in all its outlines as lines.
+     */
+    private static int getLevelVertexCount(Level level) {
+        long nVertices = 0;
+        for(int i = 0; i < level.getObstacleCount(); i++) {
+            nVertices += getLevelVertexCount(level.getType(i));
+        }
+        return (int) Math.min(Integer.MAX_VALUE, nVertices);
+    }
+    
+    /**
+     * @return The level named by -Dpong.level, null if there isn't one.
+     */
+    private static Level loadLevel() {
+        if(LEVEL_PATH == null) {
+            return null;
+        }
+        Level level;
+        try {
+            level = Level.load(Paths.get(LEVEL_PATH));
+        } catch(IOException ex) {
+            throw new RuntimeException("Failed to load level", ex);
+        }
+        int nVertices = getLevelVertexCount(level);
+        if(nVertices > LEVEL_MAX_VERTICES) {
+            throw new IllegalArgumentException("Level " + LEVEL_PATH + " has " + level.getObstacleCount() 
+                    + " obstacles, " + nVertices + " vertices of outline, but at most " 
+                    + LEVEL_MAX_VERTICES + " can be drawn");
+        }
+        return level;
+    }
+    
+    /**
+     * Routes the driver's debug messages to onDebugMessage in debug mode.
+     */
+    public void initDebugOutput() {
+        if(ERROR_MODE == ErrorMode.DEBUG && !gl.setDebugMessageHandler(this)) {
+            System.err.println("Debug output unavailable, needs OpenGL 4.3 or KHR_debug");
+        }
+    }
+    
+    /**
+     * To be called by the driver with a debug message. Every message is 
+     * printed with the phase of the game which caused it, errors are also 
+     * kept to be thrown by checkDebugError().
+     * 
+     * @param source The GL_DEBUG_SOURCE_ of the message.
+     * @param type The GL_DEBUG_TYPE_ of the message.
+     * @param id The driver's id for the message.
+     * @param severity The GL_DEBUG_SEVERITY_ of the message.
+     * @param message The message.
+     */
+    @Override
+    public void onDebugMessage(int source, int type, int id, int severity, String message) {
+        if(severity == GL_DEBUG_SEVERITY_NOTIFICATION) {
+            return;
+        }
+        debugMessages.increment();
+        String msg = "GL " + getDebugSourceName(source) + " " + getDebugTypeName(type) 
+                + " in " + glPhase + " (id " + id + "): " + message;
+        System.err.println(msg);
+        if(type == GL_DEBUG_TYPE_ERROR && debugError == null) {
+            debugError = msg;
+        }
+    }
+    
+    /**
+     * Throws the first error reported through debug output since the last 
+     * check, if any.
+     */
+    public void checkDebugError() {
+        if(debugError != null) {
+            String msg = debugError;
+            debugError = null;
+            throw new RuntimeException(msg);
+        }
+    }
+    
+    /**
+     * Creates or opens the requested state rings.
+     */
+    public void initStateRings() {
+        try {
+            if(RING_PUBLISH_PATH != null) {
+                publishRing = StateRing.create(
+                    Paths.get(RING_PUBLISH_PATH), StateRing.DEFAULT_SLOT_COUNT, StateRing.DEFAULT_MAX_BALLS
+                );
+            }
+            if(RING_SPECTATE_PATH != null) {
+                spectateRing = StateRing.open(Paths.get(RING_SPECTATE_PATH));
+            }
+        } catch(IOException ex) {
+            throw new RuntimeException("Failed to map state ring", ex);
+        }
+    }
+    
+    /**
+     * Starts the hitch detector's rolling recording if requested.
+     */
+    public void initHitchDetector() {
+        if(HITCH_MILLIS != null) {
+            hitchDetector = new HitchDetector(
+                Paths.get(HITCH_DIR), Double.parseDouble(HITCH_MILLIS), 
+                HITCH_BEFORE_SECONDS, HITCH_AFTER_SECONDS, metrics
+            );
+        }
+    }
+    
     /**
      * Loops game, rendering and updating until close requested.
      * 
      */
     public void loop() {
+        if(ALLOC_GUARD && !warmup) {
+            allocationGuard = new AllocationGuard(
+                ALLOC_BUDGET, ALLOC_WARMUP_FRAMES, ALLOC_TOLERANCE, ALLOC_STRICT, metrics
+            );
+        }
+        if(STARTUP_TIMING && !warmup) {
+            startupTimer = new StartupTimer(metrics);
+        }
         //Continue whilst no close request from internal nor external.
-        while(glfwWindowShouldClose(window) == GL_FALSE && remainOpen) {
+        while(!gl.shouldClose() && remainOpen) {
+            FlightEvents.Frame frameEvent = null;
+            if(FlightEvents.FRAME_TYPE.isEnabled()) {
+                frameEvent = new FlightEvents.Frame();
+                frameEvent.begin();
+            }
+            long frameStart = System.nanoTime();
+            if(allocationGuard != null) {
+                allocationGuard.beginFrame();
+            }
+            if(LATE_INPUT) {
+                //Polls input as close to the update as possible.
+                gl.pollEvents();
+            }
             //Calculate delta time
-            double thisTime = currentTimeMillis();
+            double thisTime = gl.getTimeMillis();
             double delta = thisTime - lastTime;
             lastTime = thisTime;
             
+            float paddle1Y = paddle1.y, paddle2Y = paddle2.y;
+            glPhase = "update";
+            recordInputLatency(inputToUpdate, inputsUpdated, inputCount);
+            inputsUpdated = inputCount;
             update(delta);
-            render();
+            if(publishRing != null) {
+                publishRing.publish(currentState, paddle1, paddle2, balls);
+            }
+            long updateEnd = System.nanoTime();
+            //Anything moving, fading sparks included, means the frame has changed.
+            if(currentState == State.PLAYING || addBall != null 
+                    || paddle1.y != paddle1Y || paddle2.y != paddle2Y
+                    || (particles != null && particles.size() > 0)) {
+                dirty = true;
+            }
             
-            //Polls input.
-            glfwPollEvents();
-            //Swaps framebuffers.
-            glfwSwapBuffers(window);
+            if(dirty || !IDLE_WAIT) {
+                dirty = false;
+                render();
+                recordInputLatency(inputToRender, 0, inputsUpdated);
+                framesRendered.increment();
+                long renderEnd = System.nanoTime();
+                if(qualityGovernor != null && qualityGovernor.onFrame(renderEnd - frameStart)) {
+                    applyQuality();
+                }
+                
+                if(!LATE_INPUT) {
+                    //Polls input.
+                    gl.pollEvents();
+                }
+                //Swaps framebuffers.
+                gl.swapBuffers();
+                onPresent();
+                
+                long frameEnd = System.nanoTime();
+                boolean hitch = hitchDetector != null && hitchDetector.onFrame(frameEnd, frameEnd - frameStart);
+                if(startupTimer != null) {
+                    startupTimer.onFrame(renderEnd - frameStart);
+                }
+                if(frameEvent != null && frameEvent.shouldCommit()) {
+                    frameEvent.frame = frameNumber;
+                    frameEvent.ballCount = balls.size();
+                    frameEvent.updateNanos = updateEnd - frameStart;
+                    frameEvent.renderNanos = renderEnd - updateEnd;
+                    frameEvent.swapNanos = frameEnd - renderEnd;
+                    frameEvent.hitch = hitch;
+                    frameEvent.commit();
+                }
+                frameNumber++;
+            } else {
+                framesSkipped.increment();
+                //Nothing to show so sleep until something happens.
+                gl.waitEventsTimeout(IDLE_TIMEOUT);
+                //The time spent idle mustn't be simulated else a held key 
+                //would jump the paddle.
+                double wokeTime = gl.getTimeMillis();
+                idleMillis.add((long) (wokeTime - lastTime));
+                lastTime = wokeTime;
+            }
+            //Nothing allocated this frame may be used past it.
+            frameArena.reset();
+            if(allocationGuard != null) {
+                allocationGuard.endFrame();
+            }
         }
     }
     
@@ -420,61 +1260,297 @@ public class Pong {
      * @param delta The Time difference in milliseconds since the last frame.
      */
     public void update(double delta) {
+        //If mirroring another process's match then it is the authority.
+        if(spectateRing != null) {
+            long sequence = spectateRing.copyLatestTo(paddle1, paddle2, balls, ballPool);
+            if(sequence == StateRing.LAPPED) {
+                ringLapped.increment();
+            } else if(sequence >= 0 && spectateRing.getCopiedState() != currentState) {
+                transition(spectateRing.getCopiedState());
+            }
+            return;
+        }
+        
         //If there is a current to-add-ball. (Mouse movement not event driven in LWJGL2)
         if(addBall != null) {
             updateNewBall(cursorPos.x, cursorPos.y);
         }
         
+        if(lockstep != null) {
+            updateLockstep(delta);
+            return;
+        }
+        
+        FlightEvents.Tick tickEvent = null;
+        if(FlightEvents.TICK_TYPE.isEnabled()) {
+            tickEvent = new FlightEvents.Tick();
+            tickEvent.begin();
+        }
+        
         //If not paused then update paddles.
         if(currentState == State.PLAYING || currentState == State.LOST) {
-            updatePaddle(
-                paddle1, delta, 
-                glfwGetKey(window, GLFW_KEY_W) == GLFW_PRESS, 
-                glfwGetKey(window, GLFW_KEY_S) == GLFW_PRESS
-            );
-            updatePaddle(
-                paddle2, delta, 
-                glfwGetKey(window, GLFW_KEY_UP) == GLFW_PRESS,
-                glfwGetKey(window, GLFW_KEY_DOWN) == GLFW_PRESS
-            );
+            if(paddle1AI != null) {
+                updatePaddle(paddle1, delta, paddle1AI.decide(paddle1, balls, delta));
+            } else {
+                updatePaddle(
+                    paddle1, delta, 
+                    gl.isKeyDown(GLFW_KEY_W), 
+                    gl.isKeyDown(GLFW_KEY_S)
+                );
+            }
+            if(paddle2AI != null) {
+                updatePaddle(paddle2, delta, paddle2AI.decide(paddle2, balls, delta));
+            } else {
+                updatePaddle(
+                    paddle2, delta, 
+                    gl.isKeyDown(GLFW_KEY_UP),
+                    gl.isKeyDown(GLFW_KEY_DOWN)
+                );
+            }
 
         }
         //If playing then update balls.
         if(currentState == State.PLAYING) {
-            for(Ball b: balls) {
-                if(!updateBall(b, delta)) {
+            simulatedMillis += delta;
+            for(int i = 0; i < balls.size(); i++) {
+                if(!updateBall(balls.get(i), delta)) {
                     break;
                 }
             }
+            if(contactSolver != null && currentState == State.PLAYING) {
+                ballContacts.add(contactSolver.solve(balls));
+                ballIslands.add(contactSolver.getIslandCount());
+            }
+        }
+        //Particles keep fading once lost.
+        if(particles != null && (currentState == State.PLAYING || currentState == State.LOST)) {
+            //Cosmetic, so may be updated less often when the governor says.
+            particleDelta += delta;
+            int interval = qualityGovernor != null ? qualityGovernor.getEffectUpdateInterval() : 1;
+            if(++particleFrames >= interval) {
+                particles.update(particleDelta);
+                particleFrames = 0;
+                particleDelta = 0;
+            }
+            particlesLive.set(particles.size());
+            particlesEmission.set((long) (particles.getEmissionScale() * 100));
+            particlesDropped.set(particles.getDropped());
+        }
+        
+        if(tickEvent != null && tickEvent.shouldCommit()) {
+            tickEvent.tick = tickNumber;
+            tickEvent.simulatedMillis = (long) delta;
+            tickEvent.ballCount = balls.size();
+            tickEvent.commit();
         }
+        tickNumber++;
+    }
+    
+    /**
+     * Advances the deterministic simulation by as many whole ticks as fit in
+     * the elapsed time and then mirrors its state for rendering.
+     * 
+     * @param delta The Time difference in milliseconds since the last frame.
+     */
+    public void updateLockstep(double delta) {
+        //Pausing is local so time just doesn't accumulate.
+        if(currentState != State.PAUSED) {
+            lockstepAccumulator += delta;
+        }
+        while(lockstepAccumulator >= LockstepSimulation.TICK_MILLIS) {
+            lockstepAccumulator -= LockstepSimulation.TICK_MILLIS;
+            FlightEvents.Tick tickEvent = null;
+            if(FlightEvents.TICK_TYPE.isEnabled()) {
+                tickEvent = new FlightEvents.Tick();
+                tickEvent.begin();
+            }
+            lockstep.step(getLockstepInputs());
+            if(tickEvent != null && tickEvent.shouldCommit()) {
+                tickEvent.tick = lockstep.getTick();
+                tickEvent.simulatedMillis = LockstepSimulation.TICK_MILLIS;
+                tickEvent.ballCount = lockstep.getBallCount();
+                tickEvent.lockstep = true;
+                tickEvent.commit();
+            }
+        }
+        lockstep.copyTo(paddle1, paddle2, balls, ballPool);
+        if(lockstep.isLost() && currentState == State.PLAYING) {
+            onLost(Side.RIGHT);
+        }
+    }
+    
+    /**
+     * Samples the local controls as lockstep input bits.
+     * 
+     * @return The INPUT_ bits for this tick.
+     */
+    public int getLockstepInputs() {
+        int inputs = 0;
+        int dir1 = paddle1AI != null 
+                ? paddle1AI.decide(paddle1, balls, LockstepSimulation.TICK_MILLIS) 
+                : (gl.isKeyDown(GLFW_KEY_W) ? 1 : 0) - (gl.isKeyDown(GLFW_KEY_S) ? 1 : 0);
+        int dir2 = paddle2AI != null 
+                ? paddle2AI.decide(paddle2, balls, LockstepSimulation.TICK_MILLIS) 
+                : (gl.isKeyDown(GLFW_KEY_UP) ? 1 : 0) - (gl.isKeyDown(GLFW_KEY_DOWN) ? 1 : 0);
+        if(dir1 > 0) {
+            inputs |= LockstepSimulation.INPUT_LEFT_UP;
+        } else if(dir1 < 0) {
+            inputs |= LockstepSimulation.INPUT_LEFT_DOWN;
+        }
+        if(dir2 > 0) {
+            inputs |= LockstepSimulation.INPUT_RIGHT_UP;
+        } else if(dir2 < 0) {
+            inputs |= LockstepSimulation.INPUT_RIGHT_DOWN;
+        }
+        return inputs;
     }
     
     /**
      * Clears the screen and renders all scene objects.
      */
     public void render() {
-        glClear(GL_COLOR_BUFFER_BIT);
-
-        glUseProgram(program);
-        glBindVertexArray(vao);
+        glPhase = "render";
+        recordScene();
+        gl.glClear(GL_COLOR_BUFFER_BIT);
         
-        glUniformMatrix4fv(projectionLoc, false, projectionMatrix);
-        
-        drawHandleLinesAt(boundsHandle, 0, 0);
-        drawHandleAt(paddleHandle, paddle1.getX(), paddle1.y);
-        drawHandleAt(paddleHandle, paddle2.getX(), paddle2.y);
-        balls.stream().forEach((b) -> {
-            drawHandleAt(ballHandle, b.x, b.y);
-        });
-        if(addBall != null) {
-            drawHandleAt(ballHandle, addBall.x, addBall.y);
-            drawHandleLinesAt(lineHandle, 0, 0);
+        int binds = 0, nCommands = commands.size();
+        if(levelCommands != null) {
+            binds += levelCommands.execute(gl, projectionLoc, projectionMatrix, modelViewLoc, modelViewMatrix);
+            nCommands += levelCommands.size();
+        }
+        commands.sort();
+        binds += commands.execute(gl, projectionLoc, projectionMatrix, modelViewLoc, modelViewMatrix);
+        if(particles != null && particles.size() > 0) {
+            renderParticles();
         }
+        renderBinds.set(binds);
+        renderCommands.set(nCommands);
         
-        glBindVertexArray(0);
-        glUseProgram(0);
+        gl.glBindVertexArray(0);
+        gl.glUseProgram(0);
         
-        checkError();
+        //Polling every frame stalls the pipeline so only do so if asked.
+        switch(ERROR_MODE) {
+            case POLL: checkError(); break;
+            case DEBUG: checkDebugError(); break;
+            case RELEASE: break;
+        }
+    }
+    
+    /**
+     * Records the draw commands for every scene object into commands.
+     */
+    private void recordScene() {
+        commands.clear();
+        commands.add(programId, vaoId, RenderCommandBuffer.LAYER_BACKGROUND, GL_LINE_LOOP, boundsHandle, 0, 0);
+        commands.add(programId, vaoId, RenderCommandBuffer.LAYER_PADDLES, GL_TRIANGLE_FAN, paddleHandle, paddle1.getX(), paddle1.y);
+        commands.add(programId, vaoId, RenderCommandBuffer.LAYER_PADDLES, GL_TRIANGLE_FAN, paddleHandle, paddle2.getX(), paddle2.y);
+        if(balls.size() >= PARALLEL_RECORD_THRESHOLD) {
+            ballsCulled.set(recordBallsParallel());
+        } else {
+            ballsCulled.set(recordBalls(commands, 0, balls.size()));
+        }
+        if(addBall != null) {
+            commands.add(programId, vaoId, RenderCommandBuffer.LAYER_OVERLAY, GL_TRIANGLE_FAN, ballHandle, addBall.x, addBall.y);
+            commands.add(programId, vaoId, RenderCommandBuffer.LAYER_GUIDES, GL_LINE_LOOP, lineHandle, 0, 0);
+        }
+    }
+    
+    /**
+     * Applies the quality governor's current level.
+     */
+    private void applyQuality() {
+        qualityLevel.set(qualityGovernor.getLevel());
+        if(ballLodHandles[0] != null) {
+            applyBallLod();
+        }
+        if(particles != null) {
+            particles.setDensity(qualityGovernor.getEffectDensity());
+        }
+    }
+    
+    /**
+     * Draws balls with the level of detail chosen for the framebuffer, or 
+     * the quality governor's minimum if coarser.
+     */
+    private void applyBallLod() {
+        int lod = selectedBallLod;
+        if(qualityGovernor != null) {
+            lod = Math.max(lod, qualityGovernor.getBallLod());
+        }
+        ballHandle = ballLodHandles[lod];
+        ballLod.set(ballHandle.count);
+    }
+    
+    /**
+     * Streams the particles into their buffer, orphaning the last frame's, 
+     * and draws them as points in a single call.
+     */
+    private void renderParticles() {
+        particles.fill(particleVertices);
+        gl.glUseProgram(program);
+        gl.glUniformMatrix4fv(projectionLoc, false, projectionMatrix);
+        setTranslation(modelViewMatrix, 0, 0);
+        gl.glUniformMatrix4fv(modelViewLoc, false, modelViewMatrix);
+        gl.glBindVertexArray(particleVao);
+        gl.glBindBuffer(GL_ARRAY_BUFFER, particleVbo);
+        gl.glBufferData(GL_ARRAY_BUFFER, particleVertices, GL_STREAM_DRAW);
+        gl.glBindBuffer(GL_ARRAY_BUFFER, 0);
+        gl.glDrawArrays(GL_POINTS, 0, particles.size());
+    }
+    
+    /**
+     * Records the balls into a buffer per chunk on the common pool then 
+     * merges the buffers into commands. The streams allocate so this is only 
+     * worth it for very many balls.
+     * 
+     * @return The number of balls culled.
+     */
+    private int recordBallsParallel() {
+        int nBalls = balls.size();
+        int nChunks = (nBalls + RECORD_CHUNK_SIZE - 1) / RECORD_CHUNK_SIZE;
+        if(chunkCommands.length < nChunks) {
+            chunkCommands = Arrays.copyOf(chunkCommands, nChunks);
+            chunkCulled = new int[nChunks];
+            for(int c = 0; c < nChunks; c++) {
+                if(chunkCommands[c] == null) {
+                    chunkCommands[c] = new RenderCommandBuffer(RECORD_CHUNK_SIZE, renderNames);
+                }
+            }
+        }
+        IntStream.range(0, nChunks).parallel().forEach((c) -> {
+            int from = c * RECORD_CHUNK_SIZE;
+            chunkCommands[c].clear();
+            chunkCulled[c] = recordBalls(chunkCommands[c], from, Math.min(nBalls, from + RECORD_CHUNK_SIZE));
+        });
+        int culled = 0;
+        for(int c = 0; c < nChunks; c++) {
+            commands.addAll(chunkCommands[c]);
+            culled += chunkCulled[c];
+        }
+        return culled;
+    }
+    
+    /**
+     * Records the balls in the range [from, to) which can be seen. Distinct 
+     * ranges may be recorded concurrently into distinct buffers.
+     * 
+     * @param dest The buffer to record into.
+     * @param from The index of the first ball.
+     * @param to The index after the last ball.
+     * @return The number of balls culled.
+     */
+    private int recordBalls(RenderCommandBuffer dest, int from, int to) {
+        int culled = 0;
+        for(int i = from; i < to; i++) {
+            Ball b = balls.get(i);
+            if(isBallVisible(projection, b.x, b.y)) {
+                dest.add(programId, vaoId, RenderCommandBuffer.LAYER_BALLS, GL_TRIANGLE_FAN, ballHandle, b.x, b.y);
+            } else {
+                culled++;
+            }
+        }
+        return culled;
     }
     
     /**
@@ -482,17 +1558,50 @@ public class Pong {
      */
     public void deinit() {
         deinitGL();
-        glfwDestroyWindow(window);   
-        glfwTerminate();
+        frameArena.close();
+        glArena.close();
+        if(window != 0) {
+            glfwDestroyWindow(window);   
+            glfwTerminate();
+        }
+        if(hitchDetector != null) {
+            hitchDetector.close();
+        }
+        if(PRINT_METRICS && !warmup) {
+            metrics.print(System.out);
+        }
+        if(startupTimer != null) {
+            startupTimer.print(System.out);
+        }
     }
     
     /**
      * Releases in use OpenGL resources.
      */
     public void deinitGL() {
-        glDeleteVertexArrays(vao);
-        glDeleteBuffers(vbo);
-        glDeleteProgram(program);
+        glPhase = "deinitGL";
+        gl.glDeleteVertexArrays(vao);
+        gl.glDeleteBuffers(vbo);
+        for(int i = 0; i < levelVaos.length; i++) {
+            gl.glDeleteVertexArrays(levelVaos[i]);
+        }
+        if(levelVbo != 0) {
+            gl.glDeleteBuffers(levelVbo);
+        }
+        if(particles != null) {
+            gl.glDeleteVertexArrays(particleVao);
+            gl.glDeleteBuffers(particleVbo);
+            glArena.free(particleVertices);
+        }
+        gl.glDeleteProgram(program);
+        renderNames.clear();
+        if(offscreenFramebuffer != 0) {
+            gl.glBindFramebuffer(GL_FRAMEBUFFER, 0);
+            gl.glDeleteFramebuffers(offscreenFramebuffer);
+            gl.glDeleteRenderbuffers(offscreenColour);
+        }
+        glArena.free(modelViewMatrix);
+        glArena.free(projectionMatrix);
     }
     
     /**
@@ -505,8 +1614,8 @@ public class Pong {
      */
     public void drawHandleLinesAt(RenderHandle handle, float x, float y) {
         setTranslation(modelViewMatrix, x, y);
-        glUniformMatrix4fv(modelViewLoc, false, modelViewMatrix);
-        glDrawArrays(GL_LINE_LOOP, handle.first, handle.count);
+        gl.glUniformMatrix4fv(modelViewLoc, false, modelViewMatrix);
+        gl.glDrawArrays(GL_LINE_LOOP, handle.first, handle.count);
     }
     
     /**
@@ -519,8 +1628,8 @@ public class Pong {
      */
     public void drawHandleAt(RenderHandle handle, float x, float y) {
         setTranslation(modelViewMatrix, x, y);
-        glUniformMatrix4fv(modelViewLoc, false, modelViewMatrix);
-        glDrawArrays(GL_TRIANGLE_FAN, handle.first, handle.count);
+        gl.glUniformMatrix4fv(modelViewLoc, false, modelViewMatrix);
+        gl.glDrawArrays(GL_TRIANGLE_FAN, handle.first, handle.count);
     }
     
     /**
@@ -534,17 +1643,37 @@ public class Pong {
      * @param y1 The final y coordinate.
      */
     public void setLineFromTo(RenderHandle handle, float x0, float y0, float x1, float y1) {
-        if(replaceBuffer == null) {
-            replaceBuffer = BufferUtils.createFloatBuffer(4 * 5);
-        }
-        replaceBuffer.put(new float[]{
-            x0, y0, LINE_COLOUR.red, LINE_COLOUR.green, LINE_COLOUR.blue,
-            x1, y1, LINE_COLOUR.red, LINE_COLOUR.green, LINE_COLOUR.blue
-        });
+        ByteBuffer replaceBuffer = frameArena.malloc(2 * VERTEX_SIZE);
+        putVertex(replaceBuffer, x0, y0, LINE_COLOUR);
+        putVertex(replaceBuffer, x1, y1, LINE_COLOUR);
         replaceBuffer.flip();
-        glBindBuffer(GL_ARRAY_BUFFER, vbo);
-        glBufferSubData(GL_ARRAY_BUFFER, handle.first * 5 * 4, replaceBuffer);
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        gl.glBindBuffer(GL_ARRAY_BUFFER, vbo);
+        gl.glBufferSubData(GL_ARRAY_BUFFER, handle.first * VERTEX_SIZE, replaceBuffer);
+        gl.glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+    
+    /**
+     * Puts a vertex in the layout of the VBO into the specified buffer.
+     * 
+     * @param dest The buffer to put the vertex in.
+     * @param x The x coordinate.
+     * @param y The y coordinate.
+     * @param colour The colour.
+     */
+    public static void putVertex(ByteBuffer dest, float x, float y, Colour colour) {
+        dest.putShort(quantisePosition(x)).putShort(quantisePosition(y));
+        dest.put(colour.packed[0]).put(colour.packed[1]).put(colour.packed[2]).put(colour.packed[3]);
+    }
+    
+    /**
+     * Converts a coord to the normalised short it is held as in a vertex.
+     * 
+     * @param value The coord.
+     * @return The normalised short.
+     */
+    public static short quantisePosition(float value) {
+        float normalised = Math.max(-1, Math.min(1, value / POSITION_SCALE));
+        return (short) Math.round(normalised * Short.MAX_VALUE);
     }
     
     /**
@@ -565,6 +1694,17 @@ public class Pong {
         p.y = Math.max(0, Math.min(SCREEN_HEIGHT - PADDLE_HEIGHT, p.y));
     }
     
+    /**
+     * Updates the specified paddle from a controller's decision.
+     * 
+     * @param p The paddle to update.
+     * @param delta The delta time.
+     * @param direction 1 to move up, -1 to move down or 0 to stay.
+     */
+    public void updatePaddle(Paddle p, double delta, int direction) {
+        updatePaddle(p, delta, direction > 0, direction < 0);
+    }
+    
     /**
      * To be called when the mouse is pressed to create a new ball.
      * 
@@ -574,7 +1714,7 @@ public class Pong {
     public void onNewBall(double windowX, double windowY) {
         centreX = (float) windowToWorldCoordsX(framebuffer, projection, windowX);
         centreY = (float) windowToWorldCoordsY(framebuffer, projection, windowY);
-        addBall = new Ball(centreX, centreY, 0, 0);
+        addBall = ballPool.obtain(centreX, centreY, 0, 0);
     }
     
     /**
@@ -599,7 +1739,31 @@ public class Pong {
     public void onNewBallRelease(double windowX, double windowY) {
         addBall.vx = (centreX - addBall.x) * BALL_SPEED_SCALE;
         addBall.vy = (centreY - addBall.y) * BALL_SPEED_SCALE;
-        balls.add(addBall);
+        if(lockstep != null) {
+            //Converted once here, these are the values that would be exchanged.
+            lockstep.spawnBall(
+                FixedPoint.toFixed(addBall.x), FixedPoint.toFixed(addBall.y),
+                FixedPoint.toFixed(addBall.vx * LockstepSimulation.TICK_MILLIS), 
+                FixedPoint.toFixed(addBall.vy * LockstepSimulation.TICK_MILLIS)
+            );
+        } else {
+            balls.add(addBall);
+        }
+        if(FlightEvents.BALL_SPAWN_TYPE.isEnabled()) {
+            FlightEvents.BallSpawn e = new FlightEvents.BallSpawn();
+            if(e.shouldCommit()) {
+                e.x = addBall.x;
+                e.y = addBall.y;
+                e.vx = addBall.vx;
+                e.vy = addBall.vy;
+                e.ballCount = lockstep != null ? lockstep.getBallCount() : balls.size();
+                e.commit();
+            }
+        }
+        if(lockstep != null) {
+            //The simulation only took the values so the ball can be reused.
+            ballPool.free(addBall);
+        }
         addBall = null;
         onRestart();
     }
@@ -614,28 +1778,114 @@ public class Pong {
     public boolean updateBall(Ball b, double delta) {
         b.x += b.vx * delta;
         b.y += b.vy * delta;
-        if(b.x + BALL_RADIUS < 0) {
-            onLost(Side.RIGHT);
-            return false;
+        //Tiered balls are checked only once they could be near a paddle or wall.
+        //(NaN event times are always checked)
+        boolean checkX = !TIERED_UPDATE || !(simulatedMillis < b.xEventMillis);
+        boolean checkY = !TIERED_UPDATE || !(simulatedMillis < b.yEventMillis);
+        if(checkX) {
+            if(b.x + BALL_RADIUS < 0) {
+                onLost(Side.RIGHT);
+                return false;
 
+            }
+            if(b.x - BALL_RADIUS > SCREEN_WIDTH) {
+                onLost(Side.RIGHT);
+                return false;
+            }
         }
-        if(b.x - BALL_RADIUS > SCREEN_WIDTH) {
-            onLost(Side.RIGHT);
-            return false;
+        if(particles != null) {
+            particles.emitTrail(b.x, b.y, delta);
+        }
+        if(checkY) {
+            if(b.vy > 0 && b.y + BALL_RADIUS > SCREEN_HEIGHT) {
+                b.vy = -b.vy;
+                if(particles != null) {
+                    particles.emitSparks(b.x, SCREEN_HEIGHT, 0, -1);
+                }
+            } else if(b.vy < 0 && b.y - BALL_RADIUS < 0) {
+                b.vy = -b.vy;
+                if(particles != null) {
+                    particles.emitSparks(b.x, 0, 0, 1);
+                }
+            }
+            if(TIERED_UPDATE) {
+                b.yEventMillis = simulatedMillis + getMillisToWall(b);
+            }
+        }
+        if(checkX) {
+            if(paddleIntersectingBall(paddle1, b)) {
+                b.vx = -b.vx;
+                if(particles != null) {
+                    particles.emitSparks(PADDLE_WIDTH, b.y, 1, 0);
+                }
+            } else if(paddleIntersectingBall(paddle2, b)) {
+                b.vx = -b.vx;
+                if(particles != null) {
+                    particles.emitSparks(SCREEN_WIDTH - PADDLE_WIDTH, b.y, -1, 0);
+                }
+            }
+            if(TIERED_UPDATE) {
+                b.xEventMillis = simulatedMillis + getMillisToPaddleColumn(b);
+            }
         }
-        if(b.vy > 0 && b.y + BALL_RADIUS > SCREEN_HEIGHT) {
-            b.vy = -b.vy;
-        } else if(b.vy < 0 && b.y - BALL_RADIUS < 0) {
-            b.vy = -b.vy;
+        if(level != null) {
+            levelContacts.add(level.collide(b));
         }
-        if(paddleIntersectingBall(paddle1, b)) {
-            b.vx = -b.vx;
-        } else if(paddleIntersectingBall(paddle2, b)) {
-            b.vx = -b.vx;
+        if(!checkX || !checkY) {
+            tieredChecksSkipped.increment();
         }
         return true;
     }
     
+    /**
+     * Utility method to find how long a ball certainly takes to come within
+     * reach of the paddle it is heading for. Before then neither paddle can
+     * hit it and it can't leave the court.
+     * 
+     * @param b The ball.
+     * @return The time in milliseconds, at most TIERED_MAX_SKIP_MILLIS. 0 if
+     * it might already be in reach.
+     */
+    public static double getMillisToPaddleColumn(Ball b) {
+        float distance;
+        if(b.vx < 0) {
+            distance = b.x - (PADDLE_WIDTH + BALL_RADIUS);
+        } else if(b.vx > 0) {
+            distance = (SCREEN_WIDTH - PADDLE_WIDTH - BALL_RADIUS) - b.x;
+        } else {
+            return TIERED_MAX_SKIP_MILLIS;
+        }
+        return getMillisToTravel(distance, b.vx);
+    }
+    
+    /**
+     * Utility method to find how long a ball certainly takes to reach the 
+     * wall it is heading for.
+     * 
+     * @param b The ball.
+     * @return The time in milliseconds, at most TIERED_MAX_SKIP_MILLIS. 0 if
+     * it might already have reached it.
+     */
+    public static double getMillisToWall(Ball b) {
+        float distance;
+        if(b.vy < 0) {
+            distance = b.y - BALL_RADIUS;
+        } else if(b.vy > 0) {
+            distance = (SCREEN_HEIGHT - BALL_RADIUS) - b.y;
+        } else {
+            return TIERED_MAX_SKIP_MILLIS;
+        }
+        return getMillisToTravel(distance, b.vy);
+    }
+    
+    private static double getMillisToTravel(float distance, float velocity) {
+        double safeDistance = distance - TIERED_MARGIN;
+        if(safeDistance <= 0) {
+            return 0;
+        }
+        return Math.min(TIERED_MAX_SKIP_MILLIS, safeDistance / Math.abs(velocity));
+    }
+    
     /**
      * To be called when a play/pause toggle is requested.
      */
@@ -651,24 +1901,21 @@ public class Pong {
      * To be called when the game transitions from paused to playing.
      */
     public void onPlay() {
-        currentState = State.PLAYING;
-        setBackColour();
+        transition(State.PLAYING);
     }
     
     /**
      * To be called when the game transitions from playing to paused.
      */
     public void onPause() {
-        currentState = State.PAUSED;
-        setBackColour();
+        transition(State.PAUSED);
     }
     
     /**
      * To be called when the game transitions from lost to playing.
      */
     public void onRestart() {
-        currentState = State.PLAYING;
-        setBackColour();
+        transition(State.PLAYING);
     }
     
     /**
@@ -677,8 +1924,27 @@ public class Pong {
      * @param side The side on which the ball was lost. (unused)
      */
     public void onLost(Side side) {
-        currentState = State.LOST;
-        balls.clear();
+        transition(State.LOST);
+        ballPool.freeAll(balls);
+    }
+    
+    /**
+     * Moves the game into the specified state.
+     * 
+     * @param state The new state.
+     */
+    public void transition(State state) {
+        if(FlightEvents.STATE_CHANGE_TYPE.isEnabled()) {
+            FlightEvents.StateChange e = new FlightEvents.StateChange();
+            if(e.shouldCommit()) {
+                e.from = currentState.name();
+                e.to = state.name();
+                e.ballCount = balls.size();
+                e.commit();
+            }
+        }
+        dirty = true;
+        currentState = state;
         setBackColour();
     }
     
@@ -686,7 +1952,7 @@ public class Pong {
      * Sets the appropriate back colour based on the game's current state.
      */
     public void setBackColour() {
-        glClearColor(currentState.backColour.red, currentState.backColour.green, currentState.backColour.blue, 0);
+        gl.glClearColor(currentState.backColour.red, currentState.backColour.green, currentState.backColour.blue, 0);
     }
     
     /**
@@ -696,7 +1962,18 @@ public class Pong {
      * @param framebufferWidth The width of the new framebuffer
      * @param framebufferHeight  The height of the new framebuffer
      */
+    @Override
     public void onResize(int framebufferWidth, int framebufferHeight) {
+        glPhase = "onResize";
+        if(FlightEvents.RESIZE_TYPE.isEnabled()) {
+            FlightEvents.Resize e = new FlightEvents.Resize();
+            if(e.shouldCommit()) {
+                e.width = framebufferWidth;
+                e.height = framebufferHeight;
+                e.commit();
+            }
+        }
+        dirty = true;
         framebuffer.width = framebufferWidth;
         framebuffer.height = framebufferHeight;
         float aspectRatio = (float) framebufferHeight / framebufferWidth;
@@ -716,7 +1993,11 @@ public class Pong {
             projection.right = newScreenWidth + projection.left;
         }
         setOrtho2D(projectionMatrix, projection);
-        glViewport(0, 0, framebufferWidth, framebufferHeight);
+        if(ballLodHandles[0] != null) {
+            selectedBallLod = selectBallLod(framebuffer, projection);
+            applyBallLod();
+        }
+        gl.glViewport(0, 0, framebufferWidth, framebufferHeight);
     }
     
     /**
@@ -727,20 +2008,71 @@ public class Pong {
      * @return 
      */
     public static boolean paddleIntersectingBall(Paddle p, Ball b) {
-        if((p.side == Side.LEFT && b.vx > 0) || (p.side == Side.RIGHT && b.vx < 0)) {
+        return paddleIntersectingBall(p.side, p.y, b.x, b.y, b.vx);
+    }
+
+    /**
+     * Utility method to check if a ball intersects a paddle's leading edge.
+     * Operates on the raw values so it can be used on state which isn't held
+     * in Paddle and Ball objects.
+     *
+     * @param side The side of the paddle.
+     * @param paddleY The y coord of the bottom of the paddle.
+     * @param x The x coord of the ball.
+     * @param y The y coord of the ball.
+     * @param vx The x velocity of the ball.
+     * @return true if the ball is intersecting the paddle.
+     */
+    public static boolean paddleIntersectingBall(Side side, float paddleY, float x, float y, float vx) {
+        if((side == Side.LEFT && vx > 0) || (side == Side.RIGHT && vx < 0)) {
             return false;
         }
-        float edgeX = p.side == Side.LEFT ? PADDLE_WIDTH : SCREEN_WIDTH - PADDLE_WIDTH;
-        if(b.y >= p.y && b.y <= p.y + PADDLE_HEIGHT) {
-            return Math.abs(b.x - edgeX) <= BALL_RADIUS;
-        } else if(Math.pow(b.y - p.y, 2) + Math.pow(b.x - edgeX, 2) <= Math.pow(BALL_RADIUS, 2)) {
+        float edgeX = side == Side.LEFT ? PADDLE_WIDTH : SCREEN_WIDTH - PADDLE_WIDTH;
+        if(y >= paddleY && y <= paddleY + PADDLE_HEIGHT) {
+            return Math.abs(x - edgeX) <= BALL_RADIUS;
+        } else if(Math.pow(y - paddleY, 2) + Math.pow(x - edgeX, 2) <= Math.pow(BALL_RADIUS, 2)) {
             return true;
-        } else if(Math.pow(b.y - (p.y + PADDLE_HEIGHT), 2) + Math.pow(b.x - edgeX, 2) <= Math.pow(BALL_RADIUS, 2)) {
+        } else if(Math.pow(y - (paddleY + PADDLE_HEIGHT), 2) + Math.pow(x - edgeX, 2) <= Math.pow(BALL_RADIUS, 2)) {
             return true;
         }
         return false;
     }
     
+    /**
+     * @return The counters describing this game's behaviour.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * @return The current game state.
+     */
+    public State getState() {
+        return currentState;
+    }
+    
+    /**
+     * @return The left paddle.
+     */
+    public Paddle getPaddle1() {
+        return paddle1;
+    }
+    
+    /**
+     * @return The right paddle.
+     */
+    public Paddle getPaddle2() {
+        return paddle2;
+    }
+    
+    /**
+     * @return The balls in play. Mustn't be modified.
+     */
+    public List<Ball> getBalls() {
+        return balls;
+    }
+    
     /**
      * Returns the current system time in milliseconds.
      * 
@@ -754,8 +2086,8 @@ public class Pong {
      * Utility method which checks for an OpenGL error, throwing an exception if
      * one is found.
      */
-    public static void checkError() {
-        int err = glGetError();
+    public void checkError() {
+        int err = gl.glGetError();
         switch(err) {
             case GL_NO_ERROR: return;
             case GL_INVALID_OPERATION: throw new RuntimeException("Invalid Operation");
@@ -766,18 +2098,46 @@ public class Pong {
         }
     }
     
+    /**
+     * @param source A GL_DEBUG_SOURCE_ value.
+     * @return A short name for it.
+     */
+    public static String getDebugSourceName(int source) {
+        switch(source) {
+            case GL_DEBUG_SOURCE_API: return "API";
+            case GL_DEBUG_SOURCE_WINDOW_SYSTEM: return "Window System";
+            case GL_DEBUG_SOURCE_SHADER_COMPILER: return "Shader Compiler";
+            case GL_DEBUG_SOURCE_THIRD_PARTY: return "Third Party";
+            case GL_DEBUG_SOURCE_APPLICATION: return "Application";
+            default: return "Other";
+        }
+    }
+    
+    /**
+     * @param type A GL_DEBUG_TYPE_ value.
+     * @return A short name for it.
+     */
+    public static String getDebugTypeName(int type) {
+        switch(type) {
+            case GL_DEBUG_TYPE_ERROR: return "Error";
+            case GL_DEBUG_TYPE_DEPRECATED_BEHAVIOR: return "Deprecated Behaviour";
+            case GL_DEBUG_TYPE_UNDEFINED_BEHAVIOR: return "Undefined Behaviour";
+            case GL_DEBUG_TYPE_PORTABILITY: return "Portability";
+            case GL_DEBUG_TYPE_PERFORMANCE: return "Performance";
+            default: return "Other";
+        }
+    }
+    
     /**
      * Sets the contents of the specified buffer to the identity matrix.
      * 
      * @param dest The buffer to set
      */
     public static void setIdentity(FloatBuffer dest) {
-        dest.put(new float[] {
-            1, 0, 0, 0,
-            0, 1, 0, 0,
-            0, 0, 1, 0,
-            0, 0, 0, 1
-        });
+        dest.put(1).put(0).put(0).put(0);
+        dest.put(0).put(1).put(0).put(0);
+        dest.put(0).put(0).put(1).put(0);
+        dest.put(0).put(0).put(0).put(1);
         dest.flip();
     }
     
@@ -789,12 +2149,10 @@ public class Pong {
      * @param dy The y translation.
      */
     public static void setTranslation(FloatBuffer dest, float dx, float dy) {
-        dest.put(new float[] {
-            1,  0,  0, 0,
-            0,  1,  0, 0,
-            0,  0,  1, 0,
-            dx, dy, 0, 1
-        });
+        dest.put(1).put(0).put(0).put(0);
+        dest.put(0).put(1).put(0).put(0);
+        dest.put(0).put(0).put(1).put(0);
+        dest.put(dx).put(dy).put(0).put(1);
         dest.flip();
     }
     
@@ -807,12 +2165,10 @@ public class Pong {
     public static void setOrtho2D(FloatBuffer dest, Projection p) {
         float f1 = p.right - p.left;
         float f2 = p.top - p.bottom;
-        dest.put(new float[]{
-            2f / f1,                  0,                        0,  0,
-            0,                        2f / f2,                  0,  0,
-            0,                        0,                        -1, 0,
-            -(p.right + p.left) / f1, -(p.top + p.bottom) / f2, 0,  1
-        });
+        dest.put(2f / f1).put(0).put(0).put(0);
+        dest.put(0).put(2f / f2).put(0).put(0);
+        dest.put(0).put(0).put(-1).put(0);
+        dest.put(-(p.right + p.left) / f1).put(-(p.top + p.bottom) / f2).put(0).put(1);
         dest.flip();
     }
     
@@ -840,6 +2196,43 @@ public class Pong {
         return ((windowY / framebuffer.height) * (proj.top - proj.bottom)) + proj.bottom;
     }
     
+    /**
+     * Utility method to check if any of a ball can be seen through a projection.
+     * 
+     * @param proj The in use projection.
+     * @param x The ball's x coord.
+     * @param y The ball's y coord.
+     * @return Does the ball's bounding square overlap the projection.
+     */
+    public static boolean isBallVisible(Projection proj, float x, float y) {
+        return x + BALL_RADIUS >= proj.left && x - BALL_RADIUS <= proj.right
+                && y + BALL_RADIUS >= proj.bottom && y - BALL_RADIUS <= proj.top;
+    }
+    
+    /**
+     * Utility method to choose the level of detail to draw balls at. A fan of
+     * n vertices falls short of the circle by at most r(1 - cos(pi / n)) so 
+     * the coarsest fan for which this is within BALL_LOD_MAX_ERROR_PIXELS at
+     * the ball's size in pixels is chosen.
+     * 
+     * @param framebuffer The window's framebuffer.
+     * @param proj The in use projection.
+     * @return The index into BALL_LOD_VERTICES.
+     */
+    public static int selectBallLod(Framebuffer framebuffer, Projection proj) {
+        double radiusPixels = BALL_RADIUS * Math.max(
+            framebuffer.width / (proj.right - proj.left),
+            framebuffer.height / (proj.top - proj.bottom)
+        );
+        for(int lod = BALL_LOD_VERTICES.length - 1; lod > 0; lod--) {
+            double error = radiusPixels * (1 - Math.cos(Math.PI / BALL_LOD_VERTICES[lod]));
+            if(error <= BALL_LOD_MAX_ERROR_PIXELS) {
+                return lod;
+            }
+        }
+        return 0;
+    }
+    
     public static class CursorPos {
         double x, y;
     }
@@ -875,11 +2268,19 @@ public class Pong {
      */
     public static class Colour {
         final float red, green, blue;
+        /**
+         * The colour as the normalised RGBA bytes held in a vertex.
+         */
+        final byte[] packed;
 
         public Colour(float red, float green, float blue) {
             this.red = red;
             this.green = green;
             this.blue = blue;
+            this.packed = new byte[] {
+                (byte) Math.round(red * 255), (byte) Math.round(green * 255), 
+                (byte) Math.round(blue * 255), (byte) 255
+            };
         }
     }
     
@@ -945,6 +2346,26 @@ public class Pong {
          * The current x, y velocity of the ball.
          */
         float vx, vy;
+        /**
+         * The velocity at which the cached paddle intercepts were solved. The
+         * intercepts are only valid whilst the velocity is unchanged.
+         */
+        float interceptVx = Float.NaN, interceptVy = Float.NaN;
+        /**
+         * The cached y coords at which the ball will reach the left and right
+         * paddles' planes. NaN if not yet solved.
+         */
+        float leftInterceptY = Float.NaN, rightInterceptY = Float.NaN;
+        /**
+         * The simulated times before which the ball can't reach a paddle's
+         * column or leave the court, and can't reach a wall. NaN if not yet 
+         * known. Only used by tiered updates.
+         */
+        double xEventMillis = Double.NaN, yEventMillis = Double.NaN;
+        /**
+         * Is this ball sitting in a BallPool's free list.
+         */
+        boolean pooled = false;
 
         public Ball(float x, float y, float vx, float vy) {
             this.x = x;
@@ -961,11 +2382,53 @@ public class Pong {
         LEFT, RIGHT;
     }
     
+    /**
+     * An enum encompassing the ways GL errors are checked for.
+     */
+    public static enum ErrorMode {
+        /**
+         * Only checked once initialization is complete.
+         */
+        RELEASE,
+        /**
+         * glGetError is called at the end of every frame.
+         */
+        POLL,
+        /**
+         * Errors are reported through a debug output callback as they happen.
+         */
+        DEBUG;
+    }
+    
     /**
      * @param args the command line arguments
      * @throws java.io.IOException
      */
     public static void main(String[] args) throws IOException {
+        extractNatives();
+        if(WARMUP_SECONDS > 0) {
+            long nanos = Warmup.run(WARMUP_SECONDS);
+            System.out.printf("warm-up: %.0f virtual seconds in %.1fms%n", WARMUP_SECONDS, nanos / 1e6);
+        }
+        Pong p = new Pong();
+        p.init();
+        p.loop();
+        p.deinit();
+    }
+    
+    /**
+     * Copies the bundled natives to the temp directory and points LWJGL at 
+     * them.
+     * 
+     * @throws java.io.IOException 
+     */
+    public static void extractNatives() throws IOException {
+        //The natives only work with the Java half of the same release.
+        if(!Version.getVersion().startsWith(LWJGL_VERSION + " ")) {
+            throw new IllegalStateException(
+                "Built for LWJGL " + LWJGL_VERSION + " but running with " + Version.getVersion()
+            );
+        }
         String[] natives = new String[] {
             "glfw.dll",
             "glfw32.dll",
@@ -996,10 +2459,6 @@ public class Pong {
             }
         }
         System.setProperty("org.lwjgl.librarypath", tmpDir.getAbsolutePath());
-        Pong p = new Pong();
-        p.init();
-        p.loop();
-        p.deinit();
     }
     
 }
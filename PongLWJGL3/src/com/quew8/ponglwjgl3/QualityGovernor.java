@@ -0,0 +1,142 @@
+package com.quew8.ponglwjgl3;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import static com.quew8.ponglwjgl3.Pong.*;
+
+/**
+ * Trades visual quality for frame time on machines which can't keep up.
+ * Watches a percentile of the frame times over a rolling window and when it
+ * exceeds the budget steps down a quality level, and when it has been well
+ * within the budget for several windows in a row steps back up.
+ *
+ * Each level lowers one knob a notch, in order: the ball mesh's level of
+ * detail, then the density of particle effects and then how often the purely
+ * cosmetic particle update runs. The first levels therefore cost the least
+ * to look at.
+ *
+ * Frame time here is the work of a frame, update and render, excluding the
+ * wait in swapBuffers for vertical sync which would otherwise fill any
+ * budget of a refresh.
+ *
+ * @author Quew8
+ */
+public class QualityGovernor {
+    /**
+     * The knobs at each level, highest quality first. The minimum ball level
+     * of detail, an index into BALL_LOD_VERTICES, the fraction of particles
+     * emitted and the number of frames per particle update.
+     */
+    private static final int MAX_BALL_LOD = BALL_LOD_VERTICES.length - 1;
+    private static final int[] LEVEL_BALL_LOD = {0, 1, MAX_BALL_LOD, MAX_BALL_LOD, MAX_BALL_LOD, MAX_BALL_LOD, MAX_BALL_LOD};
+    private static final float[] LEVEL_EFFECT_DENSITY = {1, 1, 1, 0.5f, 0.25f, 0.25f, 0.25f};
+    private static final int[] LEVEL_EFFECT_UPDATE_INTERVAL = {1, 1, 1, 1, 1, 2, 4};
+    /**
+     * The number of frames per window.
+     */
+    public static final int WINDOW_FRAMES = 60;
+    /**
+     * The percentile of a window compared to the budget.
+     */
+    private static final double PERCENTILE = 0.95;
+    /**
+     * A window is well within the budget below this fraction of it, and it
+     * takes this many such windows in a row to step up.
+     */
+    private static final double STEP_UP_FRACTION = 0.7;
+    private static final int STEP_UP_WINDOWS = 3;
+    private final long budgetNanos;
+    private final PrintStream log;
+    private final FrameWindow window = new FrameWindow(WINDOW_FRAMES);
+    private int level = 0;
+    private int windowsWithin = 0;
+
+    /**
+     * @param budgetMillis The frame time budget in milliseconds.
+     * @param log Where to log changes of level.
+     */
+    public QualityGovernor(double budgetMillis, PrintStream log) {
+        if(!(budgetMillis > 0)) {
+            throw new IllegalArgumentException("budget must be positive: " + budgetMillis);
+        }
+        this.budgetNanos = (long) (budgetMillis * 1e6);
+        this.log = log;
+    }
+
+    /**
+     * Records a frame's time and at the end of a window decides whether to
+     * change level. The window restarts after a change so that every
+     * decision is made on frames at the current level.
+     *
+     * @param frameNanos The frame's time in nanoseconds.
+     * @return true if the level changed.
+     */
+    public boolean onFrame(long frameNanos) {
+        if(!window.add(frameNanos)) {
+            return false;
+        }
+        long percentile = window.getPercentile(PERCENTILE);
+        if(percentile > budgetNanos) {
+            windowsWithin = 0;
+            if(level < getMaxLevel()) {
+                setLevel(level + 1, percentile);
+                return true;
+            }
+        } else if(percentile < budgetNanos * STEP_UP_FRACTION) {
+            windowsWithin++;
+            if(windowsWithin >= STEP_UP_WINDOWS && level > 0) {
+                windowsWithin = 0;
+                setLevel(level - 1, percentile);
+                return true;
+            }
+        } else {
+            windowsWithin = 0;
+        }
+        return false;
+    }
+
+    private void setLevel(int newLevel, long percentile) {
+        log.println(String.format(Locale.ROOT,
+            "quality: level %d -> %d (ball vertices %d, effect density %.2f, effect update every %d frames), "
+            + "frame p%d %.2fms, budget %.2fms",
+            level, newLevel, BALL_LOD_VERTICES[LEVEL_BALL_LOD[newLevel]], LEVEL_EFFECT_DENSITY[newLevel],
+            LEVEL_EFFECT_UPDATE_INTERVAL[newLevel], (int) (PERCENTILE * 100), percentile / 1e6, budgetNanos / 1e6
+        ));
+        level = newLevel;
+    }
+
+    /**
+     * @return The current level, 0 being full quality.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return The lowest quality level.
+     */
+    public static int getMaxLevel() {
+        return LEVEL_BALL_LOD.length - 1;
+    }
+
+    /**
+     * @return The minimum ball level of detail, an index into BALL_LOD_VERTICES.
+     */
+    public int getBallLod() {
+        return LEVEL_BALL_LOD[level];
+    }
+
+    /**
+     * @return The fraction of particles to emit.
+     */
+    public float getEffectDensity() {
+        return LEVEL_EFFECT_DENSITY[level];
+    }
+
+    /**
+     * @return The number of frames per particle update.
+     */
+    public int getEffectUpdateInterval() {
+        return LEVEL_EFFECT_UPDATE_INTERVAL[level];
+    }
+}
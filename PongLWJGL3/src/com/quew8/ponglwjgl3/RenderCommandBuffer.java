@@ -0,0 +1,285 @@
+package com.quew8.ponglwjgl3;
+
+import com.quew8.ponglwjgl3.Pong.RenderHandle;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * A frame's draw calls recorded as data rather than issued. Each command is a
+ * sort key packing the program, VAO, layer, primitive mode and the range of
+ * the vertex buffer to draw, plus the position to draw it at. Buffers can be
+ * filled on any thread, one per thread, then merged, sorted so that commands
+ * sharing GL state are adjacent and executed on the GL thread.
+ *
+ * Key layout from the most significant bit, 43 bits in all:
+ * program (4), VAO (12), layer (3), mode (4), first vertex (12), count (8).
+ * Sorting also packs the command's index into the low 20 bits so that equal
+ * keys keep the order they were recorded in.
+ *
+ * GL object names can be any int so the key holds ids instead, handed out
+ * densely by a Names shared by the buffers drawing the same objects. That
+ * allows MAX_PROGRAMS programs and MAX_VAOS VAOs however GL names them.
+ *
+ * @author Quew8
+ */
+public class RenderCommandBuffer {
+    /**
+     * Layers, drawn in this order where the program and VAO are the same.
+     */
+    public static final int LAYER_BACKGROUND = 0, LAYER_PADDLES = 1, LAYER_BALLS = 2, 
+            LAYER_OVERLAY = 3, LAYER_GUIDES = 4;
+    private static final int COUNT_BITS = 8, FIRST_BITS = 12, MODE_BITS = 4, LAYER_BITS = 3,
+            VAO_BITS = 12, PROGRAM_BITS = 4, INDEX_BITS = 20;
+    private static final int FIRST_SHIFT = COUNT_BITS, MODE_SHIFT = FIRST_SHIFT + FIRST_BITS,
+            LAYER_SHIFT = MODE_SHIFT + MODE_BITS, VAO_SHIFT = LAYER_SHIFT + LAYER_BITS,
+            PROGRAM_SHIFT = VAO_SHIFT + VAO_BITS;
+    /**
+     * The most commands a buffer can hold once merged.
+     */
+    public static final int MAX_COMMANDS = 1 << INDEX_BITS;
+    /**
+     * The most programs and VAOs that can be registered with one Names.
+     */
+    public static final int MAX_PROGRAMS = 1 << PROGRAM_BITS, MAX_VAOS = 1 << VAO_BITS;
+    /**
+     * The GL names of the ids in the keys.
+     */
+    private final Names names;
+    /**
+     * The commands. The first size are valid.
+     */
+    private long[] keys;
+    private float[] xs, ys;
+    private int size = 0;
+    /**
+     * The keys with indices packed in, sorted. Valid after sort().
+     */
+    private long[] sorted;
+    private boolean isSorted = false;
+
+    /**
+     * @param initialCapacity The number of commands to make room for.
+     * @param names The ids of the programs and VAOs drawn.
+     */
+    public RenderCommandBuffer(int initialCapacity, Names names) {
+        this.names = names;
+        initialCapacity = Math.max(1, initialCapacity);
+        this.keys = new long[initialCapacity];
+        this.xs = new float[initialCapacity];
+        this.ys = new float[initialCapacity];
+        this.sorted = new long[initialCapacity];
+    }
+
+    /**
+     * Records a draw.
+     *
+     * @param program The id of the program to draw with.
+     * @param vao The id of the VAO to draw from.
+     * @param layer The layer, one of the LAYER_ constants.
+     * @param mode The GL primitive mode.
+     * @param handle The vertices to draw.
+     * @param x The x translation.
+     * @param y The y translation.
+     */
+    public void add(int program, int vao, int layer, int mode, RenderHandle handle, float x, float y) {
+        add(encode(program, vao, layer, mode, handle.first, handle.count), x, y);
+    }
+
+    private void add(long key, float x, float y) {
+        if(size == keys.length) {
+            grow(size * 2);
+        }
+        keys[size] = key;
+        xs[size] = x;
+        ys[size] = y;
+        size++;
+        isSorted = false;
+    }
+
+    /**
+     * Appends every command in the other buffer to this one.
+     *
+     * @param other The buffer to append.
+     */
+    public void addAll(RenderCommandBuffer other) {
+        if(size + other.size > keys.length) {
+            grow(Math.max(size + other.size, size * 2));
+        }
+        System.arraycopy(other.keys, 0, keys, size, other.size);
+        System.arraycopy(other.xs, 0, xs, size, other.size);
+        System.arraycopy(other.ys, 0, ys, size, other.size);
+        size += other.size;
+        isSorted = false;
+    }
+
+    private void grow(int capacity) {
+        keys = Arrays.copyOf(keys, capacity);
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        sorted = new long[capacity];
+    }
+
+    /**
+     * Sorts the commands by key, keeping recording order for equal keys.
+     */
+    public void sort() {
+        if(size > MAX_COMMANDS) {
+            throw new RuntimeException("Too many render commands: " + size);
+        }
+        for(int i = 0; i < size; i++) {
+            sorted[i] = (keys[i] << INDEX_BITS) | i;
+        }
+        Arrays.sort(sorted, 0, size);
+        isSorted = true;
+    }
+
+    /**
+     * Issues the sorted commands, only binding a program or VAO when it
+     * differs from the last command's. Must be called on the GL thread.
+     *
+     * @param gl The backend to issue the calls through.
+     * @param projectionLoc The location of the projection uniform.
+     * @param projection The projection matrix, uploaded whenever a program is bound.
+     * @param modelViewLoc The location of the modelView uniform.
+     * @param modelView A buffer to build each command's modelView matrix in.
+     * @return The number of program and VAO binds made.
+     */
+    public int execute(Backend gl, int projectionLoc, FloatBuffer projection, 
+            int modelViewLoc, FloatBuffer modelView) {
+        if(!isSorted) {
+            sort();
+        }
+        int boundProgram = -1, boundVao = -1, binds = 0;
+        for(int i = 0; i < size; i++) {
+            long key = sorted[i] >>> INDEX_BITS;
+            int index = (int) (sorted[i] & (MAX_COMMANDS - 1));
+            int program = names.getProgram(field(key, PROGRAM_SHIFT, PROGRAM_BITS));
+            int vao = names.getVao(field(key, VAO_SHIFT, VAO_BITS));
+            if(program != boundProgram) {
+                gl.glUseProgram(program);
+                gl.glUniformMatrix4fv(projectionLoc, false, projection);
+                boundProgram = program;
+                binds++;
+            }
+            if(vao != boundVao) {
+                gl.glBindVertexArray(vao);
+                boundVao = vao;
+                binds++;
+            }
+            Pong.setTranslation(modelView, xs[index], ys[index]);
+            gl.glUniformMatrix4fv(modelViewLoc, false, modelView);
+            gl.glDrawArrays(
+                field(key, MODE_SHIFT, MODE_BITS),
+                field(key, FIRST_SHIFT, FIRST_BITS),
+                field(key, 0, COUNT_BITS)
+            );
+        }
+        return binds;
+    }
+
+    /**
+     * Forgets every command.
+     */
+    public void clear() {
+        size = 0;
+        isSorted = false;
+    }
+
+    /**
+     * @return The number of commands recorded.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Packs a command's state into a sort key.
+     *
+     * @param program The program's id.
+     * @param vao The VAO's id.
+     * @param layer The layer.
+     * @param mode The GL primitive mode.
+     * @param first The first vertex.
+     * @param count The number of vertices.
+     * @return The key.
+     */
+    public static long encode(int program, int vao, int layer, int mode, int first, int count) {
+        return pack(program, PROGRAM_SHIFT, PROGRAM_BITS, "program")
+                | pack(vao, VAO_SHIFT, VAO_BITS, "VAO")
+                | pack(layer, LAYER_SHIFT, LAYER_BITS, "layer")
+                | pack(mode, MODE_SHIFT, MODE_BITS, "mode")
+                | pack(first, FIRST_SHIFT, FIRST_BITS, "first vertex")
+                | pack(count, 0, COUNT_BITS, "vertex count");
+    }
+
+    private static long pack(int value, int shift, int bits, String name) {
+        if(value < 0 || value >= (1 << bits)) {
+            throw new IllegalArgumentException(name + " out of range for render key: " + value);
+        }
+        return ((long) value) << shift;
+    }
+
+    private static int field(long key, int shift, int bits) {
+        return (int) ((key >>> shift) & ((1 << bits) - 1));
+    }
+
+    /**
+     * Hands out the ids which stand for GL programs and VAOs in the keys, in
+     * order of registration.
+     */
+    public static class Names {
+        private int[] programs = new int[MAX_PROGRAMS], vaos = new int[16];
+        private int nPrograms = 0, nVaos = 0;
+
+        /**
+         * @param name The program's GL name.
+         * @return The program's id.
+         */
+        public int addProgram(int name) {
+            if(nPrograms == MAX_PROGRAMS) {
+                throw new IllegalStateException("Too many programs for render keys, at most " + MAX_PROGRAMS);
+            }
+            programs[nPrograms] = name;
+            return nPrograms++;
+        }
+
+        /**
+         * @param name The VAO's GL name.
+         * @return The VAO's id.
+         */
+        public int addVao(int name) {
+            if(nVaos == MAX_VAOS) {
+                throw new IllegalStateException("Too many VAOs for render keys, at most " + MAX_VAOS);
+            }
+            if(nVaos == vaos.length) {
+                vaos = Arrays.copyOf(vaos, Math.min(MAX_VAOS, nVaos * 2));
+            }
+            vaos[nVaos] = name;
+            return nVaos++;
+        }
+
+        /**
+         * @param id The program's id.
+         * @return The program's GL name.
+         */
+        public int getProgram(int id) {
+            return programs[id];
+        }
+
+        /**
+         * @param id The VAO's id.
+         * @return The VAO's GL name.
+         */
+        public int getVao(int id) {
+            return vaos[id];
+        }
+
+        /**
+         * Forgets every program and VAO, once they are deleted.
+         */
+        public void clear() {
+            nPrograms = 0;
+            nVaos = 0;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.quew8.ponglwjgl3;
+
+import com.quew8.ponglwjgl3.SnapshotCodec.History;
+import com.quew8.ponglwjgl3.SnapshotCodec.Snapshot;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * A client of a ReplicationServer. Receives and decodes snapshots,
+ * acknowledging each one so that the server can delta encode against it, and
+ * if a player sends its inputs along with the acknowledgement.
+ *
+ * @author Quew8
+ */
+public class ReplicationClient {
+    /**
+     * The channel connected to the server.
+     */
+    private final DatagramChannel channel;
+    /**
+     * One of ReplicationServer's ROLE_ constants.
+     */
+    private final byte role;
+    /**
+     * Recently received snapshots.
+     */
+    private final History history = new History(ReplicationServer.HISTORY_LENGTH);
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(ReplicationServer.MAX_PACKET_SIZE);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(64);
+    /**
+     * The newest snapshot received, null if none yet.
+     */
+    private Snapshot latest = null;
+    /**
+     * The INPUT_ bits to send.
+     */
+    private int inputs = 0;
+    /**
+     * Totals for reporting.
+     */
+    private long bytesReceived = 0, snapshotsReceived = 0, snapshotsDropped = 0;
+
+    /**
+     * Connects a new client to the specified server and registers with it.
+     *
+     * @param server The address of the server.
+     * @param role One of ReplicationServer's ROLE_ constants.
+     * @throws IOException If the channel can't be opened.
+     */
+    public ReplicationClient(InetSocketAddress server, byte role) throws IOException {
+        this.role = role;
+        this.channel = DatagramChannel.open();
+        channel.connect(server);
+        channel.configureBlocking(false);
+        send();
+    }
+
+    /**
+     * Receives and decodes every pending snapshot, acknowledging the newest.
+     *
+     * @return The number of snapshots decoded.
+     * @throws IOException If reading or writing fails.
+     */
+    public int poll() throws IOException {
+        int decoded = 0;
+        while(channel.receive(receiveBuffer) != null) {
+            receiveBuffer.flip();
+            bytesReceived += receiveBuffer.remaining();
+            long tick = receiveBuffer.getInt();
+            int baselineOffset = receiveBuffer.get();
+            Snapshot baseline = baselineOffset == 0 ? Snapshot.EMPTY : history.get(tick - baselineOffset);
+            if(baseline == null || (latest != null && tick <= latest.tick)) {
+                //Baseline no longer held or out of order. A later one will do.
+                snapshotsDropped++;
+            } else {
+                Snapshot snapshot = history.claim(tick);
+                SnapshotCodec.decode(receiveBuffer, baseline, snapshot);
+                latest = snapshot;
+                snapshotsReceived++;
+                decoded++;
+            }
+            receiveBuffer.clear();
+        }
+        if(decoded > 0) {
+            send();
+        }
+        return decoded;
+    }
+
+    /**
+     * Sends the acknowledgement of the newest snapshot along with the inputs.
+     *
+     * @throws IOException If writing fails.
+     */
+    public void send() throws IOException {
+        sendBuffer.clear();
+        sendBuffer.put(role);
+        sendBuffer.putInt(latest != null ? (int) latest.tick : -1);
+        sendBuffer.put((byte) inputs);
+        sendBuffer.flip();
+        channel.write(sendBuffer);
+    }
+
+    /**
+     * Sets the inputs sent with every acknowledgement. Ignored by the server
+     * unless a player.
+     *
+     * @param inputs The LockstepSimulation INPUT_ bits.
+     */
+    public void setInputs(int inputs) {
+        this.inputs = inputs;
+    }
+
+    /**
+     * @return The newest snapshot received, null if none yet. Valid until the
+     * next HISTORY_LENGTH snapshots have been received.
+     */
+    public Snapshot getLatest() {
+        return latest;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getSnapshotsReceived() {
+        return snapshotsReceived;
+    }
+
+    public long getSnapshotsDropped() {
+        return snapshotsDropped;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Runs a spectator, printing the match state once a second.
+     *
+     * @param args The port of a server on the loopback interface, optional.
+     * @throws IOException If the client can't be started.
+     * @throws InterruptedException If interrupted whilst waiting.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : ReplicationServer.DEFAULT_PORT;
+        ReplicationClient client = new ReplicationClient(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port), ReplicationServer.ROLE_SPECTATOR
+        );
+        long lastPrint = System.currentTimeMillis();
+        while(true) {
+            if(client.poll() == 0 && client.latest == null) {
+                //Keep registering until the server is up.
+                client.send();
+            }
+            long now = System.currentTimeMillis();
+            if(now - lastPrint >= 1000 && client.latest != null) {
+                lastPrint = now;
+                Snapshot s = client.latest;
+                System.out.printf("tick %d, %d balls, paddles %.3f %.3f, %d bytes received%n",
+                        s.tick, s.nBalls,
+                        SnapshotCodec.dequantise(s.paddle1), SnapshotCodec.dequantise(s.paddle2),
+                        client.bytesReceived);
+            }
+            Thread.sleep(1);
+        }
+    }
+}
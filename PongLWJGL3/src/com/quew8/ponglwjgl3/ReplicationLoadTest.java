@@ -0,0 +1,98 @@
+package com.quew8.ponglwjgl3;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+
+/**
+ * A load generator for ReplicationServer. Starts a server and the specified
+ * number of clients in this process on the loopback interface, two of which
+ * are players pressing random controls, and reports bandwidth and the server's
+ * CPU time per client.
+ *
+ * @author Quew8
+ */
+public class ReplicationLoadTest {
+
+    /**
+     * @param args The number of clients and the duration in seconds, both
+     * optional.
+     * @throws Exception If the server or a client fails.
+     */
+    public static void main(String[] args) throws Exception {
+        int nClients = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        ReplicationServer server = new ReplicationServer(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0
+        );
+        Thread serverThread = new Thread(server, "Replication Server");
+        serverThread.start();
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+
+        ReplicationClient[] clients = new ReplicationClient[nClients];
+        for(int i = 0; i < nClients; i++) {
+            byte role = i == 0 ? ReplicationServer.ROLE_LEFT
+                    : i == 1 ? ReplicationServer.ROLE_RIGHT
+                    : ReplicationServer.ROLE_SPECTATOR;
+            clients[i] = new ReplicationClient(address, role);
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        //Let every client register and receive a full snapshot before measuring.
+        Thread.sleep(500);
+        poll(clients);
+        long startTick = server.getTick();
+        long startBytes = server.getBytesSent();
+        long startPackets = server.getPacketsSent();
+        long startFull = server.getFullSnapshotsSent();
+        long startCpu = threads.getThreadCpuTime(serverThread.getId());
+        long end = System.currentTimeMillis() + (seconds * 1000L);
+
+        Random random = new Random(0);
+        while(System.currentTimeMillis() < end) {
+            //Players change controls a few times a second.
+            if(random.nextInt(50) == 0) {
+                clients[0].setInputs(random.nextInt(4));
+            }
+            if(nClients > 1 && random.nextInt(50) == 0) {
+                clients[1].setInputs(random.nextInt(4) << 2);
+            }
+            poll(clients);
+            Thread.sleep(1);
+        }
+
+        long ticks = server.getTick() - startTick;
+        long bytes = server.getBytesSent() - startBytes;
+        long packets = server.getPacketsSent() - startPackets;
+        long full = server.getFullSnapshotsSent() - startFull;
+        long cpu = threads.getThreadCpuTime(serverThread.getId()) - startCpu;
+        server.stop();
+        serverThread.join();
+
+        long received = 0, dropped = 0;
+        for(ReplicationClient c: clients) {
+            received += c.getSnapshotsReceived();
+            dropped += c.getSnapshotsDropped();
+            c.close();
+        }
+        System.out.printf("clients:                      %d%n", nClients);
+        System.out.printf("ticks:                        %d%n", ticks);
+        System.out.printf("bytes per tick:               %.1f%n", (double) bytes / ticks);
+        System.out.printf("bytes per tick per client:    %.2f%n", (double) bytes / ticks / nClients);
+        System.out.printf("bytes per packet:             %.2f%n", (double) bytes / packets);
+        System.out.printf("full snapshots:               %d%n", full);
+        System.out.printf("server cpu per tick:          %.1f us%n", cpu / 1000d / ticks);
+        System.out.printf("server cpu per client tick:   %.3f us%n", cpu / 1000d / ticks / nClients);
+        System.out.printf("snapshots received / dropped: %d / %d%n", received, dropped);
+    }
+
+    private static void poll(ReplicationClient[] clients) throws IOException {
+        for(ReplicationClient c: clients) {
+            c.poll();
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.quew8.ponglwjgl3;
+
+import com.quew8.ponglwjgl3.SnapshotCodec.History;
+import com.quew8.ponglwjgl3.SnapshotCodec.Snapshot;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * An authoritative match server which replicates its state to player and
+ * spectator clients over UDP. The match is a LockstepSimulation stepped in
+ * real time. Each tick a snapshot is sent to every client, delta encoded
+ * against the newest snapshot that client has acknowledged.
+ *
+ * Client to server packets are: a role byte, the last received tick as an int
+ * (-1 for none) and an input byte which is only used from players. The first
+ * packet from an address registers it. Server to client packets are: the tick
+ * as an int, a byte of how many ticks before it the baseline is (0 for a full
+ * snapshot) and the encoded snapshot.
+ *
+ * @author Quew8
+ */
+public class ReplicationServer implements Runnable {
+    /**
+     * The default port to listen on.
+     */
+    public static final int DEFAULT_PORT = 27960;
+    /**
+     * Client roles.
+     */
+    public static final byte ROLE_SPECTATOR = 0, ROLE_LEFT = 1, ROLE_RIGHT = 2;
+    /**
+     * The number of snapshots kept by both ends for use as baselines.
+     */
+    public static final int HISTORY_LENGTH = 64;
+    /**
+     * The size of the largest datagram.
+     */
+    public static final int MAX_PACKET_SIZE = 65507;
+    /**
+     * Milliseconds without a packet after which a client is dropped.
+     */
+    private static final long CLIENT_TIMEOUT_MILLIS = 5000;
+    /**
+     * The channel all clients are served through.
+     */
+    private final DatagramChannel channel;
+    /**
+     * The authoritative match.
+     */
+    private final LockstepSimulation sim;
+    /**
+     * The seed of the match, new balls are derived from it and the tick.
+     */
+    private final long seed;
+    /**
+     * Recently sent snapshots.
+     */
+    private final History history = new History(HISTORY_LENGTH);
+    /**
+     * The connected clients by address.
+     */
+    private final Map<SocketAddress, ClientState> clients = new HashMap<>();
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(64);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+    /**
+     * The latest inputs of the left and right player.
+     */
+    private int leftInputs = 0, rightInputs = 0;
+    private volatile boolean running = true;
+    /**
+     * Totals for reporting.
+     */
+    private volatile long bytesSent = 0, packetsSent = 0, fullSnapshotsSent = 0;
+    /**
+     * Packets dropped for claiming a role their sender doesn't hold.
+     */
+    private volatile long packetsRejected = 0;
+
+    /**
+     * Creates a new server, binding to the specified address.
+     *
+     * @param bindAddress The address to listen on.
+     * @param seed The seed of the match.
+     * @throws IOException If the channel can't be opened.
+     */
+    public ReplicationServer(InetSocketAddress bindAddress, long seed) throws IOException {
+        this.seed = seed;
+        this.sim = new LockstepSimulation(seed);
+        this.channel = DatagramChannel.open();
+        channel.bind(bindAddress);
+        channel.configureBlocking(false);
+    }
+
+    /**
+     * Runs the server in real time until stop() is called.
+     */
+    @Override
+    public void run() {
+        long nextTick = System.nanoTime();
+        long tickNanos = LockstepSimulation.TICK_MILLIS * 1000000L;
+        try {
+            while(running) {
+                receive();
+                tick();
+                nextTick += tickNanos;
+                long sleep = nextTick - System.nanoTime();
+                if(sleep > 0) {
+                    Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+                } else if(sleep < -tickNanos * HISTORY_LENGTH) {
+                    //Too far behind to catch up. Don't try.
+                    nextTick = System.nanoTime();
+                }
+            }
+        } catch(IOException ex) {
+            throw new RuntimeException(ex);
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                channel.close();
+            } catch(IOException ex) {
+            }
+        }
+    }
+
+    /**
+     * Drains all pending client packets.
+     *
+     * @throws IOException If reading fails.
+     */
+    private void receive() throws IOException {
+        long now = System.currentTimeMillis();
+        SocketAddress from;
+        while((from = channel.receive(receiveBuffer)) != null) {
+            receiveBuffer.flip();
+            if(receiveBuffer.remaining() >= 6) {
+                byte role = receiveBuffer.get();
+                long ackTick = receiveBuffer.getInt();
+                int inputs = receiveBuffer.get();
+                ClientState client = clients.get(from);
+                if(client == null) {
+                    //A paddle is driven by the first address to claim it.
+                    if(role != ROLE_SPECTATOR && isRoleTaken(role)) {
+                        packetsRejected++;
+                        receiveBuffer.clear();
+                        continue;
+                    }
+                    client = new ClientState(role);
+                    clients.put(from, client);
+                } else if(role != client.role) {
+                    packetsRejected++;
+                    receiveBuffer.clear();
+                    continue;
+                }
+                client.lastHeard = now;
+                //Acks can arrive out of order.
+                client.ackTick = Math.max(client.ackTick, ackTick);
+                if(client.role == ROLE_LEFT) {
+                    leftInputs = inputs & (LockstepSimulation.INPUT_LEFT_UP | LockstepSimulation.INPUT_LEFT_DOWN);
+                } else if(client.role == ROLE_RIGHT) {
+                    rightInputs = inputs & (LockstepSimulation.INPUT_RIGHT_UP | LockstepSimulation.INPUT_RIGHT_DOWN);
+                }
+            }
+            receiveBuffer.clear();
+        }
+        for(Iterator<ClientState> it = clients.values().iterator(); it.hasNext();) {
+            if(now - it.next().lastHeard > CLIENT_TIMEOUT_MILLIS) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @param role The role.
+     * @return true if a connected client holds the specified role.
+     */
+    private boolean isRoleTaken(byte role) {
+        for(ClientState client: clients.values()) {
+            if(client.role == role) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Steps the match and sends the new snapshot to every client.
+     *
+     * @throws IOException If sending fails.
+     */
+    private void tick() throws IOException {
+        sim.step(leftInputs | rightInputs);
+        if(sim.isLost()) {
+            sim.spawnSeededBall(seed + sim.getTick());
+        }
+        Snapshot snapshot = history.claim(sim.getTick());
+        SnapshotCodec.capture(sim, snapshot);
+        for(Map.Entry<SocketAddress, ClientState> e: clients.entrySet()) {
+            ClientState client = e.getValue();
+            Snapshot baseline = null;
+            if(snapshot.tick - client.ackTick < HISTORY_LENGTH) {
+                baseline = history.get(client.ackTick);
+            }
+            sendBuffer.clear();
+            sendBuffer.putInt((int) snapshot.tick);
+            if(baseline != null) {
+                sendBuffer.put((byte) (snapshot.tick - baseline.tick));
+                SnapshotCodec.encode(snapshot, baseline, sendBuffer);
+            } else {
+                sendBuffer.put((byte) 0);
+                SnapshotCodec.encode(snapshot, Snapshot.EMPTY, sendBuffer);
+                fullSnapshotsSent++;
+            }
+            sendBuffer.flip();
+            bytesSent += channel.send(sendBuffer, e.getKey());
+            packetsSent++;
+        }
+    }
+
+    /**
+     * Stops the server. It will finish the current tick.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * @return The port the server is bound to.
+     * @throws IOException If the channel is closed.
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * @return The current tick of the match.
+     */
+    public long getTick() {
+        return sim.getTick();
+    }
+
+    /**
+     * @return The total bytes of snapshot packets sent.
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return The total snapshot packets sent.
+     */
+    public long getPacketsSent() {
+        return packetsSent;
+    }
+
+    /**
+     * @return The total snapshots sent without a baseline.
+     */
+    public long getFullSnapshotsSent() {
+        return fullSnapshotsSent;
+    }
+
+    /**
+     * @return The total packets dropped for claiming a role their sender 
+     * doesn't hold.
+     */
+    public long getPacketsRejected() {
+        return packetsRejected;
+    }
+
+    /**
+     * A struct representing a connected client.
+     */
+    private static class ClientState {
+        final byte role;
+        /**
+         * The newest tick the client has received, -1 if none.
+         */
+        long ackTick = -1;
+        /**
+         * The time of the last packet from this client.
+         */
+        long lastHeard;
+
+        ClientState(byte role) {
+            this.role = role;
+        }
+    }
+
+    /**
+     * Runs a server on the loopback interface.
+     *
+     * @param args The port and the seed, both optional.
+     * @throws IOException If the server can't be started.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+        ReplicationServer server = new ReplicationServer(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port), seed
+        );
+        System.out.println("Serving on port " + server.getPort());
+        server.run();
+    }
+}
@@ -0,0 +1,259 @@
+package com.quew8.ponglwjgl3;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import static com.quew8.ponglwjgl3.FixedPoint.*;
+
+/**
+ * Encodes snapshots of the paddles and balls for replication. Coordinates are
+ * quantised to 1/QUANT_SCALE screen units and then delta encoded against a
+ * baseline snapshot the receiver is known to hold, so that a field which is
+ * unchanged costs a single bit and a small change costs a byte.
+ *
+ * The encoded form of a snapshot is: a varint ball count, a byte with one
+ * changed bit per paddle followed by the changed paddles, then for each ball a
+ * byte with one changed bit per coord followed by the changed coords. Changed
+ * values are zigzag varints of the difference to the baseline. Balls with no
+ * counterpart in the baseline are encoded against 0.
+ *
+ * @author Quew8
+ */
+public class SnapshotCodec {
+    /**
+     * Quantisation steps per screen unit. Quantised values are offset by one
+     * screen unit so that balls just outside the court are still positive.
+     */
+    public static final int QUANT_SCALE = 4096;
+    /**
+     * The number of fixed point fractional bits dropped by quantisation.
+     */
+    private static final int QUANT_SHIFT = FRACTION_BITS - 12;
+
+    private SnapshotCodec() {}
+
+    /**
+     * Quantises a fixed point coordinate.
+     *
+     * @param fixed The fixed point value.
+     * @return The quantised value.
+     */
+    public static int quantise(int fixed) {
+        return (fixed + ONE) >> QUANT_SHIFT;
+    }
+
+    /**
+     * Converts a quantised coordinate back to screen units.
+     *
+     * @param quantised The quantised value.
+     * @return The value in screen units.
+     */
+    public static float dequantise(int quantised) {
+        return ((float) quantised / QUANT_SCALE) - 1;
+    }
+
+    /**
+     * Captures the current state of the specified simulation into the
+     * specified snapshot.
+     *
+     * @param sim The simulation.
+     * @param dest The snapshot to overwrite.
+     */
+    public static void capture(LockstepSimulation sim, Snapshot dest) {
+        dest.tick = sim.getTick();
+        dest.paddle1 = quantise(sim.getPaddleY(Pong.Side.LEFT));
+        dest.paddle2 = quantise(sim.getPaddleY(Pong.Side.RIGHT));
+        dest.setBallCount(sim.getBallCount());
+        for(int i = 0; i < dest.nBalls; i++) {
+            dest.ballX[i] = quantise(sim.getBallX(i));
+            dest.ballY[i] = quantise(sim.getBallY(i));
+        }
+    }
+
+    /**
+     * Encodes a snapshot against a baseline.
+     *
+     * @param snapshot The snapshot to encode.
+     * @param baseline The baseline the receiver holds or EMPTY.
+     * @param dest The buffer to write to.
+     */
+    public static void encode(Snapshot snapshot, Snapshot baseline, ByteBuffer dest) {
+        putVarInt(dest, snapshot.nBalls);
+        int mask = (snapshot.paddle1 != baseline.paddle1 ? 1 : 0)
+                | (snapshot.paddle2 != baseline.paddle2 ? 2 : 0);
+        dest.put((byte) mask);
+        if((mask & 1) != 0) {
+            putVarInt(dest, zigzag(snapshot.paddle1 - baseline.paddle1));
+        }
+        if((mask & 2) != 0) {
+            putVarInt(dest, zigzag(snapshot.paddle2 - baseline.paddle2));
+        }
+        for(int i = 0; i < snapshot.nBalls; i++) {
+            int baseX = i < baseline.nBalls ? baseline.ballX[i] : 0;
+            int baseY = i < baseline.nBalls ? baseline.ballY[i] : 0;
+            int ballMask = (snapshot.ballX[i] != baseX ? 1 : 0)
+                    | (snapshot.ballY[i] != baseY ? 2 : 0);
+            dest.put((byte) ballMask);
+            if((ballMask & 1) != 0) {
+                putVarInt(dest, zigzag(snapshot.ballX[i] - baseX));
+            }
+            if((ballMask & 2) != 0) {
+                putVarInt(dest, zigzag(snapshot.ballY[i] - baseY));
+            }
+        }
+    }
+
+    /**
+     * Decodes a snapshot encoded against the specified baseline.
+     *
+     * @param src The buffer to read from.
+     * @param baseline The baseline the snapshot was encoded against.
+     * @param dest The snapshot to overwrite. The tick is not set.
+     */
+    public static void decode(ByteBuffer src, Snapshot baseline, Snapshot dest) {
+        dest.setBallCount(getVarInt(src));
+        int mask = src.get();
+        dest.paddle1 = baseline.paddle1 + ((mask & 1) != 0 ? unzigzag(getVarInt(src)) : 0);
+        dest.paddle2 = baseline.paddle2 + ((mask & 2) != 0 ? unzigzag(getVarInt(src)) : 0);
+        for(int i = 0; i < dest.nBalls; i++) {
+            int baseX = i < baseline.nBalls ? baseline.ballX[i] : 0;
+            int baseY = i < baseline.nBalls ? baseline.ballY[i] : 0;
+            int ballMask = src.get();
+            dest.ballX[i] = baseX + ((ballMask & 1) != 0 ? unzigzag(getVarInt(src)) : 0);
+            dest.ballY[i] = baseY + ((ballMask & 2) != 0 ? unzigzag(getVarInt(src)) : 0);
+        }
+    }
+
+    private static int zigzag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    private static int unzigzag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint.
+     *
+     * @param dest The buffer to write to.
+     * @param v The value.
+     */
+    static void putVarInt(ByteBuffer dest, int v) {
+        while((v & ~0x7F) != 0) {
+            dest.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        dest.put((byte) v);
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint.
+     *
+     * @param src The buffer to read from.
+     * @return The value.
+     */
+    static int getVarInt(ByteBuffer src) {
+        int v = 0;
+        for(int shift = 0; shift < 32; shift += 7) {
+            int b = src.get();
+            v |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * A struct representing the quantised state of a match at a tick.
+     */
+    public static class Snapshot {
+        /**
+         * A snapshot with no balls and every field 0. The baseline for full
+         * snapshots.
+         */
+        public static final Snapshot EMPTY = new Snapshot();
+        /**
+         * The tick this snapshot was captured at, -1 if none.
+         */
+        long tick = -1;
+        /**
+         * The quantised y coords of the left and right paddles.
+         */
+        int paddle1, paddle2;
+        /**
+         * The number of balls and their quantised coords.
+         */
+        int nBalls;
+        int[] ballX = new int[8], ballY = new int[8];
+
+        /**
+         * Sets the number of balls, growing the coord arrays if needed.
+         *
+         * @param n The number of balls.
+         */
+        void setBallCount(int n) {
+            if(n > ballX.length) {
+                int newLength = Math.max(n, ballX.length * 2);
+                ballX = Arrays.copyOf(ballX, newLength);
+                ballY = Arrays.copyOf(ballY, newLength);
+            }
+            nBalls = n;
+        }
+
+        /**
+         * Copies another snapshot into this one.
+         *
+         * @param src The snapshot to copy.
+         */
+        void set(Snapshot src) {
+            tick = src.tick;
+            paddle1 = src.paddle1;
+            paddle2 = src.paddle2;
+            setBallCount(src.nBalls);
+            System.arraycopy(src.ballX, 0, ballX, 0, nBalls);
+            System.arraycopy(src.ballY, 0, ballY, 0, nBalls);
+        }
+    }
+
+    /**
+     * A ring of the most recent snapshots, indexed by tick. Used by the sender
+     * and receiver to find the baseline a snapshot was encoded against.
+     */
+    public static class History {
+        private final Snapshot[] ring;
+
+        public History(int length) {
+            ring = new Snapshot[length];
+            for(int i = 0; i < length; i++) {
+                ring[i] = new Snapshot();
+            }
+        }
+
+        /**
+         * Returns the snapshot of the specified tick if it is still held.
+         *
+         * @param tick The tick.
+         * @return The snapshot or null if it has been overwritten.
+         */
+        public Snapshot get(long tick) {
+            if(tick < 0) {
+                return null;
+            }
+            Snapshot s = ring[(int) (tick % ring.length)];
+            return s.tick == tick ? s : null;
+        }
+
+        /**
+         * Returns the slot to hold the snapshot of the specified tick,
+         * overwriting the oldest.
+         *
+         * @param tick The tick.
+         * @return The snapshot to overwrite.
+         */
+        public Snapshot claim(long tick) {
+            Snapshot s = ring[(int) (tick % ring.length)];
+            s.tick = tick;
+            return s;
+        }
+    }
+}
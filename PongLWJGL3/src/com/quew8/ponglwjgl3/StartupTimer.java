@@ -0,0 +1,87 @@
+package com.quew8.ponglwjgl3;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures how long after the JVM started the first frame was presented and
+ * how long until frame times settled, the JIT having compiled the hot paths.
+ *
+ * Frame times are taken over consecutive windows and they have settled once
+ * a window's median is within MEDIAN_TOLERANCE of the previous window's and
+ * its 95th percentile within SPREAD_TOLERANCE of its own median, so neither
+ * drifting down as more is compiled nor spiking on compilations. The time to
+ * stable frame time is that of the start of the window.
+ *
+ * It is fed the same frame times as QualityGovernor, which leave out the wait
+ * for vertical sync. With it a frame still being interpreted and one already
+ * compiled would both take a whole refresh and look alike.
+ *
+ * @author Quew8
+ */
+public class StartupTimer {
+    /**
+     * The number of frames per window.
+     */
+    public static final int WINDOW_FRAMES = 60;
+    private static final double MEDIAN_TOLERANCE = 0.1;
+    private static final double SPREAD_TOLERANCE = 1.5;
+    private final long jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private final Metrics.Counter firstFrameMillis, stableMillis, stableFrame;
+    private final FrameWindow window = new FrameWindow(WINDOW_FRAMES);
+    private long frames = 0;
+    private long windowStartMillis = 0, windowStartFrame = 0;
+    private long lastMedian = -1;
+    private boolean stable = false;
+
+    /**
+     * @param metrics The metrics to record the times in.
+     */
+    public StartupTimer(Metrics metrics) {
+        this.firstFrameMillis = metrics.counter("startup.first.frame.millis");
+        this.stableMillis = metrics.counter("startup.stable.millis");
+        this.stableFrame = metrics.counter("startup.stable.frame");
+    }
+
+    /**
+     * To be called once a frame has been presented.
+     *
+     * @param frameNanos The frame's time in nanoseconds.
+     */
+    public void onFrame(long frameNanos) {
+        if(stable) {
+            return;
+        }
+        if(frames == 0) {
+            firstFrameMillis.set(System.currentTimeMillis() - jvmStartMillis);
+        }
+        if(window.isEmpty()) {
+            windowStartMillis = System.currentTimeMillis() - jvmStartMillis;
+            windowStartFrame = frames;
+        }
+        frames++;
+        if(!window.add(frameNanos)) {
+            return;
+        }
+        long median = window.getPercentile(0.5);
+        long p95 = window.getPercentile(0.95);
+        if(lastMedian >= 0 && Math.abs(median - lastMedian) <= lastMedian * MEDIAN_TOLERANCE
+                && p95 <= median * SPREAD_TOLERANCE) {
+            stable = true;
+            stableMillis.set(windowStartMillis);
+            stableFrame.set(windowStartFrame);
+        }
+        lastMedian = median;
+    }
+
+    /**
+     * Prints the times measured so far.
+     *
+     * @param out Where to print them.
+     */
+    public void print(PrintStream out) {
+        out.println("time to first frame millis: " + (frames > 0 ? Long.toString(firstFrameMillis.get()) : "none"));
+        out.println("time to stable frame time millis: " + (stable ? Long.toString(stableMillis.get()) : "none"));
+        out.println("frames to stable frame time: " + (stable ? Long.toString(stableFrame.get()) : "none"));
+    }
+}
@@ -0,0 +1,295 @@
+package com.quew8.ponglwjgl3;
+
+import com.quew8.ponglwjgl3.Pong.Ball;
+import com.quew8.ponglwjgl3.Pong.Paddle;
+import com.quew8.ponglwjgl3.Pong.State;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * A single writer, multi reader ring of game states in a memory mapped file,
+ * for mirroring one authoritative match to renderer processes on the same
+ * machine. The writer publishes a slot per tick and never waits on or even
+ * knows about readers. Readers access the mapped memory in place so there
+ * are no syscalls or serialisation once mapped.
+ *
+ * Every slot is guarded by a sequence number in the manner of a seqlock. The
+ * writer invalidates a slot's sequence, writes it and then release-stores the
+ * new sequence into the slot and then the header. A reader acquire-loads the
+ * header to find the newest slot, reads it in place and then calls
+ * validate() to check that the slot was not overwritten whilst it read. With
+ * SLOT_COUNT slots a reader has that many ticks to finish.
+ *
+ * Layout, native byte order: a 64 byte header of magic, slot count, max balls,
+ * slot size as ints and then the latest sequence as a long at offset 16.
+ * Followed by the slots, each of which is the sequence as a long, the state
+ * ordinal, the ball count and then the paddles' and balls' coords as floats.
+ *
+ * @author Quew8
+ */
+public class StateRing {
+    /**
+     * Identifies a ring file.
+     */
+    private static final int MAGIC = 0x504F4E47;
+    /**
+     * The default number of slots.
+     */
+    public static final int DEFAULT_SLOT_COUNT = 64;
+    /**
+     * The default maximum number of balls published per slot.
+     */
+    public static final int DEFAULT_MAX_BALLS = 1024;
+    /**
+     * The most times copyLatestTo() tries to read a slot before the writer
+     * overwrites it.
+     */
+    public static final int MAX_READ_ATTEMPTS = 8;
+    /**
+     * Returned by copyLatestTo() when nothing has been published yet and when
+     * every attempt to read was lapped by the writer.
+     */
+    public static final long NOTHING_PUBLISHED = -1, LAPPED = -2;
+    /**
+     * Offsets into the header.
+     */
+    private static final int HEADER_SIZE = 64, MAGIC_OFFSET = 0, SLOT_COUNT_OFFSET = 4,
+            MAX_BALLS_OFFSET = 8, SLOT_SIZE_OFFSET = 12, LATEST_OFFSET = 16;
+    /**
+     * Offsets into a slot.
+     */
+    private static final int SEQUENCE_OFFSET = 0, STATE_OFFSET = 8, BALL_COUNT_OFFSET = 12,
+            PADDLE1_OFFSET = 16, PADDLE2_OFFSET = 20, BALLS_OFFSET = 24;
+    /**
+     * For ordered access to the sequence numbers.
+     */
+    private static final VarHandle LONG_VIEW =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final State[] STATES = State.values();
+    /**
+     * The mapped file.
+     */
+    private final MappedByteBuffer buffer;
+    private final int slotCount, maxBalls, slotSize;
+    /**
+     * The sequence of the next slot to write. Only used by the writer.
+     */
+    private long nextSequence;
+    /**
+     * The state of the last slot copied by copyLatestTo(). Only used by readers.
+     */
+    private State copiedState = null;
+
+    private StateRing(MappedByteBuffer buffer, int slotCount, int maxBalls, int slotSize, long nextSequence) {
+        this.buffer = buffer;
+        this.slotCount = slotCount;
+        this.maxBalls = maxBalls;
+        this.slotSize = slotSize;
+        this.nextSequence = nextSequence;
+    }
+
+    /**
+     * Creates the specified ring file and maps it for writing. An existing 
+     * file is unlinked rather than truncated, since truncating it would fault
+     * readers which still have it mapped. They keep the old file until they 
+     * reopen the path.
+     *
+     * @param path The file.
+     * @param slotCount The number of slots.
+     * @param maxBalls The maximum number of balls per slot. Further balls are not published.
+     * @return The writer.
+     * @throws IOException If the file can't be created or mapped.
+     */
+    public static StateRing create(Path path, int slotCount, int maxBalls) throws IOException {
+        //Slots are 8 byte aligned for the sequence.
+        int slotSize = ((BALLS_OFFSET + (maxBalls * 8)) + 7) & ~7;
+        long size = HEADER_SIZE + ((long) slotCount * slotSize);
+        MappedByteBuffer buffer;
+        Files.deleteIfExists(path);
+        try(FileChannel fc = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = fc.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        buffer.order(ByteOrder.nativeOrder());
+        buffer.putInt(SLOT_COUNT_OFFSET, slotCount);
+        buffer.putInt(MAX_BALLS_OFFSET, maxBalls);
+        buffer.putInt(SLOT_SIZE_OFFSET, slotSize);
+        LONG_VIEW.setRelease(buffer, LATEST_OFFSET, -1L);
+        for(int i = 0; i < slotCount; i++) {
+            LONG_VIEW.setRelease(buffer, HEADER_SIZE + (i * slotSize) + SEQUENCE_OFFSET, -1L);
+        }
+        //Magic last so that readers never see a half initialised header.
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        return new StateRing(buffer, slotCount, maxBalls, slotSize, 0);
+    }
+
+    /**
+     * Maps the specified ring file for reading.
+     *
+     * @param path The file.
+     * @return The reader.
+     * @throws IOException If the file can't be mapped or isn't a ring.
+     */
+    public static StateRing open(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try(FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        }
+        buffer.order(ByteOrder.nativeOrder());
+        if(buffer.capacity() < HEADER_SIZE || buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+            throw new IOException("Not a state ring: " + path);
+        }
+        return new StateRing(buffer, buffer.getInt(SLOT_COUNT_OFFSET),
+                buffer.getInt(MAX_BALLS_OFFSET), buffer.getInt(SLOT_SIZE_OFFSET), -1);
+    }
+
+    /**
+     * Publishes a new state. Never blocks.
+     *
+     * @param state The game state.
+     * @param paddle1 The left paddle.
+     * @param paddle2 The right paddle.
+     * @param balls The balls in play.
+     */
+    public void publish(State state, Paddle paddle1, Paddle paddle2, List<Ball> balls) {
+        long sequence = nextSequence++;
+        int slot = getSlotOffset(sequence);
+        LONG_VIEW.setRelease(buffer, slot + SEQUENCE_OFFSET, -1L);
+        //Keep the data stores after the invalidation.
+        VarHandle.storeStoreFence();
+        int nBalls = Math.min(maxBalls, balls.size());
+        buffer.putInt(slot + STATE_OFFSET, state.ordinal());
+        buffer.putInt(slot + BALL_COUNT_OFFSET, nBalls);
+        buffer.putFloat(slot + PADDLE1_OFFSET, paddle1.y);
+        buffer.putFloat(slot + PADDLE2_OFFSET, paddle2.y);
+        int offset = slot + BALLS_OFFSET;
+        for(int i = 0; i < nBalls; i++) {
+            Ball b = balls.get(i);
+            buffer.putFloat(offset, b.x);
+            buffer.putFloat(offset + 4, b.y);
+            offset += 8;
+        }
+        LONG_VIEW.setRelease(buffer, slot + SEQUENCE_OFFSET, sequence);
+        LONG_VIEW.setRelease(buffer, LATEST_OFFSET, sequence);
+    }
+
+    /**
+     * @return The sequence of the newest published slot, -1 if none.
+     */
+    public long getLatestSequence() {
+        return (long) LONG_VIEW.getAcquire(buffer, LATEST_OFFSET);
+    }
+
+    /**
+     * Checks that the slot of the specified sequence still holds it, i.e. that
+     * everything read from it since getLatestSequence() is consistent.
+     *
+     * @param sequence The sequence read from.
+     * @return true if the reads were consistent.
+     */
+    public boolean validate(long sequence) {
+        //Keep the data loads before the check.
+        VarHandle.loadLoadFence();
+        return (long) LONG_VIEW.getAcquire(buffer, getSlotOffset(sequence) + SEQUENCE_OFFSET) == sequence;
+    }
+
+    /**
+     * Accessors for the slot of the specified sequence. Values must be
+     * validated before being relied upon.
+     *
+     * @param sequence The sequence.
+     * @return The value in the slot.
+     */
+    public State getState(long sequence) {
+        return STATES[buffer.getInt(getSlotOffset(sequence) + STATE_OFFSET)];
+    }
+
+    public int getBallCount(long sequence) {
+        return buffer.getInt(getSlotOffset(sequence) + BALL_COUNT_OFFSET);
+    }
+
+    public float getPaddle1Y(long sequence) {
+        return buffer.getFloat(getSlotOffset(sequence) + PADDLE1_OFFSET);
+    }
+
+    public float getPaddle2Y(long sequence) {
+        return buffer.getFloat(getSlotOffset(sequence) + PADDLE2_OFFSET);
+    }
+
+    public float getBallX(long sequence, int i) {
+        return buffer.getFloat(getSlotOffset(sequence) + BALLS_OFFSET + (i * 8));
+    }
+
+    public float getBallY(long sequence, int i) {
+        return buffer.getFloat(getSlotOffset(sequence) + BALLS_OFFSET + (i * 8) + 4);
+    }
+
+    /**
+     * Copies the newest consistent state into the specified game objects for
+     * rendering. Ball objects already in the list are reused. Gives up after
+     * MAX_READ_ATTEMPTS reads overwritten by the writer whilst they were made,
+     * leaving the objects holding a mix of recent states.
+     *
+     * @param paddle1 The left paddle.
+     * @param paddle2 The right paddle.
+     * @param balls The list to hold the balls in play.
+     * @param pool The pool to take balls from and return them to.
+     * @return The sequence copied, whose state is then getCopiedState(),
+     * NOTHING_PUBLISHED if nothing has been published yet or LAPPED if every
+     * attempt was overwritten.
+     */
+    public long copyLatestTo(Paddle paddle1, Paddle paddle2, List<Ball> balls, BallPool pool) {
+        for(int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            long sequence = getLatestSequence();
+            if(sequence < 0) {
+                return NOTHING_PUBLISHED;
+            }
+            State state = getState(sequence);
+            int nBalls = Math.min(maxBalls, getBallCount(sequence));
+            paddle1.y = getPaddle1Y(sequence);
+            paddle2.y = getPaddle2Y(sequence);
+            while(balls.size() > nBalls) {
+                pool.free(balls.remove(balls.size() - 1));
+            }
+            for(int i = 0; i < nBalls; i++) {
+                float x = getBallX(sequence, i), y = getBallY(sequence, i);
+                if(i < balls.size()) {
+                    balls.get(i).x = x;
+                    balls.get(i).y = y;
+                } else {
+                    balls.add(pool.obtain(x, y, 0, 0));
+                }
+            }
+            if(validate(sequence)) {
+                copiedState = state;
+                return sequence;
+            }
+            //Lapped by the writer. Just take the newer one.
+        }
+        return LAPPED;
+    }
+
+    /**
+     * @return The state of the slot last copied by copyLatestTo(), null if
+     * none has been.
+     */
+    public State getCopiedState() {
+        return copiedState;
+    }
+
+    /**
+     * @param sequence The sequence.
+     * @return The offset of the slot holding the specified sequence.
+     */
+    private int getSlotOffset(long sequence) {
+        return HEADER_SIZE + ((int) (sequence % slotCount) * slotSize);
+    }
+}
@@ -0,0 +1,128 @@
+package com.quew8.ponglwjgl3;
+
+import com.quew8.ponglwjgl3.BatchEnvironment.VelocityDistribution;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Simulates balls flat out, without a window or rendering, and prints the
+ * throughput as a single line of JSON for capacity planning and comparing
+ * JVM flags. Each ball plays its own match of a BatchEnvironment so that a
+ * ball which leaves the court is replaced rather than ending the run.
+ *
+ * @author Quew8
+ */
+public class StressTest {
+    /**
+     * The simulated time per tick in milliseconds, one 60Hz frame.
+     */
+    private static final double TICK_MILLIS = 1000d / 60;
+    /**
+     * The number of most recent tick durations kept for the percentiles.
+     */
+    private static final int LATENCY_SAMPLES = 1 << 20;
+
+    /**
+     * @param args The number of balls, the velocity distribution (one of
+     * "uniform", "constant" or "fast"), the duration in seconds, the number of
+     * threads and the seed, all optional.
+     * @throws Exception If a parallel step fails.
+     */
+    public static void main(String[] args) throws Exception {
+        int nBalls = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        VelocityDistribution distribution = args.length > 1
+                ? VelocityDistribution.valueOf(args[1].toUpperCase()) : VelocityDistribution.UNIFORM;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        int nThreads = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 0;
+
+        BatchEnvironment env = new BatchEnvironment(nBalls, seed, distribution);
+        ForkJoinPool pool = nThreads > 1 ? new ForkJoinPool(nThreads) : null;
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+        for(MemoryPoolMXBean p: pools) {
+            p.resetPeakUsage();
+        }
+        long startGcMillis = BenchmarkReport.getGcMillis();
+        long startGcCount = BenchmarkReport.getGcCount();
+
+        long[] tickNanos = new long[LATENCY_SAMPLES];
+        long ticks = 0;
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        long now = start;
+        while(now < end) {
+            step(env, pool);
+            long after = System.nanoTime();
+            tickNanos[(int) (ticks % LATENCY_SAMPLES)] = after - now;
+            ticks++;
+            now = after;
+        }
+        double elapsed = (now - start) / 1e9;
+        long gcMillis = BenchmarkReport.getGcMillis() - startGcMillis;
+        long gcCount = BenchmarkReport.getGcCount() - startGcCount;
+        long peakHeap = 0, peakNonHeap = 0;
+        for(MemoryPoolMXBean p: pools) {
+            if(p.getType() == MemoryType.HEAP) {
+                peakHeap += p.getPeakUsage().getUsed();
+            } else {
+                peakNonHeap += p.getPeakUsage().getUsed();
+            }
+        }
+        if(pool != null) {
+            pool.shutdown();
+        }
+
+        int nSamples = (int) Math.min(ticks, LATENCY_SAMPLES);
+        Arrays.sort(tickNanos, 0, nSamples);
+        new BenchmarkReport()
+                .add("balls", nBalls).add("distribution", distribution.name().toLowerCase())
+                .add("threads", nThreads).add("seed", seed)
+                .add("seconds", elapsed, 3).add("ticks", ticks).add("ticksPerSecond", ticks / elapsed, 1)
+                .add("ballUpdatesPerSecond", (ticks * (double) nBalls) / elapsed, 1)
+                .add("tickP50Micros", percentile(tickNanos, nSamples, 0.5) / 1e3, 2)
+                .add("tickP99Micros", percentile(tickNanos, nSamples, 0.99) / 1e3, 2)
+                .add("tickMaxMicros", (nSamples > 0 ? tickNanos[nSamples - 1] : 0) / 1e3, 2)
+                .add("gcCount", gcCount).add("gcMillis", gcMillis)
+                .add("peakHeapBytes", peakHeap).add("peakNonHeapBytes", peakNonHeap)
+                .print(System.out);
+    }
+
+    /**
+     * Steps every ball by a tick, in parallel on the pool if there is one. A
+     * parallel stream started from within a pool runs on that pool rather
+     * than the common one, which is how the thread count is applied.
+     *
+     * @param env The balls.
+     * @param pool The pool or null to step on this thread.
+     * @throws Exception If a parallel step fails.
+     */
+    private static void step(BatchEnvironment env, ForkJoinPool pool) throws Exception {
+        if(pool == null) {
+            env.step(TICK_MILLIS);
+        } else {
+            try {
+                pool.submit(() -> env.stepParallel(TICK_MILLIS)).get();
+            } catch(ExecutionException ex) {
+                throw new RuntimeException(ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * @param sorted The sorted samples.
+     * @param n The number of samples.
+     * @param fraction The fraction of samples at or below the result.
+     * @return The percentile, 0 if there are no samples.
+     */
+    private static long percentile(long[] sorted, int n, double fraction) {
+        if(n == 0) {
+            return 0;
+        }
+        return sorted[Math.min(n - 1, (int) Math.ceil(fraction * n) - 1)];
+    }
+}
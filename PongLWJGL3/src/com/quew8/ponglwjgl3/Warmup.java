@@ -0,0 +1,63 @@
+package com.quew8.ponglwjgl3;
+
+import java.io.IOException;
+
+/**
+ * Plays a short synthetic game on a HeadlessBackend so that the JIT has
+ * compiled the update and render paths before the real window appears,
+ * rather than the first seconds of play stuttering whilst they are still
+ * interpreted.
+ *
+ * The game is the "party" scenario of HeadlessRunner, balls being dragged
+ * out and bounced around continuously, which reaches every per ball path.
+ * It runs against the same system properties as the real game so warms the
+ * same configuration, but maps no state ring and records no hitches since
+ * those are seen outside the process.
+ *
+ * The backend calls are profiled against HeadlessBackend rather than
+ * LWJGLBackend so their call sites may still be recompiled in the real
+ * game's first frames. How much of the stutter it removes is yet to be
+ * measured on a display, with -Dpong.startup=true.
+ *
+ * Run on its own it is also the training run for a class data sharing
+ * archive, see the "cds" target in build.xml.
+ *
+ * @author Quew8
+ */
+public class Warmup {
+    /**
+     * The default virtual duration of a warm-up in seconds.
+     */
+    public static final double DEFAULT_SECONDS = 30;
+
+    /**
+     * Plays a warm-up game.
+     *
+     * @param seconds The virtual duration in seconds.
+     * @return The real time it took in nanoseconds.
+     */
+    public static long run(double seconds) {
+        long start = System.nanoTime();
+        HeadlessBackend backend = new HeadlessBackend();
+        Pong pong = new Pong(backend);
+        pong.initWarmup(Pong.WINDOW_WIDTH, Pong.WINDOW_HEIGHT);
+        HeadlessRunner.schedule(pong, backend, "party", seconds, Pong.WINDOW_WIDTH, Pong.WINDOW_HEIGHT);
+        backend.setEndTime(seconds * 1000);
+        pong.loop();
+        pong.deinit();
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @param args The virtual duration in seconds, optional.
+     * @throws java.io.IOException If the natives cannot be extracted.
+     */
+    public static void main(String[] args) throws IOException {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : DEFAULT_SECONDS;
+        //Load the natives as the game would so the archive holds those classes too.
+        Pong.extractNatives();
+        long nanos = run(seconds);
+        System.out.println("virtual seconds: " + seconds);
+        System.out.printf("warm-up millis: %.1f%n", nanos / 1e6);
+    }
+}